@@ -43,6 +43,7 @@ import org.jboss.weld.environment.se.events.ContainerInitialized;
 public final class StatisticsPageServer {
 
     private static final Logger LOGGER = Logger.getLogger(StatisticsPageServer.class.getName());
+    private static final int REQUEST_TIMEOUT = 5000;
 
     @Inject
     private HttpRequestHandlerFactory handlerFactory;
@@ -68,10 +69,11 @@ public final class StatisticsPageServer {
                 serverSocket.setSoTimeout(10);
                 final Socket socket = serverSocket.accept();
                 LOGGER.fine(() -> String.format("New connection accepted %s:%s", socket.getInetAddress(), socket.getPort()));
+                socket.setSoTimeout(REQUEST_TIMEOUT);
                 final OutputStream outputStream = socket.getOutputStream();
 
                 // Construct handler to process the HTTP request message.
-                pool.runAsync(handlerFactory.createHandler(outputStream)).thenAccept((Void) -> silentlyClose(socket, outputStream));
+                pool.runAsync(handlerFactory.createHandler(socket.getInputStream(), outputStream)).thenAccept((Void) -> silentlyClose(socket, outputStream));
             } catch (SocketTimeoutException e) {
                 // ignore time outs
             } catch (IOException e) {
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Bounded aggregation of entries by identity. The first entry with an identity
+ * is kept, later ones only increment its count. When more than the maximum
+ * number of identities are held, the oldest identity is evicted with its
+ * count.
+ *
+ * The identity of an entry is computed once per add, the entries are kept in
+ * a hash map in insertion order with a primitive count in place. Adds take a
+ * write lock, readers a read lock that is held only to look up a count or to
+ * copy a snapshot.
+ *
+ * @author Philippe Tjon-A-Hen
+ *
+ * @param <T>
+ */
+public final class Aggregator<T> implements Iterable<T> {
+
+    private final int maxSize;
+    private final Function<T, String> identityExtractor;
+    private final Map<String, Aggregate<T>> aggregates;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * @param size max number of identities.
+     * @param identityExtractor Functor to extract the identity of the
+     * aggregate.
+     */
+    public Aggregator(final int size, final Function<T, String> identityExtractor) {
+        this.maxSize = size;
+        this.identityExtractor = identityExtractor;
+        this.aggregates = new LinkedHashMap<String, Aggregate<T>>(2 * size, 0.75f) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Aggregate<T>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Adds an entry, or counts it when its identity is already held.
+     *
+     * @param entry the entry.
+     * @return the count of the identity including this entry.
+     */
+    public int add(final T entry) {
+        final String identity = identityExtractor.apply(entry);
+        final long stamp = lock.writeLock();
+        try {
+            final Aggregate<T> aggregate = aggregates.get(identity);
+            if (aggregate == null) {
+                aggregates.put(identity, new Aggregate<>(entry));
+                return 1;
+            }
+            return ++aggregate.count;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param entry an entry.
+     * @return the count of the identity of the entry, 0 when not held.
+     */
+    public int getAggregateCount(final T entry) {
+        final String identity = identityExtractor.apply(entry);
+        final long stamp = lock.readLock();
+        try {
+            final Aggregate<T> aggregate = aggregates.get(identity);
+            return aggregate == null ? 0 : aggregate.count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int size() {
+        final long stamp = lock.readLock();
+        try {
+            return aggregates.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the first entry of every identity, oldest first.
+     */
+    public List<T> snapshot() {
+        final long stamp = lock.readLock();
+        try {
+            final List<T> result = new ArrayList<>(aggregates.size());
+            for (Aggregate<T> aggregate : aggregates.values()) {
+                result.add(aggregate.entry);
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Calls the action with the first entry and the count of every identity,
+     * oldest first, as one consistent view.
+     *
+     * @param action the action.
+     */
+    public void forEachAggregate(final ObjIntConsumer<T> action) {
+        final long stamp = lock.readLock();
+        try {
+            for (Aggregate<T> aggregate : aggregates.values()) {
+                action.accept(aggregate.entry, aggregate.count);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return an iterator over a snapshot, oldest first.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return Collections.unmodifiableList(snapshot()).iterator();
+    }
+
+    private static final class Aggregate<T> {
+
+        private final T entry;
+        private int count = 1;
+
+        Aggregate(final T entry) {
+            this.entry = entry;
+        }
+    }
+}
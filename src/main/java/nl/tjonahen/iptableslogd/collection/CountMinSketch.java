@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+/**
+ * Count-Min sketch with conservative update, estimates the count of any key
+ * in a fixed number of counters.
+ *
+ * A key is counted in one counter per row, the estimate is the lowest of
+ * them. An estimate is never below the true count, and with a probability of
+ * at least 1 - e^-depth at most e / width * total above it. Conservative
+ * update only raises the counters of a key up to its new estimate, which
+ * keeps the overestimation of the other keys sharing them lower.
+ *
+ * Not thread safe.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final int mask;
+    // row major, the counter of row r is at r * width + index
+    private final long[] counters;
+    private long total;
+
+    /**
+     * @param width the counters per row, rounded up to a power of two.
+     * @param depth the number of rows.
+     */
+    public CountMinSketch(final int width, final int depth) {
+        if (width < 1 || depth < 1 || width > 1 << 30) {
+            throw new IllegalArgumentException("Invalid sketch " + width + " x " + depth);
+        }
+        this.width = Integer.highestOneBit(Math.max(2, width) - 1) << 1;
+        this.depth = depth;
+        this.mask = this.width - 1;
+        this.counters = new long[this.width * depth];
+    }
+
+    private CountMinSketch(final CountMinSketch other) {
+        this.width = other.width;
+        this.depth = other.depth;
+        this.mask = other.mask;
+        this.counters = other.counters.clone();
+        this.total = other.total;
+    }
+
+    /**
+     * @return a copy of this sketch.
+     */
+    public CountMinSketch copy() {
+        return new CountMinSketch(this);
+    }
+
+    /**
+     * Adds to the count of a key.
+     *
+     * @param key the key.
+     * @param count the count to add.
+     */
+    public void add(final long key, final long count) {
+        final long hash = mix(key);
+        final long estimate = estimateHash(hash) + count;
+        for (int row = 0; row < depth; row++) {
+            final int index = index(hash, row);
+            if (counters[index] < estimate) {
+                counters[index] = estimate;
+            }
+        }
+        total += count;
+    }
+
+    /**
+     * @param key the key.
+     * @return the estimated count of the key.
+     */
+    public long estimate(final long key) {
+        return estimateHash(mix(key));
+    }
+
+    private long estimateHash(final long hash) {
+        long result = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            result = Math.min(result, counters[index(hash, row)]);
+        }
+        return result;
+    }
+
+    // double hashing, the rows use h1 + row * h2
+    private int index(final long hash, final int row) {
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32) | 1;
+        return row * width + (h1 + row * h2 & mask);
+    }
+
+    private static long mix(final long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return the maximum overestimation of an estimate, with probability
+     * getConfidence().
+     */
+    public long getErrorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    /**
+     * @return the probability an estimate is within getErrorBound().
+     */
+    public double getConfidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+    /**
+     * @return the sum of all counts added.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+}
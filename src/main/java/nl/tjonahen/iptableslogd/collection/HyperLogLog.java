@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch, estimates the number of distinct values added in a fixed
+ * number of bytes. With 2^precision registers the standard error is about
+ * 1.04 / sqrt(2^precision), small counts are estimated by linear counting and
+ * are close to exact.
+ *
+ * Sketches of the same precision can be merged, the result estimates the
+ * distinct values added to either of them.
+ *
+ * The estimate is cached until a register changes, which becomes rare once
+ * the registers fill up. Not thread safe.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+    private long estimate;
+    private boolean changed;
+
+    /**
+     * @param precision the number of index bits, between 4 and 16.
+     */
+    public HyperLogLog(final int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision out of range " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param other the sketch to copy.
+     */
+    public HyperLogLog(final HyperLogLog other) {
+        this.precision = other.precision;
+        this.registers = Arrays.copyOf(other.registers, other.registers.length);
+        this.estimate = other.estimate;
+        this.changed = other.changed;
+    }
+
+    /**
+     * Adds a value, it is hashed first.
+     *
+     * @param value the value.
+     */
+    public void add(final long value) {
+        addHash(mix(value));
+    }
+
+    /**
+     * Adds a value that is already a well distributed 64 bit hash.
+     *
+     * @param hash the hash.
+     */
+    public void addHash(final long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        // a sentinel bit bounds the rank when the remaining bits are all 0
+        final int rank = Long.numberOfLeadingZeros(hash << precision | 1L << (precision - 1)) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+            changed = true;
+        }
+    }
+
+    /**
+     * Merges another sketch into this one.
+     *
+     * @param other a sketch of the same precision.
+     */
+    public void merge(final HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Unable to merge precision " + other.precision + " into " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * Removes all values.
+     */
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+        estimate = 0;
+        changed = false;
+    }
+
+    /**
+     * @return the estimated number of distinct values.
+     */
+    public long estimate() {
+        if (changed) {
+            estimate = compute();
+            changed = false;
+        }
+        return estimate;
+    }
+
+    private long compute() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double alpha = 0.7213 / (1 + 1.079 / m);
+        final double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /*
+     * The finalizer of MurmurHash3, spreads the bits of small values such as
+     * port numbers and addresses over the whole word.
+     */
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
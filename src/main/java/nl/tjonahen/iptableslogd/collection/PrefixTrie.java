@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.Arrays;
+
+/**
+ * Trie of address prefixes of up to 128 bits, the bits are given as a high
+ * and a low long. An IPv4 prefix is stored in the high 32 bits of high.
+ *
+ * Every node branches on a byte of the address, a lookup takes at most 4 steps
+ * for IPv4 and 16 for IPv6 and stops at the first prefix that contains the
+ * address. A prefix that does not end on a byte boundary is expanded to all
+ * the bytes it covers. Built once, lookups from any number of threads after
+ * that.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class PrefixTrie {
+
+    private static final int STRIDE = 8;
+    private static final int FANOUT = 1 << STRIDE;
+    // a slot holds the index of the child node, 0 when absent or MATCH
+    private static final int MATCH = -1;
+
+    private int[] slots = new int[FANOUT];
+    private int nodes = 1;
+    private boolean all;
+
+    /**
+     * Adds a prefix.
+     *
+     * @param high the first 64 bits.
+     * @param low the last 64 bits.
+     * @param length the prefix length, 0 to 128.
+     */
+    public void add(final long high, final long low, final int length) {
+        if (length < 0 || length > 128) {
+            throw new IllegalArgumentException("Invalid prefix length " + length);
+        }
+        if (length == 0) {
+            all = true;
+            return;
+        }
+        int node = 0;
+        int level = 0;
+        for (; (level + 1) * STRIDE < length; level++) {
+            final int index = node * FANOUT + digit(high, low, level);
+            if (slots[index] == MATCH) {
+                // a shorter prefix holds this one
+                return;
+            }
+            if (slots[index] == 0) {
+                // newNode may replace the array
+                final int child = newNode();
+                slots[index] = child;
+            }
+            node = slots[index];
+        }
+        // the last byte, expanded to the values the remaining bits cover
+        final int free = (level + 1) * STRIDE - length;
+        final int first = digit(high, low, level) & -(1 << free);
+        for (int i = first; i < first + (1 << free); i++) {
+            slots[node * FANOUT + i] = MATCH;
+        }
+    }
+
+    /**
+     * @param high the first 64 bits of the address.
+     * @param low the last 64 bits of the address.
+     * @return true when a prefix contains the address.
+     */
+    public boolean matches(final long high, final long low) {
+        if (all) {
+            return true;
+        }
+        int node = 0;
+        for (int level = 0; level < 128 / STRIDE; level++) {
+            node = slots[node * FANOUT + digit(high, low, level)];
+            if (node <= 0) {
+                return node == MATCH;
+            }
+        }
+        return false;
+    }
+
+    private static int digit(final long high, final long low, final int level) {
+        final int shift = 56 - STRIDE * (level & 7);
+        return (int) ((level < 8 ? high : low) >>> shift) & (FANOUT - 1);
+    }
+
+    private int newNode() {
+        if ((nodes + 1) * FANOUT > slots.length) {
+            slots = Arrays.copyOf(slots, 2 * slots.length);
+        }
+        return nodes++;
+    }
+}
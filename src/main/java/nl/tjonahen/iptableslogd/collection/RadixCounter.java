@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compressed binary trie (Patricia trie) counting addresses of up to 128
+ * bits, given as a high and a low long as in PrefixTrie. Every node holds the
+ * count of all addresses below it, so the count of any prefix is known.
+ *
+ * The number of nodes is bounded. When there are more than maxNodes the
+ * coldest leaves are merged into their parents, their count moves to the
+ * shorter prefix. Busy addresses keep their own node, a netblock of many cold
+ * addresses ends up as a single node of its prefix.
+ *
+ * Not thread safe.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class RadixCounter {
+
+    private static final Comparator<Node> BY_TOTAL = Comparator.comparingLong((Node n) -> n.total);
+
+    private final int width;
+    private final int maxNodes;
+    private Node root;
+    private int nodes;
+    private long total;
+
+    /**
+     * @param width the address length in bits, 32 or 128.
+     * @param maxNodes the maximum number of nodes.
+     */
+    public RadixCounter(final int width, final int maxNodes) {
+        if (width < 1 || width > 128 || maxNodes < 4) {
+            throw new IllegalArgumentException("Invalid radix counter " + width + " bits, " + maxNodes + " nodes");
+        }
+        this.width = width;
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Counts an address.
+     *
+     * @param high the first 64 bits.
+     * @param low the last 64 bits.
+     * @param count the count to add.
+     */
+    public void add(final long high, final long low, final long count) {
+        total += count;
+        if (root == null) {
+            root = new Node(high, low, width, null);
+            root.own = count;
+            root.total = count;
+            nodes = 1;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            final int common = commonLength(node.high, node.low, high, low, node.length);
+            if (common < node.length) {
+                split(node, common, high, low, count);
+                break;
+            }
+            node.total += count;
+            if (node.length == width) {
+                node.own += count;
+                break;
+            }
+            final boolean right = bit(high, low, node.length);
+            final Node child = right ? node.right : node.left;
+            if (child == null) {
+                final Node leaf = new Node(high, low, width, node);
+                leaf.own = count;
+                leaf.total = count;
+                node.setChild(right, leaf);
+                nodes++;
+                break;
+            }
+            node = child;
+        }
+        if (nodes > maxNodes) {
+            compact();
+        }
+    }
+
+    /*
+     * Insert a node of the common prefix above node, with node and a new leaf
+     * as its children.
+     */
+    private void split(final Node node, final int common, final long high, final long low, final long count) {
+        final Node parent = node.parent;
+        final Node branch = new Node(node.high, node.low, common, parent);
+        branch.total = node.total + count;
+        if (parent == null) {
+            root = branch;
+        } else {
+            parent.setChild(parent.right == node, branch);
+        }
+        final Node leaf = new Node(high, low, width, branch);
+        leaf.own = count;
+        leaf.total = count;
+        node.parent = branch;
+        final boolean right = bit(high, low, common);
+        branch.setChild(right, leaf);
+        branch.setChild(!right, node);
+        nodes += 2;
+    }
+
+    /*
+     * Merge the coldest leaves into their parents until a quarter of the
+     * nodes is free. A parent that becomes a leaf is merged in a next pass
+     * when that is not enough.
+     */
+    private void compact() {
+        final int target = maxNodes - maxNodes / 4;
+        while (nodes > target) {
+            final List<Node> leaves = new ArrayList<>();
+            collectLeaves(root, leaves);
+            leaves.sort(BY_TOTAL);
+            final int before = nodes;
+            for (Node leaf : leaves) {
+                if (nodes <= target) {
+                    break;
+                }
+                merge(leaf);
+            }
+            if (nodes == before) {
+                return;
+            }
+        }
+    }
+
+    private void merge(final Node leaf) {
+        final Node parent = leaf.parent;
+        if (parent == null || leaf.left != null || leaf.right != null) {
+            return;
+        }
+        parent.own += leaf.total;
+        parent.setChild(parent.right == leaf, null);
+        nodes--;
+    }
+
+    private static void collectLeaves(final Node node, final List<Node> leaves) {
+        if (node == null) {
+            return;
+        }
+        if (node.left == null && node.right == null) {
+            leaves.add(node);
+        } else {
+            collectLeaves(node.left, leaves);
+            collectLeaves(node.right, leaves);
+        }
+    }
+
+    /**
+     * The prefixes of a length with the highest count. A count that was merged
+     * into a shorter prefix is not included.
+     *
+     * @param length the prefix length.
+     * @param limit the maximum number of prefixes.
+     * @return the prefixes, highest count first.
+     */
+    public List<Prefix> top(final int length, final int limit) {
+        final List<Prefix> result = new ArrayList<>();
+        collect(root, length, result);
+        result.sort(Comparator.comparingLong(Prefix::getCount).reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    // the highest node at or below length holds the count of its prefix
+    private void collect(final Node node, final int length, final List<Prefix> result) {
+        if (node == null) {
+            return;
+        }
+        if (node.length >= length) {
+            result.add(new Prefix(node.high, node.low, length, node.total, width));
+        } else {
+            collect(node.left, length, result);
+            collect(node.right, length, result);
+        }
+    }
+
+    /**
+     * The hierarchical heavy hitters, the prefixes holding at least share of
+     * the total count that are not explained by heavy hitters below them.
+     *
+     * @param share the minimum share of the total count, above 0.
+     * @return the heavy hitters, the longest prefixes first.
+     */
+    public List<Prefix> heavyHitters(final double share) {
+        final List<Prefix> result = new ArrayList<>();
+        if (root != null) {
+            discounted(root, Math.max(1, (long) Math.ceil(share * total)), width, result);
+        }
+        result.sort(Comparator.comparingInt(Prefix::getLength).reversed());
+        return result;
+    }
+
+    private static long discounted(final Node node, final long threshold, final int width, final List<Prefix> result) {
+        long count = node.own;
+        if (node.left != null) {
+            count += discounted(node.left, threshold, width, result);
+        }
+        if (node.right != null) {
+            count += discounted(node.right, threshold, width, result);
+        }
+        if (count >= threshold) {
+            result.add(new Prefix(node.high, node.low, node.length, count, width));
+            return 0;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of nodes.
+     */
+    public int getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the sum of all counts added.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    private static boolean bit(final long high, final long low, final int index) {
+        final long bits = index < 64 ? high << index : low << index - 64;
+        return bits < 0;
+    }
+
+    private static int commonLength(final long aHigh, final long aLow, final long bHigh, final long bLow, final int max) {
+        final long high = aHigh ^ bHigh;
+        final int common = high != 0 ? Long.numberOfLeadingZeros(high) : 64 + Long.numberOfLeadingZeros(aLow ^ bLow);
+        return Math.min(common, max);
+    }
+
+    private static long mask(final long bits, final int length) {
+        return length <= 0 ? 0 : length >= 64 ? bits : bits & -1L << 64 - length;
+    }
+
+    /**
+     * A prefix and its count.
+     */
+    public static final class Prefix {
+
+        private final long high;
+        private final long low;
+        private final int length;
+        private final long count;
+        private final int width;
+
+        private Prefix(final long high, final long low, final int length, final long count, final int width) {
+            this.high = mask(high, length);
+            this.low = mask(low, length - 64);
+            this.length = length;
+            this.count = count;
+            this.width = width;
+        }
+
+        public long getHigh() {
+            return high;
+        }
+
+        public long getLow() {
+            return low;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the address length of the counter, 32 or 128.
+         */
+        public int getWidth() {
+            return width;
+        }
+    }
+
+    private static final class Node {
+
+        // the address bits, only the first length bits are significant
+        private final long high;
+        private final long low;
+        private final int length;
+        private long own;
+        private long total;
+        private Node parent;
+        private Node left;
+        private Node right;
+
+        Node(final long high, final long low, final int length, final Node parent) {
+            this.high = high;
+            this.low = low;
+            this.length = length;
+            this.parent = parent;
+        }
+
+        void setChild(final boolean right, final Node child) {
+            if (right) {
+                this.right = child;
+            } else {
+                this.left = child;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Bounded collection holding the last added elements. When it is full an add
+ * evicts the oldest element, both in constant time.
+ *
+ * There is a single writer: add must not be called concurrently, or must be
+ * synchronized by the caller. Readers on other threads do not lock, they
+ * iterate a snapshot of the elements, oldest first. A snapshot never holds a
+ * slot the writer was replacing while it was copied, so it is a contiguous,
+ * in order run of added elements.
+ *
+ * @author Philippe Tjon-A-Hen
+ *
+ * @param <T>
+ */
+public class RingBuffer<T> extends AbstractCollection<T> {
+
+    private final int capacity;
+    private final AtomicReferenceArray<T> slots;
+    // the number of elements ever added, and the same plus the one being
+    // added while the writer replaces a slot
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong claimed = new AtomicLong();
+    private Function<T, Void> removeCallback = (T t) -> {
+        // do nothing
+        return null;
+    };
+
+    /**
+     * @param capacity the maximum number of elements.
+     */
+    public RingBuffer(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @param removeCallback called by the writer with every evicted element.
+     */
+    public void setCallback(final Function<T, Void> removeCallback) {
+        this.removeCallback = removeCallback;
+    }
+
+    public final int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds an element, evicting the oldest when full. Only called by the
+     * writer.
+     *
+     * @param entry the element, not null.
+     * @return true.
+     */
+    @Override
+    public boolean add(final T entry) {
+        Objects.requireNonNull(entry);
+        final long next = tail.get();
+        final int index = (int) (next % capacity);
+        final T evicted = next >= capacity ? slots.get(index) : null;
+        // ordered writes, a reader that sees the new element also sees the
+        // claim that covers it
+        claimed.lazySet(next + 1);
+        slots.lazySet(index, entry);
+        tail.lazySet(next + 1);
+        if (evicted != null) {
+            removeCallback.apply(evicted);
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(tail.get(), capacity);
+    }
+
+    /**
+     * Copies the elements without locking the writer out.
+     *
+     * @return the elements, oldest first.
+     */
+    public List<T> snapshot() {
+        final long end = tail.get();
+        final long start = Math.max(0, end - capacity);
+        final List<T> result = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            result.add(slots.get((int) (seq % capacity)));
+        }
+        // the writer may have replaced the oldest slots while copying
+        final long valid = claimed.get() - capacity;
+        if (valid > start) {
+            return new ArrayList<>(result.subList((int) Math.min(valid - start, result.size()), result.size()));
+        }
+        return result;
+    }
+
+    /**
+     * @return an iterator over a snapshot, oldest first. It does not support
+     * remove.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return Collections.unmodifiableList(snapshot()).iterator();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return snapshot().toArray();
+    }
+
+    @Override
+    public <E> E[] toArray(final E[] a) {
+        return snapshot().toArray(a);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Holds the last copy of a counting structure, so the dashboard can query the
+ * copy without holding the locks the ingest needs. A copy is reused for up to
+ * a second, the finest rate bucket, and is only replaced when the structure
+ * was changed since, so frequent snapshots do not copy it each time.
+ *
+ * changed may be called while the structure is locked, get copies it with the
+ * locking the copy function does itself.
+ *
+ * @author Philippe Tjon-A-Hen
+ *
+ * @param <T>
+ */
+public final class SnapshotCache<T> {
+
+    private static final long REFRESH = TimeUnit.SECONDS.toNanos(1);
+
+    private final Supplier<T> copy;
+    private volatile boolean changed = true;
+    private T snapshot;
+    private long snapshotTime;
+
+    /**
+     * @param copy copies the structure.
+     */
+    public SnapshotCache(final Supplier<T> copy) {
+        this.copy = copy;
+    }
+
+    /**
+     * Marks the structure changed, the next copy is made once the current one
+     * is older than a second.
+     */
+    public void changed() {
+        changed = true;
+    }
+
+    /**
+     * @return the current copy.
+     */
+    public synchronized T get() {
+        final long now = System.nanoTime();
+        if (snapshot == null || changed && now - snapshotTime >= REFRESH) {
+            // cleared first, a change made while copying is seen by the next get
+            changed = false;
+            snapshot = copy.get();
+            snapshotTime = now;
+        }
+        return snapshot;
+    }
+}
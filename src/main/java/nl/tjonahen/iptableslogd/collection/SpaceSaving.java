@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving top-K counter (Metwally et al.), counts the most frequent keys
+ * of a stream in a fixed number of counters.
+ *
+ * When all counters are in use a new key takes over the counter with the
+ * lowest count, it inherits that count as its error. A counted key is never
+ * undercounted and overcounted by at most its error, which is at most
+ * total / capacity. Every key seen more than total / capacity times is held.
+ *
+ * The counters are kept in a stream summary, a list of buckets of equal count
+ * in ascending order, so an offer is O(1): a counter moves to the next bucket
+ * or the lowest counter is reused.
+ *
+ * Not thread safe.
+ *
+ * @author Philippe Tjon-A-Hen
+ *
+ * @param <K>
+ */
+public final class SpaceSaving<K> {
+
+    private static final Comparator<Counted<?>> BY_COUNT = Comparator
+            .comparingLong((Counted<?> c) -> c.count).reversed()
+            .thenComparing(Comparator.comparingLong((Counted<?> c) -> c.lastSeen).reversed());
+
+    private final int capacity;
+    private final Map<K, Node<K>> nodes;
+    // the buckets from the lowest to the highest count
+    private Bucket<K> lowest;
+    private Bucket<K> highest;
+    private long total;
+
+    /**
+     * @param capacity the number of counters.
+     */
+    public SpaceSaving(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive " + capacity);
+        }
+        this.capacity = capacity;
+        this.nodes = new HashMap<>(2 * capacity);
+    }
+
+    /**
+     * Counts a key.
+     *
+     * @param key the key.
+     * @param time the time the key was seen.
+     */
+    public void offer(final K key, final long time) {
+        total++;
+        Node<K> node = nodes.get(key);
+        if (node == null) {
+            if (nodes.size() < capacity) {
+                node = new Node<>(key);
+                insertLowest(node);
+            } else {
+                // take over a counter with the lowest count
+                node = lowest.head;
+                nodes.remove(node.key);
+                node.key = key;
+                node.error = lowest.count;
+                increment(node);
+            }
+            nodes.put(key, node);
+        } else {
+            increment(node);
+        }
+        node.lastSeen = time;
+    }
+
+    /**
+     * @param k the number of keys.
+     * @return the k keys with the highest count, highest first. Equal counts
+     * are ordered by the time last seen, latest first.
+     */
+    public List<Counted<K>> top(final int k) {
+        final List<Counted<K>> result = new ArrayList<>();
+        // whole buckets, so ties at the cut are decided by time
+        for (Bucket<K> bucket = highest; bucket != null && result.size() < k; bucket = bucket.lower) {
+            for (Node<K> node = bucket.head; node != null; node = node.next) {
+                result.add(new Counted<>(node.key, bucket.count, node.error, node.lastSeen));
+            }
+        }
+        result.sort(BY_COUNT);
+        return result.size() > k ? new ArrayList<>(result.subList(0, k)) : result;
+    }
+
+    /**
+     * @return the number of keys counted.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of offers.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    private void insertLowest(final Node<K> node) {
+        if (lowest == null || lowest.count != 1) {
+            final Bucket<K> bucket = new Bucket<>(1);
+            bucket.higher = lowest;
+            if (lowest == null) {
+                highest = bucket;
+            } else {
+                lowest.lower = bucket;
+            }
+            lowest = bucket;
+        }
+        lowest.attach(node);
+    }
+
+    private void increment(final Node<K> node) {
+        final Bucket<K> bucket = node.bucket;
+        final long count = bucket.count + 1;
+        Bucket<K> next = bucket.higher;
+        if (next == null || next.count != count) {
+            if (bucket.head == node && node.next == null) {
+                // the only counter of its bucket, the bucket moves with it
+                bucket.count = count;
+                return;
+            }
+            next = new Bucket<>(count);
+            next.lower = bucket;
+            next.higher = bucket.higher;
+            if (bucket.higher == null) {
+                highest = next;
+            } else {
+                bucket.higher.lower = next;
+            }
+            bucket.higher = next;
+        }
+        bucket.detach(node);
+        if (bucket.head == null) {
+            remove(bucket);
+        }
+        next.attach(node);
+    }
+
+    private void remove(final Bucket<K> bucket) {
+        if (bucket.lower == null) {
+            lowest = bucket.higher;
+        } else {
+            bucket.lower.higher = bucket.higher;
+        }
+        if (bucket.higher == null) {
+            highest = bucket.lower;
+        } else {
+            bucket.higher.lower = bucket.lower;
+        }
+    }
+
+    /**
+     * A counted key.
+     *
+     * @param <K>
+     */
+    public static final class Counted<K> {
+
+        private final K key;
+        private final long count;
+        private final long error;
+        private final long lastSeen;
+
+        private Counted(final K key, final long count, final long error, final long lastSeen) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+            this.lastSeen = lastSeen;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * @return the count, at most error more than the true count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+
+    private static final class Bucket<K> {
+
+        private long count;
+        private Bucket<K> lower;
+        private Bucket<K> higher;
+        private Node<K> head;
+
+        Bucket(final long count) {
+            this.count = count;
+        }
+
+        void attach(final Node<K> node) {
+            node.bucket = this;
+            node.prev = null;
+            node.next = head;
+            if (head != null) {
+                head.prev = node;
+            }
+            head = node;
+        }
+
+        void detach(final Node<K> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            }
+        }
+    }
+
+    private static final class Node<K> {
+
+        private K key;
+        private long error;
+        private long lastSeen;
+        private Bucket<K> bucket;
+        private Node<K> prev;
+        private Node<K> next;
+
+        Node(final K key) {
+            this.key = key;
+        }
+    }
+}
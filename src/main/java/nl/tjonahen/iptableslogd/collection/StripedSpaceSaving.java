@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Thread safe Space-Saving top-K counter, the keys are spread over a number of
+ * stripes by hash, each a SpaceSaving summary with a lock of its own. Threads
+ * counting keys of different stripes do not contend.
+ *
+ * A key always maps to the same stripe, so the guarantees of SpaceSaving hold
+ * per stripe: the error of a count is at most the total of its stripe divided
+ * by the counters of a stripe.
+ *
+ * @author Philippe Tjon-A-Hen
+ *
+ * @param <K>
+ */
+public final class StripedSpaceSaving<K> {
+
+    private static final Comparator<SpaceSaving.Counted<?>> BY_COUNT = Comparator
+            .comparingLong((SpaceSaving.Counted<?> c) -> c.getCount()).reversed()
+            .thenComparing(Comparator.comparingLong((SpaceSaving.Counted<?> c) -> c.getLastSeen()).reversed());
+
+    private final List<SpaceSaving<K>> stripes;
+    private final int mask;
+
+    /**
+     * @param capacity the total number of counters.
+     * @param stripes the number of stripes, rounded up to a power of two and
+     * at most capacity.
+     */
+    public StripedSpaceSaving(final int capacity, final int stripes) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive " + capacity);
+        }
+        int size = 1;
+        while (size < stripes && size * 2 <= capacity) {
+            size *= 2;
+        }
+        this.stripes = new ArrayList<>(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.stripes.add(new SpaceSaving<>((capacity + size - 1) / size));
+        }
+    }
+
+    /**
+     * Counts a key.
+     *
+     * @param key the key.
+     * @param time the time the key was seen.
+     */
+    public void offer(final K key, final long time) {
+        final SpaceSaving<K> stripe = stripes.get(stripe(key));
+        synchronized (stripe) {
+            stripe.offer(key, time);
+        }
+    }
+
+    /**
+     * Counts the keys, each stripe is locked once. Null keys are skipped.
+     *
+     * @param keys the keys.
+     * @param times the time each key was seen.
+     */
+    public void offer(final List<? extends K> keys, final long[] times) {
+        final int size = keys.size();
+        // counting sort of the key indexes by stripe
+        final int[] stripeOf = new int[size];
+        final int[] offsets = new int[stripes.size() + 1];
+        for (int i = 0; i < size; i++) {
+            final K key = keys.get(i);
+            stripeOf[i] = key == null ? -1 : stripe(key);
+            if (key != null) {
+                offsets[stripeOf[i] + 1]++;
+            }
+        }
+        for (int s = 0; s < stripes.size(); s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        final int[] order = new int[offsets[stripes.size()]];
+        final int[] next = offsets.clone();
+        for (int i = 0; i < size; i++) {
+            if (stripeOf[i] >= 0) {
+                order[next[stripeOf[i]]++] = i;
+            }
+        }
+        for (int s = 0; s < stripes.size(); s++) {
+            if (offsets[s] == offsets[s + 1]) {
+                continue;
+            }
+            final SpaceSaving<K> stripe = stripes.get(s);
+            synchronized (stripe) {
+                for (int j = offsets[s]; j < offsets[s + 1]; j++) {
+                    stripe.offer(keys.get(order[j]), times[order[j]]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param k the number of keys.
+     * @return the k keys with the highest count, highest first. Equal counts
+     * are ordered by the time last seen, latest first.
+     */
+    public List<SpaceSaving.Counted<K>> top(final int k) {
+        final List<SpaceSaving.Counted<K>> result = new ArrayList<>();
+        for (SpaceSaving<K> stripe : stripes) {
+            synchronized (stripe) {
+                result.addAll(stripe.top(k));
+            }
+        }
+        result.sort(BY_COUNT);
+        return result.size() > k ? new ArrayList<>(result.subList(0, k)) : result;
+    }
+
+    /**
+     * @return the number of offers.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (SpaceSaving<K> stripe : stripes) {
+            synchronized (stripe) {
+                total += stripe.getTotal();
+            }
+        }
+        return total;
+    }
+
+    public int getStripes() {
+        return stripes.size();
+    }
+
+    private int stripe(final K key) {
+        final int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
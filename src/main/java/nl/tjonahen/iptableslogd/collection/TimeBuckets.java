@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.Arrays;
+
+/**
+ * Fixed ring of time buckets of one resolution, each bucket holding a count
+ * for a number of series. The ring holds the last size buckets, a bucket is
+ * cleared when it is reused for a later period so the memory does not depend
+ * on how long the counts are kept up.
+ *
+ * Not thread safe.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class TimeBuckets {
+
+    private final long resolution;
+    private final int size;
+    private final int series;
+    // the period held by each slot, time / resolution
+    private final long[] periods;
+    // series major, the counts of series s are at s * size + slot
+    private final long[] counts;
+    private long latest = Long.MIN_VALUE;
+
+    /**
+     * @param resolution the length of a bucket in milliseconds.
+     * @param size the number of buckets.
+     * @param series the number of series.
+     */
+    public TimeBuckets(final long resolution, final int size, final int series) {
+        if (resolution < 1 || size < 1 || series < 1) {
+            throw new IllegalArgumentException("Invalid time buckets " + resolution + "ms x " + size + " x " + series);
+        }
+        this.resolution = resolution;
+        this.size = size;
+        this.series = series;
+        this.periods = new long[size];
+        Arrays.fill(periods, Long.MIN_VALUE);
+        this.counts = new long[size * series];
+    }
+
+    /**
+     * Finds the bucket of a time, a bucket of a new period is cleared first.
+     *
+     * @param time the time in milliseconds.
+     * @return the slot of the bucket, -1 when the period is no longer held.
+     */
+    public int slot(final long time) {
+        final long period = Math.floorDiv(time, resolution);
+        if (latest != Long.MIN_VALUE && period <= latest - size) {
+            return -1;
+        }
+        final int slot = (int) Math.floorMod(period, (long) size);
+        if (periods[slot] != period) {
+            periods[slot] = period;
+            for (int s = 0; s < series; s++) {
+                counts[s * size + slot] = 0;
+            }
+        }
+        if (period > latest) {
+            latest = period;
+        }
+        return slot;
+    }
+
+    /**
+     * @param series the series.
+     * @param slot a slot returned by slot(time).
+     * @param count the count to add.
+     */
+    public void add(final int series, final int slot, final long count) {
+        counts[series * size + slot] += count;
+    }
+
+    /**
+     * @param series the series.
+     * @param time the time of the last bucket.
+     * @return the counts of the size buckets up to and including the bucket of
+     * time, oldest first.
+     */
+    public long[] counts(final int series, final long time) {
+        final long last = Math.floorDiv(time, resolution);
+        final long[] result = new long[size];
+        for (int i = 0; i < size; i++) {
+            final long period = last - size + 1 + i;
+            final int slot = (int) Math.floorMod(period, (long) size);
+            if (periods[slot] == period) {
+                result[i] = counts[series * size + slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the start in milliseconds of the latest bucket counted,
+     * Long.MIN_VALUE when nothing was counted.
+     */
+    public long getLatest() {
+        return latest == Long.MIN_VALUE ? latest : latest * resolution;
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getSeries() {
+        return series;
+    }
+}
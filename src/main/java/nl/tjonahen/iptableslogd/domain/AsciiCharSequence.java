@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A CharSequence view on the bytes of a ByteBuffer, one char per byte (ISO
+ * 8859-1) like the log readers decode. Nothing is copied until toString.
+ *
+ * The view can be moved to another region with wrap, so one instance can be
+ * reused for every line of a read buffer. The buffer position and limit are
+ * not used or changed.
+ */
+public final class AsciiCharSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    public AsciiCharSequence() {
+        this(ByteBuffer.allocate(0), 0, 0);
+    }
+
+    /**
+     * @param buffer the buffer.
+     * @param offset the absolute index of the first byte.
+     * @param length the number of bytes.
+     */
+    public AsciiCharSequence(final ByteBuffer buffer, final int offset, final int length) {
+        wrap(buffer, offset, length);
+    }
+
+    /**
+     * Moves this view to another region.
+     *
+     * @param buffer the buffer.
+     * @param offset the absolute index of the first byte.
+     * @param length the number of bytes.
+     * @return this view.
+     */
+    public AsciiCharSequence wrap(final ByteBuffer buffer, final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+            throw new IndexOutOfBoundsException("offset " + offset + " length " + length);
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * @param text the text to copy, a char above 255 becomes '?'.
+     * @return a view on a copy of the text, one byte per char.
+     */
+    public static AsciiCharSequence copyOf(final CharSequence text) {
+        final byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            final char c = text.charAt(i);
+            bytes[i] = c > 0xff ? (byte) '?' : (byte) c;
+        }
+        return new AsciiCharSequence(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index);
+        }
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + " end " + end);
+        }
+        return new AsciiCharSequence(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+/**
+ * Immutable, versioned state of the LogEntryCollector and LogEntryStatistics
+ * as shown on a page. Both parts were taken at the same position in the
+ * stream of entries, the version.
+ *
+ */
+public final class DashboardSnapshot {
+
+    private final long version;
+    private final LogEntryCollector.Snapshot collector;
+    private final LogEntryStatistics.Snapshot statistics;
+
+    /**
+     * @param version the position in the stream both parts were taken at.
+     * @param collector the collector part.
+     * @param statistics the statistics part.
+     */
+    public DashboardSnapshot(final long version, final LogEntryCollector.Snapshot collector, final LogEntryStatistics.Snapshot statistics) {
+        this.version = version;
+        this.collector = collector;
+        this.statistics = statistics;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public LogEntryCollector.Snapshot getCollector() {
+        return collector;
+    }
+
+    public LogEntryStatistics.Snapshot getStatistics() {
+        return statistics;
+    }
+}
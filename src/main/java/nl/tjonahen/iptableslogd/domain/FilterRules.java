@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import nl.tjonahen.iptableslogd.collection.PrefixTrie;
+
+/**
+ * Compiled filter rules, decide per entry whether it is shown and whether it
+ * is suspicious.
+ *
+ * Rules are separated by ';', a rule is an action followed by the terms an
+ * entry has to match, all of them. A term is a key, '=' and a comma
+ * separated list of values, one of which has to match:
+ *
+ * <pre>
+ * hide in=docker*; ignore dport=67,68,137-139
+ * ignore src=10.0.0.0/8,fd00::/8 proto=UDP dir=in
+ * </pre>
+ *
+ * <ul>
+ * <li>in, out: interface name, * and ? are wildcards</li>
+ * <li>src, dst: address or CIDR range, IPv4 or IPv6</li>
+ * <li>sport, dport: port or range of ports</li>
+ * <li>proto: protocol name or number</li>
+ * <li>dir: in (only IN), out (only OUT) or forward (both)</li>
+ * </ul>
+ *
+ * The rules are compiled once: ports and protocols into bit sets, addresses
+ * into prefix tries and interface patterns into a cache of the interned
+ * interface ids they match. Immutable, a new rule set replaces the old one.
+ */
+public final class FilterRules {
+
+    /**
+     * What a matching rule does with an entry.
+     */
+    public enum Action {
+        /**
+         * Not shown in the lists of dropped packets.
+         */
+        HIDE,
+        /**
+         * Harmless, neither a port scan nor suspicious.
+         */
+        IGNORE;
+
+        private final int mask = 1 << ordinal();
+
+        /**
+         * @param actions the action bits.
+         * @return true when this action is set.
+         */
+        public boolean isSet(final int actions) {
+            return (actions & mask) != 0;
+        }
+    }
+
+    /**
+     * The rules that used to be fixed in code.
+     */
+    public static final String DEFAULT = "hide in=docker*; ignore dport=67,68,137-139";
+
+    private static final Action[] ACTIONS = Action.values();
+
+    private final String text;
+    private final Rule[] rules;
+
+    private FilterRules(final String text, final Rule[] rules) {
+        this.text = text;
+        this.rules = rules;
+    }
+
+    /**
+     * Compiles a rule set.
+     *
+     * @param text the rules.
+     * @return the compiled rules.
+     * @throws IllegalArgumentException when a rule is invalid.
+     */
+    public static FilterRules compile(final String text) {
+        final List<Rule> rules = new ArrayList<>();
+        for (String rule : text.split(";")) {
+            if (!rule.trim().isEmpty()) {
+                rules.add(compileRule(rule.trim()));
+            }
+        }
+        return new FilterRules(text, rules.toArray(new Rule[rules.size()]));
+    }
+
+    /**
+     * @param entry the entry.
+     * @return the bits of the actions of all rules matching the entry.
+     */
+    public int evaluate(final LogEntry entry) {
+        // the fields every rule may test are read once
+        final int protocol = entry.protocolCode() & 0xffff;
+        final int sourcePort = entry.sourcePortNumber();
+        final int destinationPort = entry.getDestinationPortNumber();
+        final short in = entry.interfaceId(0);
+        final short out = entry.interfaceId(1);
+        final int direction = Rule.direction(in, out);
+        int actions = 0;
+        for (Rule rule : rules) {
+            if ((actions & rule.action.mask) == 0
+                    && (rule.protocols == null || rule.protocols.get(protocol))
+                    && Rule.matches(rule.destinationPorts, destinationPort)
+                    && Rule.matches(rule.sourcePorts, sourcePort)
+                    && (rule.direction == 0 || (rule.direction & direction) != 0)
+                    && (rule.interfaces[0] == null || rule.interfaces[0].matches(in))
+                    && (rule.interfaces[1] == null || rule.interfaces[1].matches(out))
+                    && (rule.addresses[0] == null || rule.addresses[0].matches(entry, 0))
+                    && (rule.addresses[1] == null || rule.addresses[1].matches(entry, 1))) {
+                actions |= rule.action.mask;
+            }
+        }
+        return actions;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    private static Rule compileRule(final String rule) {
+        final String[] tokens = rule.split("\\s+");
+        final Rule result = new Rule(action(tokens[0], rule));
+        for (int i = 1; i < tokens.length; i++) {
+            final int separator = tokens[i].indexOf('=');
+            if (separator <= 0 || separator == tokens[i].length() - 1) {
+                throw new IllegalArgumentException("Invalid term " + tokens[i] + " in filter rule " + rule);
+            }
+            final String key = tokens[i].substring(0, separator).toLowerCase(Locale.ROOT);
+            final String[] values = tokens[i].substring(separator + 1).split(",");
+            switch (key) {
+                case "in":
+                    result.interfaces[0] = new InterfaceMatcher(values);
+                    break;
+                case "out":
+                    result.interfaces[1] = new InterfaceMatcher(values);
+                    break;
+                case "src":
+                    result.addresses[0] = new AddressMatcher(values, rule);
+                    break;
+                case "dst":
+                    result.addresses[1] = new AddressMatcher(values, rule);
+                    break;
+                case "sport":
+                    result.sourcePorts = ports(values, rule);
+                    break;
+                case "dport":
+                    result.destinationPorts = ports(values, rule);
+                    break;
+                case "proto":
+                    result.protocols = protocols(values);
+                    break;
+                case "dir":
+                    result.direction = direction(values, rule);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown key " + key + " in filter rule " + rule);
+            }
+        }
+        return result;
+    }
+
+    private static Action action(final String name, final String rule) {
+        for (Action action : ACTIONS) {
+            if (action.name().equalsIgnoreCase(name)) {
+                return action;
+            }
+        }
+        throw new IllegalArgumentException("Unknown action " + name + " in filter rule " + rule);
+    }
+
+    private static BitSet ports(final String[] values, final String rule) {
+        final BitSet ports = new BitSet(65536);
+        for (String value : values) {
+            final int dash = value.indexOf('-');
+            try {
+                final int from = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+                final int to = dash < 0 ? from : Integer.parseInt(value.substring(dash + 1));
+                if (from < 0 || to > 65535 || from > to) {
+                    throw new IllegalArgumentException("Invalid port range " + value + " in filter rule " + rule);
+                }
+                ports.set(from, to + 1);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid port " + value + " in filter rule " + rule, e);
+            }
+        }
+        return ports;
+    }
+
+    private static BitSet protocols(final String[] values) {
+        final BitSet protocols = new BitSet();
+        for (String value : values) {
+            final short protocol = Protocols.parse(value);
+            if (protocol != Protocols.NONE) {
+                protocols.set(protocol);
+            }
+        }
+        return protocols;
+    }
+
+    private static int direction(final String[] values, final String rule) {
+        int direction = 0;
+        for (String value : values) {
+            switch (value.toLowerCase(Locale.ROOT)) {
+                case "in":
+                    direction |= Rule.IN;
+                    break;
+                case "out":
+                    direction |= Rule.OUT;
+                    break;
+                case "forward":
+                    direction |= Rule.FORWARD;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown direction " + value + " in filter rule " + rule);
+            }
+        }
+        return direction;
+    }
+
+    /**
+     * A compiled rule, a null matcher matches everything. The terms are
+     * tested cheapest first, the addresses last.
+     */
+    private static final class Rule {
+
+        private static final int IN = 1;
+        private static final int OUT = 2;
+        private static final int FORWARD = 4;
+
+        private final Action action;
+        private final InterfaceMatcher[] interfaces = new InterfaceMatcher[2];
+        private final AddressMatcher[] addresses = new AddressMatcher[2];
+        private BitSet sourcePorts;
+        private BitSet destinationPorts;
+        private BitSet protocols;
+        private int direction;
+
+        Rule(final Action action) {
+            this.action = action;
+        }
+
+        static boolean matches(final BitSet ports, final int port) {
+            return ports == null || port >= 0 && ports.get(port);
+        }
+
+        // an id of 0 is the empty name, no interface
+        static int direction(final short in, final short out) {
+            if (in != 0) {
+                return out != 0 ? FORWARD : IN;
+            }
+            return out != 0 ? OUT : 0;
+        }
+    }
+
+    /**
+     * Interface patterns, the outcome for each interned interface id is
+     * cached. Ids interned after the rules were compiled are matched on first
+     * sight, a race only means a name is matched twice.
+     */
+    private static final class InterfaceMatcher {
+
+        private static final byte UNKNOWN = 0;
+        private static final byte NO = 1;
+        private static final byte YES = 2;
+
+        private final Pattern pattern;
+        private volatile byte[] cache = new byte[64];
+
+        InterfaceMatcher(final String[] globs) {
+            final StringBuilder regex = new StringBuilder();
+            for (String glob : globs) {
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                for (String part : glob.split("((?<=[*?])|(?=[*?]))")) {
+                    if ("*".equals(part)) {
+                        regex.append(".*");
+                    } else if ("?".equals(part)) {
+                        regex.append('.');
+                    } else if (!part.isEmpty()) {
+                        regex.append(Pattern.quote(part));
+                    }
+                }
+            }
+            this.pattern = Pattern.compile(regex.toString());
+        }
+
+        boolean matches(final short id) {
+            if (id < 0) {
+                // the interface did not fit in the name table
+                return false;
+            }
+            byte[] current = cache;
+            if (id < current.length && current[id] != UNKNOWN) {
+                return current[id] == YES;
+            }
+            final boolean result = pattern.matcher(LogEntry.interfaceName(id)).matches();
+            if (id >= current.length) {
+                current = Arrays.copyOf(current, Math.max(2 * current.length, id + 1));
+            }
+            current[id] = result ? YES : NO;
+            cache = current;
+            return result;
+        }
+    }
+
+    /**
+     * Address ranges, in a trie for IPv4 and one for IPv6.
+     */
+    private static final class AddressMatcher {
+
+        private final PrefixTrie ipv4 = new PrefixTrie();
+        private final PrefixTrie ipv6 = new PrefixTrie();
+
+        AddressMatcher(final String[] ranges, final String rule) {
+            final long[] bits = new long[2];
+            for (String range : ranges) {
+                final int slash = range.indexOf('/');
+                final String address = slash < 0 ? range : range.substring(0, slash);
+                final long v4 = IpAddresses.parse4(address, 0, address.length());
+                try {
+                    if (v4 != IpAddresses.INVALID) {
+                        ipv4.add(v4 << 32, 0, slash < 0 ? 32 : length(range, slash, 32));
+                    } else if (IpAddresses.parse6(address, 0, address.length(), bits, 0)) {
+                        ipv6.add(bits[0], bits[1], slash < 0 ? 128 : length(range, slash, 128));
+                    } else {
+                        throw new IllegalArgumentException("Invalid address " + range + " in filter rule " + rule);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid prefix length " + range + " in filter rule " + rule, e);
+                }
+            }
+        }
+
+        private static int length(final String range, final int slash, final int max) {
+            final int length = Integer.parseInt(range.substring(slash + 1));
+            if (length < 0 || length > max) {
+                throw new NumberFormatException(range);
+            }
+            return length;
+        }
+
+        boolean matches(final LogEntry entry, final int index) {
+            switch (entry.addressKind(index)) {
+                case LogEntry.IPV4:
+                    return ipv4.matches((entry.address4(index) & 0xffffffffL) << 32, 0);
+                case LogEntry.IPV6:
+                    return ipv6.matches(entry.address6(index, 0), entry.address6(index, 1));
+                default:
+                    return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.List;
+import nl.tjonahen.iptableslogd.collection.CountMinSketch;
+import nl.tjonahen.iptableslogd.collection.SnapshotCache;
+
+/**
+ * Count-Min sketches of the number of entries per source address and per
+ * destination port. Unlike the top K counters any source or port can be
+ * looked up, in O(depth) and in memory that does not depend on the number of
+ * distinct sources.
+ *
+ * The dashboard queries a snapshot, a copy of the sketches.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class FrequencySketches {
+
+    private final CountMinSketch sources;
+    private final CountMinSketch ports;
+
+    private final SnapshotCache<FrequencySketches> snapshots;
+
+    /**
+     * @param width the counters per row of a sketch.
+     * @param depth the rows of a sketch.
+     */
+    public FrequencySketches(final int width, final int depth) {
+        this.sources = new CountMinSketch(width, depth);
+        this.ports = new CountMinSketch(width, depth);
+        this.snapshots = new SnapshotCache<>(this::copy);
+    }
+
+    private FrequencySketches(final CountMinSketch sources, final CountMinSketch ports) {
+        this.sources = sources;
+        this.ports = ports;
+        this.snapshots = new SnapshotCache<>(() -> this);
+    }
+
+    /**
+     * Counts the entries, each sketch is locked once.
+     *
+     * @param entries the entries.
+     */
+    public void add(final List<LogEntry> entries) {
+        synchronized (sources) {
+            for (LogEntry entry : entries) {
+                sources.add(entry.getSourceKey(), 1);
+            }
+        }
+        synchronized (ports) {
+            for (LogEntry entry : entries) {
+                final int port = entry.getDestinationPortNumber();
+                if (port >= 0) {
+                    ports.add(port, 1);
+                }
+            }
+        }
+        snapshots.changed();
+    }
+
+    /**
+     * A copy is not changed by later entries.
+     *
+     * @return the snapshot.
+     */
+    public FrequencySketches snapshot() {
+        return snapshots.get();
+    }
+
+    private FrequencySketches copy() {
+        final CountMinSketch sourcesCopy;
+        synchronized (sources) {
+            sourcesCopy = sources.copy();
+        }
+        final CountMinSketch portsCopy;
+        synchronized (ports) {
+            portsCopy = ports.copy();
+        }
+        return new FrequencySketches(sourcesCopy, portsCopy);
+    }
+
+    /**
+     * @param address the source address as it is logged.
+     * @return the estimated number of entries from the address.
+     */
+    public Estimate estimateSource(final String address) {
+        final long key = LogEntry.addressKey(address);
+        synchronized (sources) {
+            return new Estimate(sources.estimate(key), sources.getErrorBound(), sources.getConfidence());
+        }
+    }
+
+    /**
+     * @param port the destination port.
+     * @return the estimated number of entries to the port.
+     */
+    public Estimate estimatePort(final int port) {
+        synchronized (ports) {
+            return new Estimate(ports.estimate(port), ports.getErrorBound(), ports.getConfidence());
+        }
+    }
+
+    /**
+     * An estimated count, never below the true count and with probability
+     * confidence at most error above it.
+     */
+    public static final class Estimate {
+
+        private final long count;
+        private final long error;
+        private final double confidence;
+
+        private Estimate(final long count, final long error, final double confidence) {
+            this.count = count;
+            this.error = Math.min(error, count);
+            this.confidence = confidence;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d (-%d, %.1f%% confidence)", count, error, 100 * confidence);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+/**
+ * Parses and formats IP addresses as primitives: IPv4 as an int, IPv6 as two
+ * longs. IPv6 is formatted the way the kernel logs it, eight groups of four
+ * hex digits.
+ */
+public final class IpAddresses {
+
+    /**
+     * Result of parse4 for text that is not an IPv4 address.
+     */
+    public static final long INVALID = -1L;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private IpAddresses() {
+    }
+
+    /**
+     * @param text the text.
+     * @param start start of the address.
+     * @param end end of the address.
+     * @return the address as an unsigned int, INVALID when it is not an IPv4
+     * address.
+     */
+    public static long parse4(final CharSequence text, final int start, final int end) {
+        long address = 0;
+        int octet = -1;
+        int octets = 0;
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + c - '0';
+                if (octet > 255) {
+                    return INVALID;
+                }
+            } else if (c == '.' && octet >= 0 && octets < 3) {
+                address = address << 8 | octet;
+                octet = -1;
+                octets++;
+            } else {
+                return INVALID;
+            }
+        }
+        if (octet < 0 || octets != 3) {
+            return INVALID;
+        }
+        return address << 8 | octet;
+    }
+
+    /**
+     * Parses an IPv6 address, full or with :: compression.
+     *
+     * @param text the text.
+     * @param start start of the address.
+     * @param end end of the address.
+     * @param result receives the high and low 64 bits at index and index + 1.
+     * @param index where to store the result.
+     * @return false when it is not an IPv6 address.
+     */
+    public static boolean parse6(final CharSequence text, final int start, final int end, final long[] result, final int index) {
+        final int[] groups = new int[8];
+        int count = 0;
+        int compressed = -1;
+        int group = -1;
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            final int digit = Character.digit(c, 16);
+            if (digit >= 0) {
+                group = (group < 0 ? 0 : group << 4) | digit;
+                if (group > 0xffff) {
+                    return false;
+                }
+            } else if (c == ':') {
+                if (i + 1 < end && text.charAt(i + 1) == ':') {
+                    if (compressed >= 0) {
+                        return false;
+                    }
+                    if (group >= 0) {
+                        if (count == 8) {
+                            return false;
+                        }
+                        groups[count++] = group;
+                    }
+                    compressed = count;
+                    group = -1;
+                    i++;
+                } else if (group >= 0 && count < 8) {
+                    groups[count++] = group;
+                    group = -1;
+                } else {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        if (group >= 0) {
+            if (count == 8) {
+                return false;
+            }
+            groups[count++] = group;
+        }
+        if (compressed >= 0) {
+            if (count == 8) {
+                return false;
+            }
+            final int zeros = 8 - count;
+            System.arraycopy(groups, compressed, groups, compressed + zeros, count - compressed);
+            for (int i = compressed; i < compressed + zeros; i++) {
+                groups[i] = 0;
+            }
+        } else if (count != 8) {
+            return false;
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 4; i++) {
+            high = high << 16 | groups[i];
+            low = low << 16 | groups[i + 4];
+        }
+        result[index] = high;
+        result[index + 1] = low;
+        return true;
+    }
+
+    /**
+     * @param address the address as an int.
+     * @return the dotted quad.
+     */
+    public static String format4(final int address) {
+        return new StringBuilder(15)
+                .append(address >>> 24).append('.')
+                .append(address >>> 16 & 0xff).append('.')
+                .append(address >>> 8 & 0xff).append('.')
+                .append(address & 0xff).toString();
+    }
+
+    /**
+     * @param high the high 64 bits.
+     * @param low the low 64 bits.
+     * @return the eight groups of four hex digits.
+     */
+    public static String format6(final long high, final long low) {
+        final char[] chars = new char[39];
+        int pos = 0;
+        for (int i = 0; i < 8; i++) {
+            final long bits = i < 4 ? high : low;
+            final int group = (int) (bits >>> (48 - 16 * (i % 4))) & 0xffff;
+            if (i > 0) {
+                chars[pos++] = ':';
+            }
+            chars[pos++] = HEX[group >>> 12];
+            chars[pos++] = HEX[group >>> 8 & 0xf];
+            chars[pos++] = HEX[group >>> 4 & 0xf];
+            chars[pos++] = HEX[group & 0xf];
+        }
+        return new String(chars);
+    }
+}
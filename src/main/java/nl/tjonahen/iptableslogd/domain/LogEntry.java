@@ -16,139 +16,654 @@
  */
 package nl.tjonahen.iptableslogd.domain;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.logging.Logger;
+import nl.tjonahen.iptableslogd.domain.LogLineParser.Field;
+import nl.tjonahen.iptableslogd.domain.LogLineParser.Flag;
 
 /**
  * LogEntry java representation of a single line loged by the iptables ulog
  * deamon.
  *
+ * The entry keeps the line and an index of the field offsets, found in a
+ * single scan. Only the timestamp is decoded up front, the other fields are
+ * decoded on first access, a group of related fields at a time. Most entries
+ * are counted and dropped, for them the MAC, ID and other unused fields are
+ * never decoded.
+ *
+ * The decoded fields are stored in primitive form: an IPv4 address as an int
+ * (IPv6 as two longs), the protocol as its number and the interfaces as
+ * interned ids. The String getters format the value on every call. An entry
+ * that is kept is compacted, which decodes all fields and drops the line.
+ *
+ * An entry may be read by several threads. Threads racing to decode the same
+ * group both decode it and write the same values, a group once marked decoded
+ * is never decoded again.
+ *
  * @author Philippe Tjon-A-Hen
  *
  */
 public class LogEntry {
 
-    private final String dateTime;
-    private String inInterface = "";
-    private String outInterface = "";
-    private String macAdress = "";
-    private String source = "";
-    private String destination = "";
-//	private String len1;
-//	private String tos;
-//	private String prec;
-//	private String ttl;
-    private String id = "";
-    private String protocol = "";
-    private String sourcePort = "";
-    private String destinationPort = "";
-//	private String len2;
-
-    private final Date date;
-    private final SimpleDateFormat fmt = new SimpleDateFormat("yyyy MMM dd HH:mm:ss");
-    private static final int YEAR = Calendar.getInstance().get(Calendar.YEAR);
+    /**
+     * Source id of entries that are not read from a configured log source.
+     */
+    public static final String UNKNOWN_SOURCE = "";
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("MMM ppd HH:mm:ss", Locale.ENGLISH);
+    private static final NameTable INTERFACES = new NameTable("interfaces", 4096);
+    private static final String[] PORTS = new String[65536];
+
+    // kind of the source and destination address
+    private static final byte NONE = 0;
+    static final byte IPV4 = 1;
+    static final byte IPV6 = 2;
+    private static final byte TEXT = 3;
+    private static final int KIND_MASK = 3;
+    private static final long ABSENT = -2L;
+
+    // the field groups, decoded together
+    private static final int ADDRESSES = 1;
+    private static final int PORT_NUMBERS = 1 << 1;
+    private static final int PROTOCOL = 1 << 2;
+    private static final int INTERFACE_NAMES = 1 << 3;
+    private static final int MAC = 1 << 4;
+    private static final int IP_HEADER = 1 << 5;
+    private static final int ALL = (1 << 6) - 1;
+
+    private static final AtomicIntegerFieldUpdater<LogEntry> DECODED = AtomicIntegerFieldUpdater.newUpdater(LogEntry.class, "decoded");
+
+    private final String sourceId;
+    private final long time;
+    // the logged timestamp, only kept when it could not be decoded
+    private final String invalidDateTime;
+    private final short packetFlags;
+    // the line and offsets, null once compacted
+    private volatile Raw raw;
+    // the decoded field groups, a group is written before its bit is set
+    private volatile int decoded;
+
+    private byte addressKinds;
+    private int source;
+    private int destination;
+    // only for addresses that are not IPv4, null otherwise
+    private Wide wide;
+    private int sourcePort;
+    private int destinationPort;
+    private short protocol;
+    private short inInterface;
+    private short outInterface;
+    private byte[] macAdress;
+    private int id;
+    private int length;
+    private short tos;
+    private short precedence;
+    private short ttl;
+    private long mark;
+
+    private static final SyslogTimestampDecoder TIMESTAMPS = new SyslogTimestampDecoder();
     private static final Logger LOGGER = Logger.getLogger(LogEntry.class.getName());
+    private static final ThreadLocal<LogLineParser> PARSER = ThreadLocal.withInitial(LogLineParser::new);
 
     public LogEntry(String line) {
+        this(line, UNKNOWN_SOURCE);
+    }
+
+    /**
+     * @param line the logged line, referenced when it is a String and copied
+     * otherwise.
+     * @param sourceId id of the log source the line was read from.
+     */
+    public LogEntry(CharSequence line, String sourceId) {
 //Oct 23 09:25:49 nx9420 kernel: IN=eth0 OUT= MAC=ff:ff:ff:ff:ff:ff:00:14:22:f2:f9:c2:08:00 SRC=192.168.0.105 DST=192.168.0.255 LEN=78 TOS=0x00 PREC=0x00 
 //		TTL=128 ID=21157 PROTO=UDP SPT=137 DPT=137 LEN=58
 //Jun 18 16:10:09 eb8740w  IN=wlan0 OUT= MAC=01:00:5e:00:00:fb:dc:86:d8:21:50:94:08:00 SRC=145.89.78.8 DST=224.0.0.251 LEN=248 TOS=00 PREC=0x00 
 //              TTL=255 ID=33635 PROTO=UDP SPT=5353 DPT=5353 LEN=228 MARK=0 
-        dateTime = line.substring(0, 15);
-        LOGGER.fine(() -> String.format("Current date :%d %s", YEAR, dateTime));
-        date = parseDate();
-        String[] elements = line.split(" ");
-
-        for (String element : elements) {
-            if (element.startsWith("IN")) {
-                inInterface = element.substring(3);
-            } else if (element.startsWith("OUT")) {
-                outInterface = element.substring(4);
-            } else if (element.startsWith("MAC")) {
-                macAdress = element.substring(4);
-            } else if (element.startsWith("SRC")) {
-                source = element.substring(4);
-            } else if (element.startsWith("DST")) {
-                destination = element.substring(4);
-//			} else if (elements[i].startsWith("LEN")) {
-//				if (len1 == null)
-//					len1 = elements[i].substring(4);
-//				else
-//					len2 = elements[i].substring(4);
-//			} else if (elements[i].startsWith("TOS")) {
-//				tos = elements[i].substring(4);
-//			} else if (elements[i].startsWith("PREC")) {
-//				prec = elements[i].substring(5);
-//			} else if (elements[i].startsWith("TTL")) {
-//				ttl = elements[i].substring(4);
-            } else if (element.startsWith("ID")) {
-                id = element.substring(3);
-            } else if (element.startsWith("PROTO")) {
-                protocol = element.substring(6);
-                if ("2".equals(protocol)) {
-                    protocol = "IGMP"; // Internet Group Management Protocol 
+        this.sourceId = sourceId;
+        final LogLineParser parser = PARSER.get();
+        if (!parser.parse(line)) {
+            throw new IllegalArgumentException("Invalid log line: " + line);
+        }
+        time = TIMESTAMPS.decode(line);
+        invalidDateTime = time == SyslogTimestampDecoder.INVALID
+                ? line.subSequence(0, Math.min(SyslogTimestampDecoder.LENGTH, line.length())).toString()
+                : null;
+        LOGGER.fine(() -> String.format("Current date :%s %d", getDateTime(), time));
+        packetFlags = (short) parser.flags();
+        raw = new Raw(line instanceof String ? line : AsciiCharSequence.copyOf(line), parser);
+    }
+
+    /**
+     * Decodes all fields and drops the line, for an entry that is kept.
+     *
+     * @return this entry.
+     */
+    public final LogEntry compact() {
+        final Raw r = raw;
+        if (r != null) {
+            for (int group = 1; group < ALL; group <<= 1) {
+                if ((decoded & group) == 0) {
+                    decode(r, group);
                 }
-            } else if (element.startsWith("SPT")) {
-                sourcePort = element.substring(4);
-            } else if (element.startsWith("DPT")) {
-                destinationPort = element.substring(4);
+            }
+            raw = null;
+        }
+        return this;
+    }
+
+    private void decode(final int group) {
+        if ((decoded & group) == 0) {
+            final Raw r = raw;
+            // no line means compacted, and then every group is decoded
+            if (r != null) {
+                decode(r, group);
             }
         }
     }
 
-    private Date parseDate() {
-        try {
-            return fmt.parse("" + YEAR + " " + dateTime);
-        } catch (ParseException ex) {
-            return new Date(0); // return the imposible date of 1 jan 1970
+    private void decode(final Raw r, final int group) {
+        switch (group) {
+            case ADDRESSES:
+                decodeAddresses(r);
+                break;
+            case PORT_NUMBERS:
+                sourcePort = number(r.line, r.range(Field.SPT), 0xffff);
+                destinationPort = number(r.line, r.range(Field.DPT), 0xffff);
+                break;
+            case PROTOCOL:
+                final long proto = r.range(Field.PROTO);
+                protocol = proto == LogLineParser.ABSENT ? Protocols.NONE : Protocols.encode(r.line, start(proto), end(proto));
+                break;
+            case INTERFACE_NAMES:
+                inInterface = name(r.line, r.range(Field.IN));
+                outInterface = name(r.line, r.range(Field.OUT));
+                break;
+            case MAC:
+                macAdress = mac(r.line, r.range(Field.MAC));
+                break;
+            default:
+                id = number(r.line, r.range(Field.ID), Integer.MAX_VALUE);
+                length = number(r.line, r.range(Field.LEN), 0xffff);
+                tos = (short) hex(r.line, r.range(Field.TOS), 0xff);
+                precedence = (short) hex(r.line, r.range(Field.PREC), 0xff);
+                ttl = (short) number(r.line, r.range(Field.TTL), 0xff);
+                mark = hex(r.line, r.range(Field.MARK), 0xffffffffL);
+                break;
+        }
+        // an atomic or, so a group set by a racing thread is never lost, and
+        // a volatile write, which publishes the fields
+        DECODED.getAndAccumulate(this, group, (bits, bit) -> bits | bit);
+    }
+
+    private void decodeAddresses(final Raw r) {
+        final long src = r.range(Field.SRC);
+        final long dst = r.range(Field.DST);
+        final long source4 = ipv4(r.line, src);
+        final long destination4 = ipv4(r.line, dst);
+        final byte sourceKind;
+        final byte destinationKind;
+        if (source4 != IpAddresses.INVALID && destination4 != IpAddresses.INVALID) {
+            // the usual case, no IPv6 or text to keep
+            sourceKind = source4 == ABSENT ? NONE : IPV4;
+            destinationKind = destination4 == ABSENT ? NONE : IPV4;
+        } else {
+            final long[] bits = new long[4];
+            final String[] text = new String[2];
+            sourceKind = address(r.line, src, bits, 0, text);
+            destinationKind = address(r.line, dst, bits, 2, text);
+            wide = new Wide(bits, text);
+        }
+        source = sourceKind == IPV4 ? (int) source4 : 0;
+        destination = destinationKind == IPV4 ? (int) destination4 : 0;
+        addressKinds = (byte) (sourceKind | destinationKind << 2);
+    }
+
+    private static int start(final long range) {
+        return (int) (range >>> 32);
+    }
+
+    private static int end(final long range) {
+        return (int) range;
+    }
+
+    private static boolean isEmpty(final long range) {
+        return range == LogLineParser.ABSENT || start(range) == end(range);
+    }
+
+    private static short name(final CharSequence line, final long range) {
+        return isEmpty(range) ? 0 : INTERFACES.id(line, start(range), end(range));
+    }
+
+    /*
+     * The decimal value of the field, -1 when absent or not a number up to
+     * max.
+     */
+    private static int number(final CharSequence line, final long range, final int max) {
+        if (isEmpty(range)) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start(range); i < end(range); i++) {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+            if (value > max) {
+                return -1;
+            }
         }
+        return (int) value;
     }
 
+    /*
+     * The hexadecimal value of the field, with or without 0x, -1 when absent
+     * or not a number up to max.
+     */
+    private static long hex(final CharSequence line, final long range, final long max) {
+        if (isEmpty(range)) {
+            return -1;
+        }
+        int i = start(range);
+        if (end(range) - i > 2 && line.charAt(i) == '0' && line.charAt(i + 1) == 'x') {
+            i += 2;
+        }
+        long value = 0;
+        for (; i < end(range); i++) {
+            final int digit = Character.digit(line.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+            if (value > max) {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    /*
+     * The IPv4 address in the field, ABSENT when there is none,
+     * IpAddresses.INVALID when it is not IPv4.
+     */
+    private static long ipv4(final CharSequence line, final long range) {
+        if (isEmpty(range)) {
+            return ABSENT;
+        }
+        return IpAddresses.parse4(line, start(range), end(range));
+    }
+
+    private static byte address(final CharSequence line, final long range, final long[] bits, final int index, final String[] text) {
+        if (isEmpty(range)) {
+            return NONE;
+        }
+        final long v4 = IpAddresses.parse4(line, start(range), end(range));
+        if (v4 != IpAddresses.INVALID) {
+            bits[index + 1] = v4;
+            return IPV4;
+        } else if (IpAddresses.parse6(line, start(range), end(range), bits, index)) {
+            return IPV6;
+        }
+        text[index / 2] = LogLineParser.value(line, range);
+        return TEXT;
+    }
+
+    private static byte[] mac(final CharSequence line, final long range) {
+        final int start = start(range);
+        final int end = end(range);
+        if (range == LogLineParser.ABSENT || (end - start + 1) % 3 != 0) {
+            return null;
+        }
+        final byte[] mac = new byte[(end - start + 1) / 3];
+        for (int i = 0; i < mac.length; i++) {
+            final int pos = start + 3 * i;
+            final int high = Character.digit(line.charAt(pos), 16);
+            final int low = Character.digit(line.charAt(pos + 1), 16);
+            if (high < 0 || low < 0 || (pos + 2 < end && line.charAt(pos + 2) != ':')) {
+                return null;
+            }
+            mac[i] = (byte) (high << 4 | low);
+        }
+        return mac;
+    }
+
+    public final String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * @return the time logged, as it was logged when it could not be
+     * decoded.
+     */
     public final String getDateTime() {
-        return dateTime;
+        if (invalidDateTime != null) {
+            return invalidDateTime;
+        }
+        return DATE_TIME.format(Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()));
     }
 
     public final String getSource() {
-        return source;
+        decode(ADDRESSES);
+        return formatAddress(addressKinds & KIND_MASK, source, 0);
     }
 
     public final String getDestinationPort() {
+        decode(PORT_NUMBERS);
+        return destinationPort < 0 ? "" : port((char) destinationPort);
+    }
+
+    /**
+     * @return the destination port, -1 when not logged.
+     */
+    public final int getDestinationPortNumber() {
+        decode(PORT_NUMBERS);
         return destinationPort;
     }
 
     public final String getProtocol() {
-        return protocol;
+        decode(PROTOCOL);
+        return Protocols.name(protocol);
     }
 
     public final String getInInterface() {
-        return inInterface;
+        decode(INTERFACE_NAMES);
+        return INTERFACES.name(inInterface);
     }
 
     public final String getOutInterface() {
-        return outInterface;
+        decode(INTERFACE_NAMES);
+        return INTERFACES.name(outInterface);
     }
 
     public final String getMacAdress() {
-        return macAdress;
+        decode(MAC);
+        if (macAdress == null) {
+            return "";
+        }
+        final StringBuilder result = new StringBuilder(macAdress.length * 3);
+        for (byte b : macAdress) {
+            if (result.length() > 0) {
+                result.append(':');
+            }
+            result.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
     }
 
     public final String getDestination() {
-        return destination;
+        decode(ADDRESSES);
+        return formatAddress(addressKinds >> 2 & KIND_MASK, destination, 1);
     }
 
     public final String getId() {
-        return id;
+        decode(IP_HEADER);
+        return id < 0 ? "" : Integer.toString(id);
     }
 
     public final String getSourcePort() {
-        return sourcePort;
+        decode(PORT_NUMBERS);
+        return sourcePort < 0 ? "" : port((char) sourcePort);
     }
 
     public final Date getDate() {
-        return new Date(date.getTime());
+        return new Date(time);
+    }
+
+    /**
+     * @return the time logged in epoch milliseconds, 0 when the timestamp is
+     * invalid.
+     */
+    public final long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the total length of the IP packet, -1 when not logged.
+     */
+    public final int getLength() {
+        decode(IP_HEADER);
+        return length;
+    }
+
+    /**
+     * @return the type of service, -1 when not logged.
+     */
+    public final int getTos() {
+        decode(IP_HEADER);
+        return tos;
     }
 
+    /**
+     * @return the precedence bits of the type of service, -1 when not logged.
+     */
+    public final int getPrecedence() {
+        decode(IP_HEADER);
+        return precedence;
+    }
+
+    /**
+     * @return the time to live, -1 when not logged.
+     */
+    public final int getTtl() {
+        decode(IP_HEADER);
+        return ttl;
+    }
+
+    /**
+     * @return the netfilter mark, -1 when not logged.
+     */
+    public final long getMark() {
+        decode(IP_HEADER);
+        return mark;
+    }
+
+    /**
+     * @param flag an IP or TCP flag.
+     * @return true when the flag was logged.
+     */
+    public final boolean hasFlag(final Flag flag) {
+        return flag.isSet(packetFlags);
+    }
+
+    /**
+     * @param other another entry.
+     * @return true when both have the same source address, compared without
+     * formatting.
+     */
+    public final boolean hasSameSource(final LogEntry other) {
+        decode(ADDRESSES);
+        other.decode(ADDRESSES);
+        final int kind = addressKinds & KIND_MASK;
+        if (kind != (other.addressKinds & KIND_MASK)) {
+            return false;
+        }
+        switch (kind) {
+            case IPV4:
+                return source == other.source;
+            case IPV6:
+                return wide.bits[0] == other.wide.bits[0] && wide.bits[1] == other.wide.bits[1];
+            case TEXT:
+                return wide.text[0].equals(other.wide.text[0]);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return a key of the source address, the address itself for IPv4 and a
+     * hash of it otherwise. Equal sources have equal keys.
+     */
+    public final long getSourceKey() {
+        decode(ADDRESSES);
+        return addressKey(addressKinds & KIND_MASK, source, 0);
+    }
+
+    /**
+     * @return a key of the destination address, as the source key.
+     */
+    public final long getDestinationKey() {
+        decode(ADDRESSES);
+        return addressKey(addressKinds >> 2 & KIND_MASK, destination, 1);
+    }
+
+    // primitive access for the filter rules, index 0 is the source or IN, 1
+    // the destination or OUT
+
+    final int addressKind(final int index) {
+        decode(ADDRESSES);
+        return addressKinds >> 2 * index & KIND_MASK;
+    }
+
+    final int address4(final int index) {
+        decode(ADDRESSES);
+        return index == 0 ? source : destination;
+    }
+
+    final long address6(final int index, final int half) {
+        decode(ADDRESSES);
+        return wide.bits[2 * index + half];
+    }
+
+    final short interfaceId(final int index) {
+        decode(INTERFACE_NAMES);
+        return index == 0 ? inInterface : outInterface;
+    }
+
+    final short protocolCode() {
+        decode(PROTOCOL);
+        return protocol;
+    }
+
+    final int sourcePortNumber() {
+        decode(PORT_NUMBERS);
+        return sourcePort;
+    }
+
+    static String interfaceName(final short id) {
+        return INTERFACES.name(id);
+    }
+
+    static short interfaceId(final String name) {
+        return INTERFACES.find(name);
+    }
+
+    private long addressKey(final int kind, final int v4, final int index) {
+        switch (kind) {
+            case IPV4:
+                return ipv4Key(v4);
+            case IPV6:
+                return ipv6Key(wide.bits[2 * index], wide.bits[2 * index + 1]);
+            case TEXT:
+                return textKey(wide.text[index]);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param address an address as it is logged.
+     * @return the key of the address, equal to the source key of an entry
+     * from that address.
+     */
+    public static long addressKey(final String address) {
+        final long v4 = IpAddresses.parse4(address, 0, address.length());
+        if (v4 != IpAddresses.INVALID) {
+            return ipv4Key((int) v4);
+        }
+        final long[] bits = new long[2];
+        if (IpAddresses.parse6(address, 0, address.length(), bits, 0)) {
+            return ipv6Key(bits[0], bits[1]);
+        }
+        return textKey(address);
+    }
+
+    private static long ipv4Key(final int v4) {
+        return (long) IPV4 << 32 | v4 & 0xffffffffL;
+    }
+
+    private static long ipv6Key(final long high, final long low) {
+        return (high * 31 + low) * 0x9E3779B97F4A7C15L | 1L << 63;
+    }
+
+    private static long textKey(final String text) {
+        return (long) TEXT << 32 | text.hashCode() & 0xffffffffL;
+    }
+
+    private String formatAddress(final int kind, final int v4, final int index) {
+        switch (kind) {
+            case IPV4:
+                return IpAddresses.format4(v4);
+            case IPV6:
+                return IpAddresses.format6(wide.bits[2 * index], wide.bits[2 * index + 1]);
+            case TEXT:
+                return wide.text[index];
+            default:
+                return "";
+        }
+    }
+
+    static String port(final char port) {
+        // the formatted ports are shared by all entries
+        String result = PORTS[port];
+        if (result == null) {
+            result = Integer.toString(port);
+            PORTS[port] = result;
+        }
+        return result;
+    }
+
+    /**
+     * The logged line and the start offset of each field, 0 when the field is
+     * absent (offset 0 is the timestamp). A value ends at the next space, as
+     * the parser found it.
+     */
+    private static final class Raw {
+
+        private static final Field[] FIELDS = Field.values();
+
+        private final CharSequence line;
+        private final char[] offsets = new char[FIELDS.length];
+
+        Raw(final CharSequence line, final LogLineParser parser) {
+            this.line = line;
+            for (Field field : FIELDS) {
+                // a field beyond the reach of a char offset is dropped
+                if (parser.has(field) && parser.end(field) <= Character.MAX_VALUE) {
+                    offsets[field.ordinal()] = (char) parser.start(field);
+                }
+            }
+        }
+
+        long range(final Field field) {
+            final int start = offsets[field.ordinal()];
+            if (start == 0) {
+                return LogLineParser.ABSENT;
+            }
+            int end = start;
+            while (end < line.length() && line.charAt(end) != ' ') {
+                end++;
+            }
+            return LogLineParser.range(start, end);
+        }
+    }
+
+    /**
+     * Addresses that are not IPv4: the IPv6 bits or, for something that is
+     * not an address at all, the text.
+     */
+    private static final class Wide {
+
+        private final long[] bits;
+        private final String[] text;
+
+        Wide(final long[] bits, final String[] text) {
+            this.bits = bits;
+            this.text = text;
+        }
+    }
 }
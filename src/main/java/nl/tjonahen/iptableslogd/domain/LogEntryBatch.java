@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A number of consecutive LogEntry objects delivered to a subscriber at once, in
+ * the order they were logged.
+ *
+ */
+public final class LogEntryBatch implements Iterable<LogEntry> {
+
+    private final List<LogEntry> entries;
+
+    public LogEntryBatch(final List<LogEntry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public List<LogEntry> getEntries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public Iterator<LogEntry> iterator() {
+        return entries.iterator();
+    }
+
+}
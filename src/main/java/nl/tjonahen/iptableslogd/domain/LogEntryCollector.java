@@ -17,17 +17,32 @@
 package nl.tjonahen.iptableslogd.domain;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import nl.tjonahen.cdi.value.Value;
 
-import nl.tjonahen.iptableslogd.collection.AggregatingFixedSizeList;
-import nl.tjonahen.iptableslogd.collection.FixedSizeList;
+import nl.tjonahen.iptableslogd.collection.Aggregator;
+import nl.tjonahen.iptableslogd.collection.RingBuffer;
+import nl.tjonahen.iptableslogd.jmx.Configuration;
 
 /**
  * LogEntry collector. Collects LogEntry objects and aggregates them.
- * Uses the Observer pattern to wait for LogEntry events.
+ * Fed in batches by the LogEntryPipeline, on a thread of its own.
+ *
+ * Port scans are detected over all log sources by a PortScanDetector
+ * configured with the port scan window and threshold. Slow scans and sweeps
+ * over many hosts are classified by the ScanProfiles, the distinct ports and
+ * hosts every active source sent to.
+ *
+ * The filter rules of the Configuration decide which entries are hidden and
+ * which are harmless, a change of the rules applies from the next entry on.
  *
  * @author Philippe Tjon-A-Hen
  *
@@ -35,45 +50,157 @@ import nl.tjonahen.iptableslogd.collection.FixedSizeList;
 @Singleton
 public final class LogEntryCollector {
 
-    private final List<LogEntry> all = new FixedSizeList<>(10);
-    private final List<LogEntry> portScans = new AggregatingFixedSizeList<>(5, (t) -> t.getSource());
-    private final AggregatingFixedSizeList<LogEntry> portScanSlots = new AggregatingFixedSizeList<>(5, (t) -> t.getSource());
-    private final AggregatingFixedSizeList<LogEntry> error = new AggregatingFixedSizeList<>(10, (t) -> t.getDestination() + t.getDestinationPort());
+    private final RingBuffer<LogEntry> all = new RingBuffer<>(10);
+    private final Aggregator<LogEntry> portScans = new Aggregator<>(5, (t) -> t.getSource());
+    private final Aggregator<LogEntry> error = new Aggregator<>(10, (t) -> t.getDestination() + t.getDestinationPort());
 
-    
-    @Inject 
-    private PortNumbers portNumbers;
+    @Inject
+    private Configuration configuration;
+
+    @Inject
+    @Value(key = "portScanSources", value = "131072")
+    private int portScanSources;
+
+    @Inject
+    @Value(key = "scanProfiles", value = "4096")
+    private int scanProfileSources;
+
+    @Inject
+    @Value(key = "scanThreshold", value = "16")
+    private int scanThreshold;
+
+    @Inject
+    @Value(key = "scanProfileWindow", value = "3600")
+    private int scanProfileWindow;
+
+    private PortScanDetector portScanDetector;
+    private ScanProfiles scanProfiles;
+    private volatile FilterRules filterRules;
+
+    @PostConstruct
+    public void setup() {
+        portScanDetector = new PortScanDetector(portScanSources,
+                configuration.getPortScanWindow(), configuration.getPortScanThreshold());
+        scanProfiles = new ScanProfiles(scanProfileSources, scanThreshold,
+                TimeUnit.SECONDS.toMillis(scanProfileWindow));
+        filterRules = configuration.getCompiledFilterRules();
+    }
+
+    public void update(final @Observes Configuration c) {
+        portScanDetector.configure(c.getPortScanWindow(), c.getPortScanThreshold());
+        filterRules = c.getCompiledFilterRules();
+    }
+
+    /**
+     * Immutable copy of the collected entries, with the aggregate count of each
+     * error entry and the scan profile of each port scan entry.
+     */
+    public static final class Snapshot {
+
+        private final List<LogEntry> allLogLines;
+        private final List<LogEntry> errorLogLines;
+        private final List<LogEntry> portScans;
+        private final Map<LogEntry, Integer> errorCounts;
+        private final Map<LogEntry, ScanProfile> scanProfiles;
+
+        private Snapshot(final LogEntryCollector collector) {
+            final List<LogEntry> errors = new ArrayList<>();
+            final Map<LogEntry, Integer> counts = new IdentityHashMap<>();
+            collector.error.forEachAggregate((entry, count) -> {
+                errors.add(entry);
+                counts.put(entry, count);
+            });
+            this.allLogLines = Collections.unmodifiableList(collector.all.snapshot());
+            this.errorLogLines = Collections.unmodifiableList(errors);
+            this.portScans = Collections.unmodifiableList(collector.portScans.snapshot());
+            this.errorCounts = counts;
+            this.scanProfiles = new IdentityHashMap<>();
+            for (LogEntry entry : portScans) {
+                final ScanProfile profile = collector.scanProfiles.get(entry);
+                if (profile != null) {
+                    scanProfiles.put(entry, profile);
+                }
+            }
+        }
 
-    private static final long PORTSCANTIMESLOT = 5 * 1000L;
+        public List<LogEntry> getAllLogLines() {
+            return allLogLines;
+        }
 
+        public List<LogEntry> getErrorLogLines() {
+            return errorLogLines;
+        }
+
+        public List<LogEntry> getPortScans() {
+            return portScans;
+        }
+
+        public int getAggregateErrorCount(final LogEntry line) {
+            return errorCounts.getOrDefault(line, 0);
+        }
+
+        /**
+         * @param line a port scan entry.
+         * @return the profile of its source, null when the source was
+         * evicted.
+         */
+        public ScanProfile getScanProfile(final LogEntry line) {
+            return scanProfiles.get(line);
+        }
+    }
 
     /**
      * Adds a new logentry line to the collector.
      *
      * @param lastEntry
      */
-    public void addLogLine(final @Observes LogEntry lastEntry) {
-        
-        if (!detectPortScan(lastEntry)) {
+    public void addLogLine(final LogEntry lastEntry) {
+        final int actions = filterRules.evaluate(lastEntry);
+        final boolean ignore = FilterRules.Action.IGNORE.isSet(actions);
+        if (!ignore && detectPortScan(lastEntry)) {
             // if a port scan was detected do not bother with statistics and
             // reporting
             // of individual dropped packages
-            if (!isFromDocker(lastEntry)) {
-                addToAllList(lastEntry);
-                addToErrorList(lastEntry);
+            lastEntry.compact();
+            portScans.add(lastEntry);
+        } else if (!FilterRules.Action.HIDE.isSet(actions)) {
+            lastEntry.compact();
+            all.add(lastEntry);
+            if (!ignore) {
+                error.add(lastEntry);
             }
         }
     }
+
+    /**
+     * Adds a batch of logentry lines to the collector, in order.
+     *
+     * @param batch
+     */
+    public void addLogLines(final LogEntryBatch batch) {
+        batch.forEach(this::addLogLine);
+    }
+
+    /**
+     * Copies the collected entries, called on the collector thread between
+     * batches.
+     *
+     * @return the snapshot.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
     public List<LogEntry> getErrorLogLines() {
-        return new ArrayList<>(error);
+        return error.snapshot();
     }
 
     public List<LogEntry> getAllLogLines() {
-        return new ArrayList<>(all);
+        return all.snapshot();
     }
 
     public List<LogEntry> getPortScans() {
-        return new ArrayList<>(portScans);
+        return portScans.snapshot();
     }
 
     public int getAggregateErrorCount(final LogEntry line) {
@@ -85,43 +212,16 @@ public final class LogEntryCollector {
     
     private boolean detectPortScan(LogEntry entry) {
         /*
-         * if we see a source more then 2 within a fixed time slot for different
-         * destination ports a port scan might be in progress
+         * if we see a source sending to a number of different destination
+         * ports within the window a port scan is in progress, a source that
+         * sent to many ports or hosts over a longer time is scanning slowly
          */
-        if (canIgnore(entry.getDestinationPort())) {
-            return false;
+        final ScanProfile profile = scanProfiles.add(entry);
+        final int port = entry.getDestinationPortNumber();
+        if (port >= 0 && portScanDetector.isScan(entry.getSourceKey(), port, entry.getTime())) {
+            return true;
         }
-        portScanSlots.add(entry);
-        if (portScanSlots.getAggregateCount(entry) > 2) {
-            for (LogEntry p : portScanSlots) {
-                if (entry.getSource().equals(p.getSource())
-                        && (entry.getDate().getTime() - p.getDate().getTime()) < PORTSCANTIMESLOT) {
-                    // raise portscan for source;
-                    portScans.add(entry);
-                    return true;
-                }
-            }
-        }
-        return false;
-
-    }
-
-    private void addToErrorList(LogEntry entry) {
-        if (!canIgnore(entry.getDestinationPort())) {
-            error.add(entry);
-        }
-    }
-
-    private void addToAllList(LogEntry entry) {
-        all.add(entry);
-    }
-
-    private boolean isFromDocker(final LogEntry lastEntry) {
-        return lastEntry.getInInterface().startsWith("docker");
-    }
-
-    private boolean canIgnore(String destinationPort) {
-        return portNumbers.canIgnorePort(destinationPort);
+        return profile.isScan();
     }
 
 }
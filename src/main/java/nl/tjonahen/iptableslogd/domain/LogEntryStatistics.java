@@ -18,56 +18,177 @@ package nl.tjonahen.iptableslogd.domain;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
-import javax.enterprise.event.Observes;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import nl.tjonahen.cdi.value.Value;
+import nl.tjonahen.iptableslogd.collection.RadixCounter;
+import nl.tjonahen.iptableslogd.collection.SpaceSaving;
+import nl.tjonahen.iptableslogd.collection.StripedSpaceSaving;
 
 /**
  * LogEntry statistics, counts the number of ports, hosts and protocol.
  *
- * Uses the Observer pattern to wait for LogEntry events.
+ * Fed in batches by the LogEntryPipeline, on a thread of its own.
+ *
+ * Only the number of entries is counted per log source, the counters and top
+ * K lists are over all sources.
+ *
+ * The top K of each counter is tracked with a Space-Saving summary of a fixed
+ * number of counters, a key seen more than number / topKCounters times is
+ * always in the summary and a slow, steady key climbs into the top K instead
+ * of being evicted as soon as it is seen. Protocols and interfaces are few,
+ * they are counted exactly.
+ *
+ * All counters are thread safe, updateStatistics may be called from several
+ * threads at once. Counts are striped (LongAdder, a lock per stripe of a
+ * summary) so ingest threads rarely contend, and the last seen time of a
+ * counter is the time logged by the entry.
+ *
+ * The number of entries of any source address or destination port, also those
+ * not in a top K, is estimated with Count-Min sketches. The estimates are
+ * JMX operations of the StatisticsMBean. A rollup over source /24,
+ * destination port, protocol and interface answers questions that combine
+ * them. Source prefixes are counted in a radix trie, the busiest /16, /24 and
+ * /48 and the hierarchical heavy hitters are shown next to the top hosts.
  *
  * @author Philippe Tjon-A-Hen
  *
  */
 @Singleton
-public final class LogEntryStatistics {
+public final class LogEntryStatistics implements LogEntryStatisticsMBean {
 
-    private static final int MAX_MAP_SIZE = 10;
+    @Inject
+    private MBeanServer platformMBeanServer;
 
     @Inject
     private PortNumbers portNumbers;
 
-    private long start = 0;
-    private long end = 0;
-    private long number = 0;
+    @Inject
+    @Value(key = "topK", value = "10")
+    private int topK;
+
+    @Inject
+    @Value(key = "topKCounters", value = "100")
+    private int topKCounters;
+
+    @Inject
+    @Value(key = "statisticsStripes", value = "4")
+    private int stripes;
 
-    public final class Counter {
+    @Inject
+    @Value(key = "rateSeries", value = "16")
+    private int rateSeries;
 
-        private int count;
-        private long lastseen;
+    @Inject
+    @Value(key = "sketchWidth", value = "16384")
+    private int sketchWidth;
+
+    @Inject
+    @Value(key = "sketchDepth", value = "4")
+    private int sketchDepth;
+
+    @Inject
+    @Value(key = "rollupCells", value = "65536")
+    private int rollupCells;
+
+    @Inject
+    @Value(key = "prefixNodes", value = "4096")
+    private int prefixNodes;
+
+    @Inject
+    @Value(key = "heavyHitterPercentage", value = "5")
+    private int heavyHitterPercentage;
+
+    private static final Comparator<Counter> COUNTER_ORDER = Comparator
+            .comparingLong(Counter::getCount).reversed()
+            .thenComparing(Comparator.comparingLong(Counter::getLastseen).reversed());
+
+    private Statistics global;
+    private RateHistory rates;
+    private FrequencySketches sketches;
+    private RollupCube rollup;
+    private SourcePrefixes prefixes;
+    private final Map<String, LongAdder> sources = new ConcurrentHashMap<>();
+    private ObjectName objectName = null;
+
+    @PostConstruct
+    public void setup() {
+        global = new Statistics(topK, Math.max(topK, topKCounters), stripes);
+        rates = new RateHistory(rateSeries);
+        sketches = new FrequencySketches(sketchWidth, sketchDepth);
+        rollup = new RollupCube(rollupCells);
+        prefixes = new SourcePrefixes(prefixNodes);
+        try {
+            objectName = new ObjectName("nl.tjonahen.iptableslogd.Statistics:type=statistics");
+            platformMBeanServer.registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException | MBeanRegistrationException | MalformedObjectNameException | NotCompliantMBeanException e) {
+            throw new IllegalStateException("Unable to register StatisticsMBean ", e);
+        }
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        try {
+            platformMBeanServer.unregisterMBean(this.objectName);
+        } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+            throw new IllegalStateException("Unable to unregistration StatisticsMBean ", e);
+        }
+    }
+
+    /**
+     * Immutable counter of a top K list.
+     */
+    public static final class Counter {
+
+        private final long count;
+        private final long error;
+        private final long lastseen;
         private final String data;
 
-        public Counter(String data) {
-            this.count = 1;
-            this.lastseen = System.currentTimeMillis();
-            this.data = data;
+        private Counter(final SpaceSaving.Counted<String> counted) {
+            this(counted.getKey(), counted.getCount(), counted.getError(), counted.getLastSeen());
         }
 
-        public void increment() {
-            count++;
-            lastseen = System.currentTimeMillis();
+        private Counter(final String data, final long count, final long error, final long lastseen) {
+            this.count = count;
+            this.error = error;
+            this.lastseen = lastseen;
+            this.data = data;
         }
 
-        public int getCount() {
+        public long getCount() {
             return count;
         }
 
+        /**
+         * @return the maximum overestimation of the count.
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * @return the latest time logged by a counted entry.
+         */
         public long getLastseen() {
             return lastseen;
         }
@@ -77,27 +198,304 @@ public final class LogEntryStatistics {
         }
 
     }
-    private final Map<String, Counter> hosts = new TreeMap<>();
-    private final Map<String, Counter> protocol = new TreeMap<>();
-    private final Map<String, Counter> ports = new TreeMap<>();
-    private final Map<String, Counter> inInterfaces = new TreeMap<>();
-
-    private static int counterCompare(Counter o1, Counter o2) {
-        if (o2.getCount() == o1.getCount()) {
-            if (o2.getLastseen() == o1.getLastseen()) {
-                return 0;
-            } else if (o2.getLastseen() < o1.getLastseen()) {
-                return -1;
+
+    /*
+     * Exact counter of a key, updated without locking.
+     */
+    private static final class Tally {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator lastseen = new LongAccumulator(Math::max, 0);
+
+        void add(final long time) {
+            count.increment();
+            lastseen.accumulate(time);
+        }
+
+        Counter toCounter(final String data) {
+            return new Counter(data, count.sum(), 0, lastseen.get());
+        }
+    }
+
+    /**
+     * The counters of all entries, a log source only has its number counted.
+     */
+    public static final class Statistics {
+
+        private final LongAccumulator start = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator end = new LongAccumulator(Math::max, 0);
+        private final LongAdder number = new LongAdder();
+
+        private final int topK;
+        private final StripedSpaceSaving<String> hosts;
+        private final StripedSpaceSaving<String> ports;
+        private final Map<String, Tally> protocol = new ConcurrentHashMap<>();
+        private final Map<String, Tally> inInterfaces = new ConcurrentHashMap<>();
+
+        private Statistics(final int topK, final int counters, final int stripes) {
+            this.topK = topK;
+            this.hosts = new StripedSpaceSaving<>(counters, stripes);
+            this.ports = new StripedSpaceSaving<>(counters, stripes);
+        }
+
+        /**
+         * Get the host counter list. The list is ordered by number of
+         * occurrences.
+         *
+         * @return
+         */
+        public List<Counter> getHosts() {
+            return top(hosts);
+        }
+
+        /**
+         * Get the protocol counter list. The list is ordered by number of
+         * occurrences.
+         *
+         * @return
+         */
+        public List<Counter> getProtocol() {
+            return top(protocol);
+        }
+
+        /**
+         * Get the port counter list. The list is ordered by number of
+         * occurrences.
+         *
+         * @return
+         */
+        public List<Counter> getPorts() {
+            return top(ports);
+        }
+
+        /**
+         * Get the inInterface counter list. The list is ordered by number of
+         * occurrences.
+         *
+         * @return
+         */
+        public List<Counter> getInInterfaces() {
+            return top(inInterfaces);
+        }
+
+        private List<Counter> top(final StripedSpaceSaving<String> summary) {
+            return summary.top(topK).stream().map(Counter::new).collect(Collectors.toList());
+        }
+
+        // a concurrent map is iterated safely while it is updated
+        private List<Counter> top(final Map<String, Tally> tallies) {
+            return tallies.entrySet().stream()
+                    .map((e) -> e.getValue().toCounter(e.getKey()))
+                    .sorted(COUNTER_ORDER)
+                    .limit(topK)
+                    .collect(Collectors.toList());
+        }
+
+        /**
+         * @return the earliest time logged, 0 when nothing was logged.
+         */
+        public long getStart() {
+            final long result = start.get();
+            return result == Long.MAX_VALUE ? 0 : result;
+        }
+
+        /**
+         * @return the latest time logged.
+         */
+        public long getEnd() {
+            return end.get();
+        }
+
+        public long getNumber() {
+            return number.sum();
+        }
+
+        /*
+         * Count the entries. Each summary stripe is locked once for the whole
+         * batch instead of once per entry. portDescriptions holds the port
+         * description of each entry.
+         */
+        private void update(final List<LogEntry> entries, final List<String> portDescriptions) {
+            final int size = entries.size();
+            final List<String> hostKeys = new ArrayList<>(size);
+            final List<String> portKeys = new ArrayList<>(size);
+            final long[] times = new long[size];
+            for (int i = 0; i < size; i++) {
+                final LogEntry entry = entries.get(i);
+                final long time = entry.getTime();
+                if (time > 0) {
+                    start.accumulate(time);
+                    end.accumulate(time);
+                }
+                hostKeys.add(emptyToNull(entry.getSource()));
+                portKeys.add(emptyToNull(portDescriptions.get(i)));
+                times[i] = time;
+                count(protocol, entry.getProtocol(), time);
+                count(inInterfaces, entry.getInInterface(), time);
+            }
+            number.add(size);
+            hosts.offer(hostKeys, times);
+            ports.offer(portKeys, times);
+        }
+
+        private static String emptyToNull(final String key) {
+            return key == null || key.isEmpty() ? null : key;
+        }
+
+        private static void count(final Map<String, Tally> tallies, final String key, final long time) {
+            if (key == null || "".equals(key)) {
+                return;
+            }
+            Tally tally = tallies.get(key);
+            if (tally == null) {
+                tally = tallies.computeIfAbsent(key, (k) -> new Tally());
             }
-        } else if (o2.getCount() < o1.getCount()) {
-            return -1;
+            tally.add(time);
         }
-        return 1;
     }
 
-    private List<Counter> getMapAsSortedList(Map<String, Counter> map) {
-        synchronized (map) {
-            return map.values().stream().sorted(LogEntryStatistics::counterCompare).collect(Collectors.toList());
+    /**
+     * Immutable copy of the global statistics and the number of entries per
+     * log source.
+     */
+    public static final class Snapshot {
+
+        private final List<Counter> hosts;
+        private final List<Counter> protocol;
+        private final List<Counter> ports;
+        private final List<Counter> inInterfaces;
+        private final long start;
+        private final long end;
+        private final long number;
+        private final Map<String, Long> sourceNumbers;
+        private final RateHistory.Snapshot rates;
+        private final List<Counter> prefixes16;
+        private final List<Counter> prefixes24;
+        private final List<Counter> prefixes48;
+        private final List<Counter> heavyHitters;
+        private final RollupCube rollup;
+        private final FrequencySketches sketches;
+
+        private Snapshot(final LogEntryStatistics owner) {
+            final Statistics statistics = owner.global;
+            this.hosts = Collections.unmodifiableList(statistics.getHosts());
+            this.protocol = Collections.unmodifiableList(statistics.getProtocol());
+            this.ports = Collections.unmodifiableList(statistics.getPorts());
+            this.inInterfaces = Collections.unmodifiableList(statistics.getInInterfaces());
+            this.start = statistics.getStart();
+            this.end = statistics.getEnd();
+            this.number = statistics.getNumber();
+            final Map<String, Long> numbers = new TreeMap<>();
+            owner.sources.forEach((id, n) -> numbers.put(id, n.sum()));
+            this.sourceNumbers = Collections.unmodifiableMap(numbers);
+            this.rates = owner.rates.snapshot();
+            this.prefixes16 = counters(owner.prefixes.top4(16, owner.topK));
+            this.prefixes24 = counters(owner.prefixes.top4(24, owner.topK));
+            this.prefixes48 = counters(owner.prefixes.top6(48, owner.topK));
+            this.heavyHitters = counters(owner.prefixes.heavyHitters(owner.heavyHitterPercentage / 100.0));
+            this.rollup = owner.rollup.snapshot();
+            this.sketches = owner.sketches.snapshot();
+        }
+
+        private static List<Counter> counters(final List<RadixCounter.Prefix> prefixes) {
+            return Collections.unmodifiableList(prefixes.stream()
+                    .map((p) -> new Counter(SourcePrefixes.format(p), p.getCount(), 0, 0))
+                    .collect(Collectors.toList()));
+        }
+
+        public List<Counter> getHosts() {
+            return hosts;
+        }
+
+        public List<Counter> getProtocol() {
+            return protocol;
+        }
+
+        public List<Counter> getPorts() {
+            return ports;
+        }
+
+        public List<Counter> getInInterfaces() {
+            return inInterfaces;
+        }
+
+        /**
+         * @return the IPv4 /16 prefixes with the most entries.
+         */
+        public List<Counter> getPrefixes16() {
+            return prefixes16;
+        }
+
+        /**
+         * @return the IPv4 /24 prefixes with the most entries.
+         */
+        public List<Counter> getPrefixes24() {
+            return prefixes24;
+        }
+
+        /**
+         * @return the IPv6 /48 prefixes with the most entries.
+         */
+        public List<Counter> getPrefixes48() {
+            return prefixes48;
+        }
+
+        /**
+         * @return the hierarchical heavy hitters, the prefixes of any length
+         * holding heavyHitterPercentage of the entries not counted in a heavy
+         * hitter below them.
+         */
+        public List<Counter> getHeavyHitters() {
+            return heavyHitters;
+        }
+
+        /**
+         * @return a copy of the rollup per source /24, destination port,
+         * protocol and interface.
+         */
+        public RollupCube getRollup() {
+            return rollup;
+        }
+
+        /**
+         * @return a copy of the source and port sketches.
+         */
+        public FrequencySketches getSketches() {
+            return sketches;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * @return the ids of the log sources, sorted.
+         */
+        public Set<String> getSources() {
+            return sourceNumbers.keySet();
+        }
+
+        /**
+         * @param sourceId the log source id.
+         * @return the number of entries logged by the source.
+         */
+        public long getNumber(final String sourceId) {
+            return sourceNumbers.getOrDefault(sourceId, 0L);
+        }
+
+        /**
+         * @return the number of entries over time.
+         */
+        public RateHistory.Snapshot getRates() {
+            return rates;
         }
     }
 
@@ -107,7 +505,7 @@ public final class LogEntryStatistics {
      * @return
      */
     public List<Counter> getHosts() {
-        return getMapAsSortedList(hosts);
+        return global.getHosts();
     }
 
     /**
@@ -117,7 +515,7 @@ public final class LogEntryStatistics {
      * @return
      */
     public List<Counter> getProtocol() {
-        return getMapAsSortedList(protocol);
+        return global.getProtocol();
     }
 
     /**
@@ -126,7 +524,7 @@ public final class LogEntryStatistics {
      * @return
      */
     public List<Counter> getPorts() {
-        return getMapAsSortedList(ports);
+        return global.getPorts();
     }
 
     /**
@@ -136,121 +534,108 @@ public final class LogEntryStatistics {
      * @return
      */
     public List<Counter> getInInterfaces() {
-        return getMapAsSortedList(inInterfaces);
+        return global.getInInterfaces();
     }
 
     public long getStart() {
-        return start;
+        return global.getStart();
     }
 
     public long getEnd() {
-        return end;
+        return global.getEnd();
     }
 
+    @Override
     public long getNumber() {
-        return number;
+        return global.getNumber();
     }
 
-    public void updateStatistics(final @Observes LogEntry entry) {
-        updateGlobal(entry);
-        addHost(entry.getSource());
-        addProtocol(entry.getProtocol());
-        addPort(portNumbers.getDescription(entry.getDestinationPort(), entry.getProtocol()));
-        addInInterface(entry.getInInterface());
+    /**
+     * @param address a source address.
+     * @return the estimated number of entries logged from the address.
+     */
+    public FrequencySketches.Estimate getSourceEstimate(final String address) {
+        return sketches.estimateSource(address);
     }
 
     /**
-     * Add a host name to the host counter.
-     *
-     * @param host
+     * @param port a destination port.
+     * @return the estimated number of entries logged to the port.
      */
-    private void addHost(String host) {
-        synchronized (host) {
-            if (hosts.containsKey(host)) {
-                hosts.get(host).increment();
-            } else {
-                hosts.put(host, new Counter(host));
-            }
-            sizeMap(hosts);
-        }
+    public FrequencySketches.Estimate getPortEstimate(final int port) {
+        return sketches.estimatePort(port);
+    }
+
+    @Override
+    public String estimateSource(final String address) {
+        return getSourceEstimate(address).toString();
+    }
+
+    @Override
+    public String estimatePort(final int port) {
+        return getPortEstimate(port).toString();
     }
 
     /**
-     * Add a protocol to the protocol counter.
-     *
-     * @param proto
+     * @return the ids of the log sources seen so far, sorted.
      */
-    private void addProtocol(String proto) {
-        synchronized (protocol) {
-            if (protocol.containsKey(proto)) {
-                protocol.get(proto).increment();
-            } else {
-                protocol.put(proto, new Counter(proto));
-            }
-            sizeMap(protocol);
-        }
+    public Set<String> getSources() {
+        return new TreeSet<>(sources.keySet());
     }
 
     /**
-     * Add a port to the port counter.
-     *
-     * @param port
+     * @return the number of entries over time.
      */
-    private void addPort(String port) {
-        if (port == null || "".equals(port)) {
-            return;
-        }
-        synchronized (ports) {
-            if (ports.containsKey(port)) {
-                ports.get(port).increment();
-            } else {
-                ports.put(port, new Counter(port));
-            }
-            sizeMap(ports);
-        }
+    public RateHistory.Snapshot getRates() {
+        return rates.snapshot();
     }
 
     /**
-     * Add a inInterface to the inInterface counter.
+     * Copies the statistics, called on the statistics thread between batches.
      *
-     * @param inInterface
+     * @return the snapshot.
      */
-    private void addInInterface(String inInterface) {
-        if (inInterface == null || "".equals(inInterface)) {
-            return;
-        }
-        synchronized (inInterfaces) {
-            if (inInterfaces.containsKey(inInterface)) {
-                inInterfaces.get(inInterface).increment();
-            } else {
-                inInterfaces.put(inInterface, new Counter(inInterface));
-            }
-            sizeMap(inInterfaces);
-        }
+    public Snapshot snapshot() {
+        return new Snapshot(this);
     }
 
-    private void updateGlobal(LogEntry le) {
-        if (start == 0) {
-            start = le.getDate().getTime();
-        }
-        if (end < le.getDate().getTime()) {
-            end = le.getDate().getTime();
-        }
-        number++;
+    public void updateStatistics(final LogEntry entry) {
+        updateStatistics(new LogEntryBatch(Collections.singletonList(entry)));
     }
 
-    /*
-     *  Resize the map to max 10 elements.
+    /**
+     * Update the global and per source statistics for a batch of entries.
+     *
+     * @param batch
      */
-    private void sizeMap(Map<String, Counter> map) {
-
-        if (map.keySet().size() > MAX_MAP_SIZE) {
-            final List<Entry<String, Counter>> entries = new ArrayList<>(map.entrySet());
-            Collections.sort(entries, (Entry<String, Counter> o1, Entry<String, Counter> o2) -> counterCompare(o1.getValue(), o2.getValue()));
-            map.clear();
-            entries.stream().limit(MAX_MAP_SIZE).forEach((e) -> map.put(e.getKey(), e.getValue()));
+    public void updateStatistics(final LogEntryBatch batch) {
+        final List<LogEntry> entries = batch.getEntries();
+        final List<String> portDescriptions = new ArrayList<>(entries.size());
+        String sourceId = null;
+        boolean singleSource = true;
+        for (LogEntry entry : entries) {
+            portDescriptions.add(portNumbers.getDescription(entry));
+            singleSource &= sourceId == null || sourceId.equals(entry.getSourceId());
+            sourceId = entry.getSourceId();
         }
+        global.update(entries, portDescriptions);
+        rates.add(entries);
+        sketches.add(entries);
+        rollup.add(entries);
+        prefixes.add(entries);
+        if (singleSource) {
+            // the usual case, a batch read from one source
+            countSource(sourceId, entries.size());
+        } else {
+            entries.forEach((entry) -> countSource(entry.getSourceId(), 1));
+        }
+    }
 
+    private void countSource(final String sourceId, final int count) {
+        if (sourceId == null || LogEntry.UNKNOWN_SOURCE.equals(sourceId)) {
+            return;
+        }
+        sources.computeIfAbsent(sourceId, (id) -> new LongAdder()).add(count);
     }
 
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.Arrays;
+
+/**
+ * Single pass parser of a netfilter log line:
+ *
+ * <pre>
+ * Oct 23 09:25:49 host kernel: IN=eth0 OUT= MAC=... SRC=... DST=... ID=... PROTO=UDP SPT=137 DPT=137
+ * </pre>
+ *
+ * The line is scanned once, a key is recognised by its first characters and
+ * its value is recorded as a range in the line. Nothing is allocated until a
+ * value is asked for, so only the fields that are used are materialised. The
+ * tokens without a value (DF, SYN, ACK, ...) are collected as Flag bits.
+ *
+ * A key that occurs more than once keeps its first value: the IP header is
+ * logged before the transport header, so LEN is the length of the packet and
+ * not the UDP length that follows.
+ *
+ * A parser is reused for every line but must not be shared between threads.
+ */
+public final class LogLineParser {
+
+    /**
+     * Length of the syslog timestamp at the start of a line.
+     */
+    public static final int TIMESTAMP_LENGTH = 15;
+
+    /**
+     * Range of a field that is not in the line.
+     */
+    public static final long ABSENT = -1L;
+
+    /**
+     * The recognised fields.
+     */
+    public enum Field {
+        IN("IN="), OUT("OUT="), MAC("MAC="), SRC("SRC="), DST("DST="), LEN("LEN="), TOS("TOS="), PREC("PREC="),
+        TTL("TTL="), ID("ID="), PROTO("PROTO="), SPT("SPT="), DPT("DPT="), MARK("MARK=");
+
+        private final String key;
+
+        Field(final String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * The IP (CE, DF, MF) and TCP flags logged as a bare token.
+     */
+    public enum Flag {
+        CE, DF, MF, CWR, ECE, URG, ACK, PSH, RST, SYN, FIN;
+
+        private final int mask = 1 << ordinal();
+
+        /**
+         * @param flags the flag bits.
+         * @return true when this flag is set.
+         */
+        public boolean isSet(final int flags) {
+            return (flags & mask) != 0;
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+    private static final Flag[] FLAGS = Flag.values();
+    // the fields by the first character of their key
+    private static final Field[][] BY_FIRST_CHAR = new Field['Z' + 1][];
+
+    static {
+        for (Field field : FIELDS) {
+            final char first = field.key.charAt(0);
+            final Field[] candidates = BY_FIRST_CHAR[first] == null ? new Field[0] : BY_FIRST_CHAR[first];
+            BY_FIRST_CHAR[first] = Arrays.copyOf(candidates, candidates.length + 1);
+            BY_FIRST_CHAR[first][candidates.length] = field;
+        }
+    }
+
+    private final long[] ranges = new long[FIELDS.length];
+    private int flags;
+    private CharSequence line;
+
+    /**
+     * Parses a line, the line is referenced until the next parse.
+     *
+     * @param line the line.
+     * @return false when the line is too short to hold a timestamp.
+     */
+    public boolean parse(final CharSequence line) {
+        this.line = line;
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = ABSENT;
+        }
+        flags = 0;
+        final int length = line.length();
+        if (length < TIMESTAMP_LENGTH) {
+            return false;
+        }
+        int i = TIMESTAMP_LENGTH;
+        while (i < length) {
+            if (line.charAt(i) == ' ') {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < length && line.charAt(end) != ' ') {
+                end++;
+            }
+            final Field field = match(line, i, end);
+            if (field != null) {
+                if (ranges[field.ordinal()] == ABSENT) {
+                    ranges[field.ordinal()] = range(i + field.key.length(), end);
+                }
+            } else if (end - i <= 3) {
+                flags |= flag(line, i, end);
+            }
+            i = end + 1;
+        }
+        return true;
+    }
+
+    /*
+     * Recognise the key of the token from its first character, then verify
+     * the complete key including the '='. Kept small enough to be inlined.
+     */
+    private static Field match(final CharSequence line, final int start, final int end) {
+        final char first = line.charAt(start);
+        final Field[] candidates = first < BY_FIRST_CHAR.length ? BY_FIRST_CHAR[first] : null;
+        if (candidates != null) {
+            for (Field field : candidates) {
+                if (hasKey(line, start, end, field.key)) {
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The bit of the flag token, 0 when it is not a flag.
+     */
+    private static int flag(final CharSequence line, final int start, final int end) {
+        for (Flag flag : FLAGS) {
+            if (equals(flag.name(), line, start, end)) {
+                return flag.mask;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean equals(final String name, final CharSequence line, final int start, final int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (line.charAt(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasKey(final CharSequence line, final int start, final int end, final String key) {
+        if (end - start < key.length()) {
+            return false;
+        }
+        for (int i = 1; i < key.length(); i++) {
+            if (line.charAt(start + i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long range(final int start, final int end) {
+        return ((long) start << 32) | end;
+    }
+
+    /**
+     * @return the line parsed last.
+     */
+    public CharSequence getLine() {
+        return line;
+    }
+
+    /**
+     * @return the Flag bits of the line parsed last.
+     */
+    public int flags() {
+        return flags;
+    }
+
+    public boolean has(final Field field) {
+        return ranges[field.ordinal()] != ABSENT;
+    }
+
+    /**
+     * @param field the field.
+     * @return the range of the value packed in a long (start in the high,
+     * end in the low 32 bits), ABSENT when not in the line.
+     */
+    public long range(final Field field) {
+        return ranges[field.ordinal()];
+    }
+
+    public int start(final Field field) {
+        return (int) (ranges[field.ordinal()] >>> 32);
+    }
+
+    public int end(final Field field) {
+        return (int) ranges[field.ordinal()];
+    }
+
+    /**
+     * @param field the field.
+     * @return the value, "" when not in the line.
+     */
+    public String value(final Field field) {
+        return value(line, ranges[field.ordinal()]);
+    }
+
+    /**
+     * @return the timestamp at the start of the line.
+     */
+    public String timestamp() {
+        return value(line, range(0, TIMESTAMP_LENGTH));
+    }
+
+    /**
+     * Materialises a value recorded by a parser.
+     *
+     * @param line the parsed line.
+     * @param range the packed range.
+     * @return the value, "" when absent.
+     */
+    public static String value(final CharSequence line, final long range) {
+        if (range == ABSENT) {
+            return "";
+        }
+        final int start = (int) (range >>> 32);
+        final int end = (int) range;
+        if (start == end) {
+            return "";
+        }
+        if (line instanceof String) {
+            return ((String) line).substring(start, end);
+        }
+        return line.subSequence(start, end).toString();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Interns a small set of names (interfaces, protocols) as short ids, so an
+ * entry stores two bytes instead of a reference to its own String.
+ *
+ * Lookups scan an immutable snapshot of the names without locking or
+ * allocating, new names are added under a lock. Id 0 is the empty name. When
+ * the table is full every new name gets OVERFLOW, formatted as "?".
+ */
+public final class NameTable {
+
+    private static final Logger LOGGER = Logger.getLogger(NameTable.class.getName());
+
+    /**
+     * Id of the names that did not fit.
+     */
+    public static final short OVERFLOW = -1;
+
+    private final String description;
+    private final int capacity;
+    private volatile String[] names = {""};
+    private boolean full;
+
+    /**
+     * @param description what the names are, for logging.
+     * @param capacity the maximum number of names, at most Short.MAX_VALUE.
+     */
+    public NameTable(final String description, final int capacity) {
+        this.description = description;
+        this.capacity = Math.min(capacity, Short.MAX_VALUE);
+    }
+
+    /**
+     * @param line the text holding the name.
+     * @param start start of the name.
+     * @param end end of the name.
+     * @return the id of the name.
+     */
+    public short id(final CharSequence line, final int start, final int end) {
+        final short id = find(names, line, start, end);
+        return id == OVERFLOW ? add(line, start, end) : id;
+    }
+
+    /**
+     * @param name the name.
+     * @return the id of the name.
+     */
+    public short id(final String name) {
+        return id(name, 0, name.length());
+    }
+
+    /**
+     * @param name the name.
+     * @return the id of the name, OVERFLOW when it is not in the table.
+     */
+    public short find(final String name) {
+        return find(names, name, 0, name.length());
+    }
+
+    /**
+     * @param id an id handed out by this table.
+     * @return the name.
+     */
+    public String name(final short id) {
+        final String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : "?";
+    }
+
+    private static short find(final String[] names, final CharSequence line, final int start, final int end) {
+        final int length = end - start;
+        for (int id = 0; id < names.length; id++) {
+            final String name = names[id];
+            if (name.length() == length && equals(name, line, start)) {
+                return (short) id;
+            }
+        }
+        return OVERFLOW;
+    }
+
+    private static boolean equals(final String name, final CharSequence line, final int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != line.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized short add(final CharSequence line, final int start, final int end) {
+        final String[] current = names;
+        final short id = find(current, line, start, end);
+        if (id != OVERFLOW) {
+            // added by another thread
+            return id;
+        }
+        if (current.length >= capacity) {
+            if (!full) {
+                full = true;
+                LOGGER.warning(() -> String.format("More than %d %s, new ones are shown as ?", capacity, description));
+            }
+            return OVERFLOW;
+        }
+        final String[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = line.subSequence(start, end).toString();
+        names = next;
+        return (short) current.length;
+    }
+}
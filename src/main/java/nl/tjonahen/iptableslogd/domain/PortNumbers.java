@@ -16,30 +16,128 @@
  */
 package nl.tjonahen.iptableslogd.domain;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Locale;
+import java.io.InputStream;
+import java.util.BitSet;
 import java.util.Properties;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import nl.tjonahen.cdi.value.Value;
 
 /**
- * PortNumbers is a singleton to determine if a port number is known (has a description), if we can ignore it, or if it
+ * PortNumbers is a singleton to determine if a port number is known (has a description) or if it
  * is a known attack vector.
  *
+ * The descriptions of portnumbers.properties are loaded once in an array per
+ * protocol, indexed by port number and holding the formatted description. A
+ * lookup by port and encoded protocol is two array reads. A portNumbers file
+ * adds to or overrides the built in descriptions, it is checked for changes
+ * every portNumbersReload seconds and reloaded without stopping lookups.
+ *
  * @author Philippe Tjon-A-Hen
  *
  */
 @Singleton
 public final class PortNumbers {
 
+    private static final Logger LOGGER = Logger.getLogger(PortNumbers.class.getName());
+
+    private static final int PROTOCOLS = 256;
+    private static final int PORTS = 65536;
+
+    @Inject
+    @Value(key = "portNumbers", value = "")
+    private String file;
+
+    @Inject
+    @Value(key = "portNumbersReload", value = "30")
+    private int reloadInterval;
 
-    // read known portnumbers from properties file.
-    private final Properties properties = new Properties();
+    private volatile Descriptions descriptions;
+    private long lastModified;
+    private ScheduledExecutorService reloadTimer;
 
     private PortNumbers() throws IOException {
-        properties.load(this.getClass().getResourceAsStream(
-                "portnumbers.properties"));
+        descriptions = load(null);
+    }
+
+    // a PortNumbers with an external file, without the reload timer
+    PortNumbers(final String file) throws IOException {
+        this();
+        this.file = file;
+        reload();
+    }
+
+    @PostConstruct
+    public void setup() {
+        if (file == null || file.isEmpty()) {
+            return;
+        }
+        reload();
+        if (reloadInterval > 0) {
+            reloadTimer = Executors.newSingleThreadScheduledExecutor((r) -> {
+                final Thread thread = new Thread(r, "port-numbers-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloadTimer.scheduleWithFixedDelay(this::reload, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        if (reloadTimer != null) {
+            reloadTimer.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads the descriptions again when the portNumbers file changed since it
+     * was last loaded. When it can not be read the current descriptions are
+     * kept.
+     *
+     * @return true when the descriptions were replaced.
+     */
+    public synchronized boolean reload() {
+        final File external = new File(file);
+        final long modified = external.lastModified();
+        if (modified == lastModified) {
+            return false;
+        }
+        try {
+            descriptions = load(external);
+            lastModified = modified;
+            LOGGER.info(() -> String.format("Loaded port numbers from %s", external));
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to load port numbers from " + external + ", keeping the current ones ", e);
+            return false;
+        }
+    }
+
+    private Descriptions load(final File external) throws IOException {
+        // read known portnumbers from properties file.
+        final Properties properties = new Properties();
+        try (InputStream in = PortNumbers.class.getResourceAsStream("portnumbers.properties")) {
+            properties.load(in);
+        }
+        if (external != null && external.exists()) {
+            try (InputStream in = new FileInputStream(external)) {
+                properties.load(in);
+            }
+        }
+        final Descriptions result = new Descriptions();
+        properties.stringPropertyNames().forEach((key) -> result.add(key, properties.getProperty(key)));
+        return result;
     }
 
     /**
@@ -50,56 +148,64 @@ public final class PortNumbers {
      * @return
      */
     public String getDescription(String portNumber, String protocol) {
-        String key = portNumber + "/" + protocol.toLowerCase(Locale.getDefault());
-        if (properties.containsKey(key)) {
-            return "(" + portNumber + ") " + properties.get(key);
+        final int port = parsePort(portNumber);
+        if (port == -2) {
+            return portNumber;
         }
-        return portNumber;
-    }
-
-    // these portnumbers can be ignored.
-    private static final Set<String> IGNORABLE_SET = new TreeSet<String>();
-
-    static {
-        IGNORABLE_SET.add("67");
-        IGNORABLE_SET.add("68");
-        IGNORABLE_SET.add("137");
-        IGNORABLE_SET.add("138");
-        IGNORABLE_SET.add("139");
+        return getDescription(port, Protocols.parse(protocol));
     }
 
     /**
-     * Can we ignore packages coming from or going to the given port.
+     * Get the port/protocol description without allocating.
      *
-     * @param port
-     * @return
+     * @param port the port, -1 when there is none.
+     * @param protocol the encoded protocol.
+     * @return the description, or the port number when it has none.
      */
-    public boolean canIgnorePort(String port) {
-        if (port == null) {
-            return false;
+    public String getDescription(final int port, final short protocol) {
+        final Descriptions current = descriptions;
+        if (protocol >= 0 && protocol < PROTOCOLS) {
+            final String description;
+            if (port < 0) {
+                description = current.withoutPort[protocol];
+            } else {
+                final String[] byPort = current.byProtocol[protocol];
+                description = byPort == null ? null : byPort[port];
+            }
+            if (description != null) {
+                return description;
+            }
         }
-        return IGNORABLE_SET.contains(port);
+        return port < 0 ? "" : LogEntry.port((char) port);
+    }
+
+    /**
+     * @param entry the entry.
+     * @return the description of the destination port of the entry.
+     */
+    public String getDescription(final LogEntry entry) {
+        return getDescription(entry.getDestinationPortNumber(), entry.protocolCode());
     }
 
     // these portnumbers are known attack ports
-    private static final Set<String> ATTACK_SET = new TreeSet<String>();
+    private static final BitSet ATTACK_SET = new BitSet(PORTS);
 
     static {
-        ATTACK_SET.add("21"); // FTP
-        ATTACK_SET.add("23"); // TELNET
-        ATTACK_SET.add("25"); // SMTP
-        ATTACK_SET.add("80"); // HTTP
-        ATTACK_SET.add("110"); // POP3
-        ATTACK_SET.add("135");
-        ATTACK_SET.add("139"); // Scan for NETBIOS suspectability (port 139)
-        ATTACK_SET.add("445"); // Scan for Windows file sharing suspectability (port 445)
-        ATTACK_SET.add("8080"); // Scan for firewall remote login (port 8080)
-        ATTACK_SET.add("3389"); // Microsoft Remote Desktop vulnerable (port 3389)
-        ATTACK_SET.add("5900"); // VNC Remote Desktop vulnerable (port 5900)
-        ATTACK_SET.add("1723"); // VPN (PPTP) service open/vulnerable (port 1723)
-        ATTACK_SET.add("1433"); // Microsoft SQL Server open/vulnerable (port 1433)
-        ATTACK_SET.add("1521"); // Oracle database service open/vulnerable (port 1521)
-        ATTACK_SET.add("3306"); // MySQL database open/vulnerable (port 3306)
+        ATTACK_SET.set(21); // FTP
+        ATTACK_SET.set(23); // TELNET
+        ATTACK_SET.set(25); // SMTP
+        ATTACK_SET.set(80); // HTTP
+        ATTACK_SET.set(110); // POP3
+        ATTACK_SET.set(135);
+        ATTACK_SET.set(139); // Scan for NETBIOS suspectability (port 139)
+        ATTACK_SET.set(445); // Scan for Windows file sharing suspectability (port 445)
+        ATTACK_SET.set(8080); // Scan for firewall remote login (port 8080)
+        ATTACK_SET.set(3389); // Microsoft Remote Desktop vulnerable (port 3389)
+        ATTACK_SET.set(5900); // VNC Remote Desktop vulnerable (port 5900)
+        ATTACK_SET.set(1723); // VPN (PPTP) service open/vulnerable (port 1723)
+        ATTACK_SET.set(1433); // Microsoft SQL Server open/vulnerable (port 1433)
+        ATTACK_SET.set(1521); // Oracle database service open/vulnerable (port 1521)
+        ATTACK_SET.set(3306); // MySQL database open/vulnerable (port 3306)
 
     }
 
@@ -110,10 +216,69 @@ public final class PortNumbers {
      * @return
      */
     public boolean isKnownAttackPort(String port) {
-        if (port == null) {
-            return false;
+        return isKnownAttackPort(parsePort(port));
+    }
+
+    /**
+     * Is the port a known vector of attack.
+     *
+     * @param port the port, -1 when there is none.
+     * @return
+     */
+    public boolean isKnownAttackPort(final int port) {
+        return port >= 0 && ATTACK_SET.get(port);
+    }
+
+    /*
+     * The port number, -1 for an empty or null port, -2 when it is not a port
+     * number.
+     */
+    private static int parsePort(final String port) {
+        if (port == null || port.isEmpty()) {
+            return -1;
+        }
+        if (port.length() > 5) {
+            return -2;
         }
-        return ATTACK_SET.contains(port);
+        int number = 0;
+        for (int i = 0; i < port.length(); i++) {
+            final char c = port.charAt(i);
+            if (c < '0' || c > '9') {
+                return -2;
+            }
+            number = number * 10 + c - '0';
+        }
+        return number < PORTS ? number : -2;
     }
 
+    /**
+     * The formatted descriptions, by encoded protocol and port. Replaced as a
+     * whole on reload.
+     */
+    private static final class Descriptions {
+
+        private final String[][] byProtocol = new String[PROTOCOLS][];
+        private final String[] withoutPort = new String[PROTOCOLS];
+
+        // a key is port/protocol, the port is empty for a protocol without ports
+        void add(final String key, final String description) {
+            final int slash = key.lastIndexOf('/');
+            if (slash < 0) {
+                return;
+            }
+            final int port = parsePort(key.substring(0, slash));
+            final short protocol = Protocols.parse(key.substring(slash + 1));
+            if (port == -2 || protocol < 0 || protocol >= PROTOCOLS) {
+                return;
+            }
+            if (port < 0) {
+                withoutPort[protocol] = "() " + description;
+            } else {
+                if (byProtocol[protocol] == null) {
+                    byProtocol[protocol] = new String[PORTS];
+                }
+                byProtocol[protocol][port] = "(" + port + ") " + description;
+            }
+        }
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.Arrays;
+
+/**
+ * Detects port scans: a source that sends to threshold or more distinct
+ * destination ports within a sliding window.
+ *
+ * The window is divided in WHEEL_SLOTS ticks, a port seen by a source is
+ * stamped with the tick it was last seen in and expires after WHEEL_SLOTS
+ * ticks. A source keeps at most threshold ports, once all of them are in use
+ * within the window the source is scanning.
+ *
+ * The sources are kept in an open addressing table of fixed capacity. A new
+ * source takes an empty or expired slot among the first MAX_PROBES slots of
+ * its hash, when there is none the least recently seen source is evicted. A
+ * packet costs at most MAX_PROBES + threshold steps, whatever the number of
+ * sources.
+ *
+ * Not thread safe, all packets are handled by a single thread. The window and
+ * threshold can be changed from any thread, a change takes effect with the
+ * next packet and clears the table. The threshold is at most MAX_THRESHOLD.
+ */
+public final class PortScanDetector {
+
+    private static final int WHEEL_SLOTS = 8;
+    private static final int MAX_PROBES = 8;
+    private static final int PORT_BITS = 16;
+    private static final int PORT_MASK = (1 << PORT_BITS) - 1;
+    private static final int MAX_THRESHOLD = 32;
+
+    private final int mask;
+    private final int shift;
+    private final long[] keys;
+    // the tick a source was last seen, 0 for an empty slot
+    private final long[] lastSeen;
+
+    private volatile Settings settings;
+    private Settings applied;
+    private long tickMillis;
+    private int threshold;
+    // threshold ports per source, the tick shifted left of the port, 0 when unused
+    private long[] ports;
+    private int sources;
+    private long evictions;
+
+    /**
+     * @param capacity the maximum number of sources tracked, rounded up to a
+     * power of two.
+     * @param window the window in milliseconds.
+     * @param threshold the number of distinct destination ports within the
+     * window that is a port scan.
+     */
+    public PortScanDetector(final int capacity, final long window, final int threshold) {
+        final int size = Integer.highestOneBit(Math.max(MAX_PROBES, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.shift = Long.numberOfLeadingZeros(size) + 1;
+        this.keys = new long[size];
+        this.lastSeen = new long[size];
+        this.settings = new Settings(window, threshold);
+        apply(settings);
+    }
+
+    /**
+     * Changes the window and threshold. The table is only cleared when one of
+     * them actually changes.
+     *
+     * @param window the window in milliseconds.
+     * @param threshold the number of distinct destination ports.
+     */
+    public void configure(final long window, final int threshold) {
+        final Settings next = new Settings(window, threshold);
+        if (!next.isSame(settings)) {
+            settings = next;
+        }
+    }
+
+    /**
+     * Registers a packet and tells whether its source is scanning.
+     *
+     * @param source the key of the source address.
+     * @param port the destination port.
+     * @param time the time the packet was logged, in epoch milliseconds.
+     * @return true when the source sent to threshold or more distinct ports
+     * within the window, this packet included.
+     */
+    public boolean isScan(final long source, final int port, final long time) {
+        final Settings current = settings;
+        if (current != applied) {
+            apply(current);
+        }
+        final long tick = Math.max(0, time) / tickMillis + 1;
+        final int base = slot(source, tick) * threshold;
+        final long stamp = tick << PORT_BITS | port & PORT_MASK;
+        int distinct = 0;
+        int free = -1;
+        boolean seen = false;
+        for (int i = base; i < base + threshold; i++) {
+            final long p = ports[i];
+            if (p == 0 || tick - (p >>> PORT_BITS) >= WHEEL_SLOTS) {
+                ports[i] = 0;
+                if (free < 0) {
+                    free = i;
+                }
+            } else {
+                distinct++;
+                if ((int) (p & PORT_MASK) == (port & PORT_MASK)) {
+                    ports[i] = Math.max(p, stamp);
+                    seen = true;
+                }
+            }
+        }
+        if (!seen && free >= 0) {
+            ports[free] = stamp;
+            distinct++;
+        }
+        return distinct >= threshold;
+    }
+
+    /**
+     * @return the number of sources in the table.
+     */
+    public int getSources() {
+        return sources;
+    }
+
+    /**
+     * @return the number of sources evicted to make room for a new one.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /*
+     * Find the slot of the source, or claim one for it.
+     */
+    private int slot(final long source, final long tick) {
+        final int hash = (int) ((source * 0x9E3779B97F4A7C15L) >>> shift);
+        int victim = -1;
+        long oldest = Long.MAX_VALUE;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int index = (hash + probe) & mask;
+            final long seen = lastSeen[index];
+            if (seen != 0 && keys[index] == source) {
+                lastSeen[index] = Math.max(seen, tick);
+                return index;
+            }
+            // an expired source holds no ports, its slot is as good as empty
+            final long age = seen == 0 || tick - seen >= WHEEL_SLOTS ? Long.MIN_VALUE : seen;
+            if (age < oldest) {
+                oldest = age;
+                victim = index;
+            }
+        }
+        if (lastSeen[victim] == 0) {
+            sources++;
+        } else if (oldest != Long.MIN_VALUE) {
+            evictions++;
+        }
+        keys[victim] = source;
+        lastSeen[victim] = tick;
+        final int base = victim * threshold;
+        for (int i = base; i < base + threshold; i++) {
+            ports[i] = 0;
+        }
+        return victim;
+    }
+
+    private void apply(final Settings settings) {
+        applied = settings;
+        tickMillis = settings.tickMillis;
+        threshold = settings.threshold;
+        ports = new long[keys.length * threshold];
+        Arrays.fill(lastSeen, 0);
+        sources = 0;
+    }
+
+    private static final class Settings {
+
+        private final long tickMillis;
+        private final int threshold;
+
+        Settings(final long window, final int threshold) {
+            this.tickMillis = Math.max(1, window / WHEEL_SLOTS);
+            this.threshold = Math.max(1, Math.min(MAX_THRESHOLD, threshold));
+        }
+
+        boolean isSame(final Settings other) {
+            return tickMillis == other.tickMillis && threshold == other.threshold;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+/**
+ * Encodes the PROTO field as a short: the IANA protocol number (0-255), or a
+ * NameTable id above 255 for a name that is not known. The kernel logs a name
+ * for the protocols below and the number for all others.
+ */
+public final class Protocols {
+
+    /**
+     * No PROTO field.
+     */
+    public static final short NONE = -1;
+
+    private static final int NAMED = 256;
+    private static final String[] NAMES = new String[NAMED];
+    private static final String[] NUMBERS = new String[NAMED];
+    private static final NameTable OTHERS = new NameTable("protocol names", 1024);
+
+    static {
+        NAMES[1] = "ICMP";
+        // logged as a number, shown as Internet Group Management Protocol
+        NAMES[2] = "IGMP";
+        NAMES[6] = "TCP";
+        NAMES[17] = "UDP";
+        NAMES[33] = "DCCP";
+        NAMES[58] = "ICMPv6";
+        NAMES[132] = "SCTP";
+        NAMES[136] = "UDPLITE";
+        for (int i = 0; i < NAMED; i++) {
+            NUMBERS[i] = Integer.toString(i);
+        }
+    }
+
+    private Protocols() {
+    }
+
+    /**
+     * @param text the text.
+     * @param start start of the protocol.
+     * @param end end of the protocol.
+     * @return the encoded protocol.
+     */
+    public static short encode(final CharSequence text, final int start, final int end) {
+        if (start == end) {
+            return NONE;
+        }
+        final int number = number(text, start, end);
+        if (number >= 0) {
+            return (short) number;
+        }
+        for (int i = 0; i < NAMED; i++) {
+            if (NAMES[i] != null && matches(NAMES[i], text, start, end)) {
+                return (short) i;
+            }
+        }
+        final short id = OTHERS.id(text, start, end);
+        return id == NameTable.OVERFLOW ? NONE : (short) (NAMED + id);
+    }
+
+    /**
+     * Encodes a protocol as it is written in configuration, the names are
+     * matched ignoring case.
+     *
+     * @param name the protocol name or number.
+     * @return the encoded protocol.
+     */
+    public static short parse(final String name) {
+        for (int i = 0; i < NAMED; i++) {
+            if (NAMES[i] != null && NAMES[i].equalsIgnoreCase(name)) {
+                return (short) i;
+            }
+        }
+        return encode(name, 0, name.length());
+    }
+
+    /**
+     * @param protocol the encoded protocol.
+     * @return the name, the number when it has no name, "" for NONE.
+     */
+    public static String name(final short protocol) {
+        if (protocol == NONE) {
+            return "";
+        } else if (protocol < NAMED) {
+            return NAMES[protocol] == null ? NUMBERS[protocol] : NAMES[protocol];
+        }
+        return OTHERS.name((short) (protocol - NAMED));
+    }
+
+    private static int number(final CharSequence text, final int start, final int end) {
+        if (end - start > 3) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + c - '0';
+        }
+        return number < NAMED ? number : -1;
+    }
+
+    private static boolean matches(final String name, final CharSequence text, final int start, final int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
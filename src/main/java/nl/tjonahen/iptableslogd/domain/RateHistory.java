@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import nl.tjonahen.iptableslogd.collection.SnapshotCache;
+import nl.tjonahen.iptableslogd.collection.TimeBuckets;
+
+/**
+ * Number of entries logged over time, per second for the last 5 minutes, per
+ * minute for the last 24 hours and per hour for the last 30 days. Besides the
+ * total there is a series per protocol and per IN interface, up to a maximum
+ * number of series. The memory used is fixed, it does not grow with the time
+ * the daemon runs.
+ *
+ * Entries are counted in the bucket of the time they were logged, an entry
+ * older than the oldest bucket is only counted at the coarser resolutions that
+ * still hold it.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class RateHistory {
+
+    /**
+     * The resolutions kept.
+     */
+    public enum Resolution {
+        SECONDS("second", TimeUnit.SECONDS.toMillis(1), 300),
+        MINUTES("minute", TimeUnit.MINUTES.toMillis(1), 1440),
+        HOURS("hour", TimeUnit.HOURS.toMillis(1), 720);
+
+        private final String unit;
+        private final long millis;
+        private final int buckets;
+
+        Resolution(final String unit, final long millis, final int buckets) {
+            this.unit = unit;
+            this.millis = millis;
+            this.buckets = buckets;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public int getBuckets() {
+            return buckets;
+        }
+    }
+
+    /**
+     * The series of all entries.
+     */
+    public static final int ALL = 0;
+
+    private static final int PROTOCOL = 1 << 16;
+    private static final int INTERFACE = 2 << 16;
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final TimeBuckets[] buckets = new TimeBuckets[RESOLUTIONS.length];
+    // the key (kind | id) and name of each series
+    private final int[] keys;
+    private final String[] names;
+    private int used = 1;
+
+    private final SnapshotCache<Snapshot> snapshots = new SnapshotCache<>(this::copy);
+
+    /**
+     * @param series the maximum number of series, including the total.
+     */
+    public RateHistory(final int series) {
+        final int size = Math.max(1, series);
+        for (Resolution resolution : RESOLUTIONS) {
+            buckets[resolution.ordinal()] = new TimeBuckets(resolution.millis, resolution.buckets, size);
+        }
+        keys = new int[size];
+        names = new String[size];
+        names[ALL] = "all";
+    }
+
+    /**
+     * Counts the entries, entries without a valid time are skipped.
+     *
+     * @param entries the entries.
+     */
+    public synchronized void add(final List<LogEntry> entries) {
+        for (LogEntry entry : entries) {
+            final long time = entry.getTime();
+            if (time <= 0) {
+                continue;
+            }
+            final short protocol = entry.protocolCode();
+            final short in = entry.interfaceId(0);
+            final int protocolSeries = protocol == Protocols.NONE ? -1 : series(PROTOCOL | protocol & 0xFFFF);
+            final int inSeries = in <= 0 ? -1 : series(INTERFACE | in);
+            for (TimeBuckets ring : buckets) {
+                final int slot = ring.slot(time);
+                if (slot < 0) {
+                    continue;
+                }
+                ring.add(ALL, slot, 1);
+                if (protocolSeries > 0) {
+                    ring.add(protocolSeries, slot, 1);
+                }
+                if (inSeries > 0) {
+                    ring.add(inSeries, slot, 1);
+                }
+            }
+        }
+        if (!entries.isEmpty()) {
+            snapshots.changed();
+        }
+    }
+
+    /*
+     * The series of a key, a new series while there is room, -1 when full.
+     */
+    private int series(final int key) {
+        for (int i = 1; i < used; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        if (used == keys.length) {
+            return -1;
+        }
+        keys[used] = key;
+        names[used] = (key & INTERFACE) != 0
+                ? "in " + LogEntry.interfaceName((short) (key & 0xFFFF))
+                : Protocols.name((short) (key & 0xFFFF));
+        return used++;
+    }
+
+    /**
+     * @return a copy of the rates.
+     */
+    public Snapshot snapshot() {
+        return snapshots.get();
+    }
+
+    private synchronized Snapshot copy() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Immutable copy of the rates, the series of every resolution end at the
+     * bucket of the latest entry.
+     */
+    public static final class Snapshot {
+
+        private final long end;
+        private final List<String> names;
+        private final Map<Resolution, long[][]> counts = new EnumMap<>(Resolution.class);
+
+        private Snapshot(final RateHistory history) {
+            final TimeBuckets finest = history.buckets[0];
+            this.end = finest.getLatest() == Long.MIN_VALUE ? 0 : finest.getLatest();
+            this.names = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(history.names).subList(0, history.used)));
+            for (Resolution resolution : RESOLUTIONS) {
+                final TimeBuckets ring = history.buckets[resolution.ordinal()];
+                final long[][] series = new long[history.used][];
+                for (int s = 0; s < history.used; s++) {
+                    series[s] = ring.counts(s, end);
+                }
+                counts.put(resolution, series);
+            }
+        }
+
+        /**
+         * @return the start of the latest second counted, 0 when nothing was
+         * counted.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the name of each series, ALL first.
+         */
+        public List<String> getNames() {
+            return names;
+        }
+
+        /**
+         * @param resolution the resolution.
+         * @param series the series, an index in getNames().
+         * @return the counts per bucket, oldest first. The caller must not
+         * modify the array.
+         */
+        public long[] getCounts(final Resolution resolution, final int series) {
+            return counts.get(resolution)[series];
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import nl.tjonahen.iptableslogd.collection.SnapshotCache;
+
+/**
+ * Rollup of the number of entries per source /24, destination port, protocol
+ * and IN interface. The four dimensions are packed in a long key:
+ *
+ * <pre>
+ *   63       40 39       23 22        12 11         0
+ *  | source /24 | port + 1 | protocol + 1 | interface |
+ * </pre>
+ *
+ * Sources other than IPv4 share the source value OTHER_SOURCES, an address in
+ * 255.255.255.0/24 is never a source.
+ *
+ * The keys and counts are kept in an open addressing table of fixed size. A
+ * new key takes an empty slot among the first MAX_PROBES slots of its hash,
+ * when there is none the key with the lowest count among them is evicted. An
+ * update does not allocate.
+ *
+ * Queries slice on any dimensions and drill down on one, they scan the table
+ * and not the entries. The dashboard queries a snapshot, a copy of the table,
+ * so a scan does not block the ingest.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class RollupCube {
+
+    /**
+     * The dimensions of the rollup.
+     */
+    public enum Dimension {
+        SOURCE(40, 24),
+        PORT(23, 17),
+        PROTOCOL(12, 11),
+        INTERFACE(0, 12);
+
+        private final int shift;
+        private final long mask;
+
+        Dimension(final int shift, final int bits) {
+            this.shift = shift;
+            this.mask = (1L << bits) - 1;
+        }
+
+        long value(final long key) {
+            return key >>> shift & mask;
+        }
+    }
+
+    /**
+     * The source value of all sources that are not IPv4.
+     */
+    public static final int OTHER_SOURCES = 0xFFFFFF;
+
+    private static final long EMPTY = -1L;
+    private static final int MAX_PROBES = 8;
+
+    private final long[] keys;
+    private final long[] counts;
+    private final int mask;
+    private final int shift;
+    private int cells;
+    private long evicted;
+
+    private final SnapshotCache<RollupCube> snapshots;
+
+    /**
+     * @param capacity the number of cells, rounded up to a power of two.
+     */
+    public RollupCube(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(MAX_PROBES, capacity - 1)) << 1;
+        this.keys = new long[size];
+        this.counts = new long[size];
+        Arrays.fill(keys, EMPTY);
+        this.mask = size - 1;
+        this.shift = 64 - Integer.numberOfTrailingZeros(size);
+        this.snapshots = new SnapshotCache<>(this::copy);
+    }
+
+    private RollupCube(final RollupCube other) {
+        this.keys = other.keys.clone();
+        this.counts = other.counts.clone();
+        this.mask = other.mask;
+        this.shift = other.shift;
+        this.cells = other.cells;
+        this.evicted = other.evicted;
+        this.snapshots = new SnapshotCache<>(() -> this);
+    }
+
+    /**
+     * Counts the entries.
+     *
+     * @param entries the entries.
+     */
+    public synchronized void add(final List<LogEntry> entries) {
+        final int size = entries.size();
+        for (int i = 0; i < size; i++) {
+            counts[slot(key(entries.get(i)))]++;
+        }
+        if (size > 0) {
+            snapshots.changed();
+        }
+    }
+
+    /**
+     * A copy is not changed by later entries.
+     *
+     * @return the snapshot.
+     */
+    public RollupCube snapshot() {
+        return snapshots.get();
+    }
+
+    private synchronized RollupCube copy() {
+        return new RollupCube(this);
+    }
+
+    static long key(final LogEntry entry) {
+        final long source = entry.addressKind(0) == LogEntry.IPV4 ? entry.address4(0) >>> 8 : OTHER_SOURCES;
+        final int port = entry.getDestinationPortNumber();
+        final short protocol = entry.protocolCode();
+        final short in = entry.interfaceId(0);
+        return pack(source, port, protocol, in < 0 ? 0 : in);
+    }
+
+    private static long pack(final long source, final int port, final short protocol, final short in) {
+        return source << Dimension.SOURCE.shift
+                | (long) (port + 1) << Dimension.PORT.shift
+                | (long) (protocol + 1) << Dimension.PROTOCOL.shift
+                | in;
+    }
+
+    /*
+     * Find the slot of the key, or claim one for it.
+     */
+    private int slot(final long key) {
+        final int hash = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        int victim = -1;
+        long lowest = Long.MAX_VALUE;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            final int index = (hash + probe) & mask;
+            if (keys[index] == key) {
+                return index;
+            }
+            final long count = keys[index] == EMPTY ? -1 : counts[index];
+            if (count < lowest) {
+                lowest = count;
+                victim = index;
+            }
+        }
+        if (keys[victim] == EMPTY) {
+            cells++;
+        } else {
+            evicted += counts[victim];
+        }
+        keys[victim] = key;
+        counts[victim] = 0;
+        return victim;
+    }
+
+    /**
+     * @return a query over all cells.
+     */
+    public Query query() {
+        return new Query(this);
+    }
+
+    /**
+     * @return the number of cells in use.
+     */
+    public synchronized int getCells() {
+        return cells;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return the sum of the counts of the evicted cells, entries no longer in
+     * the rollup.
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @param dimension the dimension.
+     * @param value a value of the dimension.
+     * @return the value as text.
+     */
+    public static String format(final Dimension dimension, final long value) {
+        switch (dimension) {
+            case SOURCE:
+                return value == OTHER_SOURCES ? "other" : IpAddresses.format4((int) (value << 8)) + "/24";
+            case PORT:
+                return value == 0 ? "" : Long.toString(value - 1);
+            case PROTOCOL:
+                return Protocols.name((short) (value - 1));
+            default:
+                return LogEntry.interfaceName((short) value);
+        }
+    }
+
+    /**
+     * A slice of the rollup, the cells matching all values set. Not thread
+     * safe.
+     */
+    public static final class Query {
+
+        private final RollupCube cube;
+        private long mask;
+        private long match;
+        private boolean none;
+
+        private Query(final RollupCube cube) {
+            this.cube = cube;
+        }
+
+        private Query where(final Dimension dimension, final long value) {
+            if (value < 0 || value > dimension.mask) {
+                none = true;
+            }
+            mask |= dimension.mask << dimension.shift;
+            match |= (value & dimension.mask) << dimension.shift;
+            return this;
+        }
+
+        /**
+         * @param source an IPv4 address or /24 prefix, the last octet and a
+         * prefix length are ignored.
+         * @return this query.
+         */
+        public Query source(final String source) {
+            final int slash = source.indexOf('/');
+            final String address = slash < 0 ? source : source.substring(0, slash);
+            final long v4 = IpAddresses.parse4(address, 0, address.length());
+            return where(Dimension.SOURCE, v4 == IpAddresses.INVALID ? -1 : v4 >>> 8);
+        }
+
+        /**
+         * @param port the destination port.
+         * @return this query.
+         */
+        public Query port(final int port) {
+            return where(Dimension.PORT, port < 0 ? -1 : port + 1L);
+        }
+
+        /**
+         * @param protocol the protocol name or number.
+         * @return this query.
+         */
+        public Query protocol(final String protocol) {
+            final short code = Protocols.parse(protocol);
+            return where(Dimension.PROTOCOL, code == Protocols.NONE ? -1 : code + 1L);
+        }
+
+        /**
+         * @param name the IN interface name.
+         * @return this query.
+         */
+        public Query inInterface(final String name) {
+            final short id = LogEntry.interfaceId(name);
+            return where(Dimension.INTERFACE, id == NameTable.OVERFLOW ? -1 : id);
+        }
+
+        /**
+         * @return the number of entries in the slice.
+         */
+        public long count() {
+            if (none) {
+                return 0;
+            }
+            long result = 0;
+            synchronized (cube) {
+                for (int i = 0; i < cube.keys.length; i++) {
+                    if (cube.keys[i] != EMPTY && (cube.keys[i] & mask) == match) {
+                        result += cube.counts[i];
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @param dimension the dimension to drill down on.
+         * @param limit the maximum number of values.
+         * @return the values of the dimension in the slice with the most
+         * entries, highest count first.
+         */
+        public List<Cell> drillDown(final Dimension dimension, final int limit) {
+            if (none) {
+                return Collections.emptyList();
+            }
+            final Map<Long, Long> totals = new HashMap<>();
+            synchronized (cube) {
+                for (int i = 0; i < cube.keys.length; i++) {
+                    if (cube.keys[i] != EMPTY && (cube.keys[i] & mask) == match) {
+                        totals.merge(dimension.value(cube.keys[i]), cube.counts[i], Long::sum);
+                    }
+                }
+            }
+            final List<Cell> result = new ArrayList<>(totals.size());
+            totals.forEach((value, count) -> result.add(new Cell(dimension, value, count)));
+            result.sort((a, b) -> Long.compare(b.count, a.count));
+            return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+        }
+    }
+
+    /**
+     * A value of a dimension and its number of entries.
+     */
+    public static final class Cell {
+
+        private final Dimension dimension;
+        private final long value;
+        private final long count;
+
+        private Cell(final Dimension dimension, final long value, final long count) {
+            this.dimension = dimension;
+            this.value = value;
+            this.count = count;
+        }
+
+        public Dimension getDimension() {
+            return dimension;
+        }
+
+        /**
+         * @return the packed value of the dimension.
+         */
+        public long getValue() {
+            return value;
+        }
+
+        public String getLabel() {
+            return format(dimension, value);
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
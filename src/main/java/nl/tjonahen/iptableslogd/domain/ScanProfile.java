@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+/**
+ * The estimated number of distinct destination ports and addresses a source
+ * sent to, and the kind of scan that makes it.
+ *
+ */
+public final class ScanProfile {
+
+    /**
+     * The kind of scan.
+     */
+    public enum Kind {
+        /**
+         * Too few ports and addresses.
+         */
+        NONE("-"),
+        /**
+         * Many ports on few hosts.
+         */
+        VERTICAL("vertical"),
+        /**
+         * Few ports on many hosts.
+         */
+        HORIZONTAL("horizontal"),
+        /**
+         * Many ports on many hosts.
+         */
+        BLOCK("block");
+
+        private final String label;
+
+        Kind(final String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final long ports;
+    private final long destinations;
+    private final Kind kind;
+
+    /**
+     * @param ports estimated distinct destination ports.
+     * @param destinations estimated distinct destination addresses.
+     * @param threshold the number of distinct ports or addresses that makes a
+     * scan.
+     */
+    public ScanProfile(final long ports, final long destinations, final int threshold) {
+        this.ports = ports;
+        this.destinations = destinations;
+        this.kind = classify(ports >= threshold, destinations >= threshold);
+    }
+
+    private static Kind classify(final boolean manyPorts, final boolean manyDestinations) {
+        if (manyPorts) {
+            return manyDestinations ? Kind.BLOCK : Kind.VERTICAL;
+        }
+        return manyDestinations ? Kind.HORIZONTAL : Kind.NONE;
+    }
+
+    public long getPorts() {
+        return ports;
+    }
+
+    public long getDestinations() {
+        return destinations;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isScan() {
+        return kind != Kind.NONE;
+    }
+}
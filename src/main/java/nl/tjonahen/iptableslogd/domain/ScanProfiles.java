@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import nl.tjonahen.iptableslogd.collection.HyperLogLog;
+
+/**
+ * Distinct destination ports and addresses per source, estimated with
+ * HyperLogLog sketches. Only the most recently active sources are kept, when
+ * the table is full the least recently seen source is evicted.
+ *
+ * The estimates are bounded in time, so a long lived source that slowly
+ * reaches many ports (a resolver whose late replies hit random ephemeral
+ * ports) is not a scanner forever. Time, as logged by the entries, is divided
+ * in windows. A source has a sketch of the current window and one of the
+ * current and the previous window together, the profile is estimated from the
+ * latter. When a new window starts the sketches rotate, so a profile covers
+ * the last one to two windows.
+ *
+ * A source takes 4 * 2^PRECISION bytes of registers whatever the number of
+ * packets it sends, the estimates are within a few percent.
+ *
+ * Not thread safe, used from the collector thread.
+ */
+public final class ScanProfiles {
+
+    private static final int PRECISION = 8;
+
+    private final int threshold;
+    private final long window;
+    private final Map<Long, Sketches> sources;
+
+    /**
+     * @param capacity the maximum number of sources.
+     * @param threshold the number of distinct ports or addresses that makes a
+     * scan.
+     * @param window the length of a window in milliseconds.
+     */
+    public ScanProfiles(final int capacity, final int threshold, final long window) {
+        this.threshold = threshold;
+        this.window = Math.max(1, window);
+        this.sources = new LinkedHashMap<Long, Sketches>(2 * capacity, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Sketches> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Adds the destination of an entry to the sketches of its source.
+     *
+     * @param entry the entry.
+     * @return the profile of the source, this entry included.
+     */
+    public ScanProfile add(final LogEntry entry) {
+        final long epoch = Math.max(0, entry.getTime()) / window;
+        final Sketches sketches = sources.computeIfAbsent(entry.getSourceKey(), (key) -> new Sketches(epoch));
+        sketches.rotate(epoch);
+        final int port = entry.getDestinationPortNumber();
+        if (port >= 0) {
+            sketches.ports.add(port);
+        }
+        sketches.destinations.add(entry.getDestinationKey());
+        return sketches.profile(threshold);
+    }
+
+    /**
+     * @param entry an entry.
+     * @return the profile of the source of the entry, null when the source is
+     * not in the table.
+     */
+    public ScanProfile get(final LogEntry entry) {
+        final Sketches sketches = sources.get(entry.getSourceKey());
+        return sketches == null ? null : sketches.profile(threshold);
+    }
+
+    public int size() {
+        return sources.size();
+    }
+
+    /**
+     * The sketches of a source, each a Window of the current and the previous
+     * window.
+     */
+    private static final class Sketches {
+
+        private final Window ports = new Window();
+        private final Window destinations = new Window();
+        private long epoch;
+
+        Sketches(final long epoch) {
+            this.epoch = epoch;
+        }
+
+        /*
+         * Start a new window, a source silent for a whole window starts
+         * over. An entry logged out of order counts in the current window.
+         */
+        void rotate(final long now) {
+            if (now > epoch) {
+                ports.rotate(now == epoch + 1);
+                destinations.rotate(now == epoch + 1);
+                epoch = now;
+            }
+        }
+
+        ScanProfile profile(final int threshold) {
+            return new ScanProfile(ports.recent.estimate(), destinations.recent.estimate(), threshold);
+        }
+    }
+
+    private static final class Window {
+
+        // the values of the current window
+        private final HyperLogLog current = new HyperLogLog(PRECISION);
+        // the values of the current and the previous window
+        private final HyperLogLog recent = new HyperLogLog(PRECISION);
+
+        void add(final long value) {
+            current.add(value);
+            recent.add(value);
+        }
+
+        void rotate(final boolean keepCurrent) {
+            recent.clear();
+            if (keepCurrent) {
+                recent.merge(current);
+            }
+            current.clear();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import nl.tjonahen.iptableslogd.collection.RadixCounter;
+
+/**
+ * Counts the source addresses per prefix, in a RadixCounter for IPv4 and one
+ * for IPv6. A netblock spread over many addresses shows up as a busy prefix
+ * even when none of its addresses is a top host.
+ *
+ * @author Philippe Tjon-A-Hen
+ */
+public final class SourcePrefixes {
+
+    private final RadixCounter ipv4;
+    private final RadixCounter ipv6;
+
+    /**
+     * @param maxNodes the maximum number of nodes per address family.
+     */
+    public SourcePrefixes(final int maxNodes) {
+        this.ipv4 = new RadixCounter(32, maxNodes);
+        this.ipv6 = new RadixCounter(128, maxNodes);
+    }
+
+    /**
+     * Counts the source addresses of the entries.
+     *
+     * @param entries the entries.
+     */
+    public synchronized void add(final List<LogEntry> entries) {
+        final int size = entries.size();
+        for (int i = 0; i < size; i++) {
+            final LogEntry entry = entries.get(i);
+            final int kind = entry.addressKind(0);
+            if (kind == LogEntry.IPV4) {
+                ipv4.add((long) entry.address4(0) << 32, 0, 1);
+            } else if (kind == LogEntry.IPV6) {
+                ipv6.add(entry.address6(0, 0), entry.address6(0, 1), 1);
+            }
+        }
+    }
+
+    /**
+     * @param length the IPv4 prefix length.
+     * @param limit the maximum number of prefixes.
+     * @return the IPv4 prefixes with the most entries.
+     */
+    public synchronized List<RadixCounter.Prefix> top4(final int length, final int limit) {
+        return ipv4.top(length, limit);
+    }
+
+    /**
+     * @param length the IPv6 prefix length.
+     * @param limit the maximum number of prefixes.
+     * @return the IPv6 prefixes with the most entries.
+     */
+    public synchronized List<RadixCounter.Prefix> top6(final int length, final int limit) {
+        return ipv6.top(length, limit);
+    }
+
+    /**
+     * @param share the minimum share of the entries of an address family.
+     * @return the hierarchical heavy hitters of both families, highest count
+     * first.
+     */
+    public synchronized List<RadixCounter.Prefix> heavyHitters(final double share) {
+        final List<RadixCounter.Prefix> result = new ArrayList<>(ipv4.heavyHitters(share));
+        result.addAll(ipv6.heavyHitters(share));
+        result.sort(Comparator.comparingLong(RadixCounter.Prefix::getCount).reversed());
+        return result;
+    }
+
+    /**
+     * @param prefix a prefix returned by this object.
+     * @return the prefix as text, address/length.
+     */
+    public static String format(final RadixCounter.Prefix prefix) {
+        final String address = prefix.getWidth() == 128
+                ? IpAddresses.format6(prefix.getHigh(), prefix.getLow())
+                : IpAddresses.format4((int) (prefix.getHigh() >>> 32));
+        return address + "/" + prefix.getLength();
+    }
+}
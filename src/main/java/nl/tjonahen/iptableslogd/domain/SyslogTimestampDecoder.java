@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the syslog timestamp at the start of a log line ("Oct 23 09:25:49",
+ * the day padded with a space) to epoch milliseconds in the local time zone.
+ *
+ * The timestamp has no year. The year used is the one that puts the timestamp
+ * closest before now, allowing it to be up to a day ahead for clock skew. So
+ * December lines read in January are from last year, and a line from just
+ * after midnight on New Year read just before it is from next year.
+ *
+ * The epoch of the last minute decoded is cached, consecutive lines of the same
+ * minute only compare the prefix and add the seconds. The decoder is thread
+ * safe, the cache is an immutable object replaced as a whole.
+ */
+public final class SyslogTimestampDecoder {
+
+    /**
+     * Length of a syslog timestamp.
+     */
+    public static final int LENGTH = 15;
+
+    /**
+     * Decoded value of an invalid timestamp, 1 jan 1970.
+     */
+    public static final long INVALID = 0L;
+
+    // "MMM dd HH:mm", the part that is cached
+    private static final int MINUTE_LENGTH = 12;
+    private static final long MAX_AHEAD = TimeUnit.DAYS.toMillis(1);
+
+    private final Clock clock;
+    private volatile Minute cache = new Minute("", INVALID);
+
+    public SyslogTimestampDecoder() {
+        this(Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param clock determines now and the time zone.
+     */
+    public SyslogTimestampDecoder(final Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param line a line starting with a syslog timestamp.
+     * @return the epoch milliseconds, INVALID when it is not a timestamp.
+     */
+    public long decode(final CharSequence line) {
+        if (line.length() < LENGTH || line.charAt(MINUTE_LENGTH) != ':') {
+            return INVALID;
+        }
+        final int seconds = digits(line, 13);
+        if (seconds < 0 || seconds > 59) {
+            return INVALID;
+        }
+        Minute minute = cache;
+        if (!minute.matches(line)) {
+            minute = new Minute(line.subSequence(0, MINUTE_LENGTH).toString(), decodeMinute(line));
+            cache = minute;
+        }
+        return minute.epoch == INVALID ? INVALID : minute.epoch + TimeUnit.SECONDS.toMillis(seconds);
+    }
+
+    private long decodeMinute(final CharSequence line) {
+        final int month = month(line);
+        final int day = line.charAt(4) == ' ' ? digits(line, 5, 1) : digits(line, 4);
+        final int hour = digits(line, 7);
+        final int minute = digits(line, 10);
+        if (month < 0 || day < 0 || hour < 0 || minute < 0 || line.charAt(3) != ' ' || line.charAt(6) != ' ' || line.charAt(9) != ':') {
+            return INVALID;
+        }
+        final long now = clock.millis();
+        final int year = LocalDateTime.now(clock).getYear();
+        long result = INVALID;
+        // the latest candidate that is not too far ahead of now
+        for (int candidate = year - 1; candidate <= year + 1; candidate++) {
+            final long epoch = epoch(candidate, month, day, hour, minute);
+            if (epoch != INVALID && epoch <= now + MAX_AHEAD) {
+                result = epoch;
+            }
+        }
+        return result;
+    }
+
+    private long epoch(final int year, final int month, final int day, final int hour, final int minute) {
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute).atZone(clock.getZone()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            // 29 feb in a year that is not a leap year, or an invalid day
+            return INVALID;
+        }
+    }
+
+    private static int month(final CharSequence line) {
+        final char a = line.charAt(0);
+        final char b = line.charAt(1);
+        final char c = line.charAt(2);
+        switch (a) {
+            case 'J':
+                return b == 'a' && c == 'n' ? 1 : b == 'u' && c == 'n' ? 6 : b == 'u' && c == 'l' ? 7 : -1;
+            case 'F':
+                return b == 'e' && c == 'b' ? 2 : -1;
+            case 'M':
+                return b == 'a' && c == 'r' ? 3 : b == 'a' && c == 'y' ? 5 : -1;
+            case 'A':
+                return b == 'p' && c == 'r' ? 4 : b == 'u' && c == 'g' ? 8 : -1;
+            case 'S':
+                return b == 'e' && c == 'p' ? 9 : -1;
+            case 'O':
+                return b == 'c' && c == 't' ? 10 : -1;
+            case 'N':
+                return b == 'o' && c == 'v' ? 11 : -1;
+            case 'D':
+                return b == 'e' && c == 'c' ? 12 : -1;
+            default:
+                return -1;
+        }
+    }
+
+    private static int digits(final CharSequence line, final int start) {
+        return digits(line, start, 2);
+    }
+
+    private static int digits(final CharSequence line, final int start, final int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + c - '0';
+        }
+        return result;
+    }
+
+    /**
+     * The epoch of the start of a minute, identified by its timestamp prefix.
+     */
+    private static final class Minute {
+
+        private final String prefix;
+        private final long epoch;
+
+        Minute(final String prefix, final long epoch) {
+            this.prefix = prefix;
+            this.epoch = epoch;
+        }
+
+        boolean matches(final CharSequence line) {
+            if (prefix.length() != MINUTE_LENGTH) {
+                return false;
+            }
+            for (int i = MINUTE_LENGTH - 1; i >= 0; i--) {
+                // compare backwards, the minute changes most often
+                if (prefix.charAt(i) != line.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -16,28 +16,45 @@
  */
 package nl.tjonahen.iptableslogd.input;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.Destroyed;
 import javax.enterprise.context.Initialized;
-import javax.enterprise.event.Event;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import nl.tjonahen.cdi.value.Value;
-import nl.tjonahen.iptableslogd.domain.LogEntry;
 
 import nl.tjonahen.iptableslogd.jmx.Configuration;
+import nl.tjonahen.iptableslogd.pipeline.LogEntryPipeline;
 
 /**
- * Auto started or self started CDI bean, Uses CDI events to notify all
- * observers of new LogEntry events.
+ * Auto started or self started CDI bean, tails the configured log files and
+ * publishes new LogEntry objects in the LogEntryPipeline.
+ *
+ * Every file source is tailed by its own LogFileTailer, all of them polled on
+ * a shared scheduler. The directories of the files are watched using a
+ * WatchService (inotify on Linux), a change wakes the tailer of the file so
+ * new lines are picked up as soon as they are written. Between changes the
+ * poll interval backs off while the file is idle, this also covers file
+ * systems that do not report changes.
  *
  * @author Philippe Tjon - A - Hen philippe@tjonahen.nl
  */
@@ -47,163 +64,172 @@ public class IPTablesLogHandler {
     private static final Logger LOGGER = Logger.getLogger(IPTablesLogHandler.class.getName());
 
     @Inject
-    @Value(key = "ulog", value = "/var/log/ulogd.syslogemu")
-    private String configUlog;
+    private LogSources logSources;
+
+    @Inject
+    @Value(key = "backfill", value = "true")
+    private String backfill;
 
-    private String ulog;
-    private File file;
+    @Inject
+    @Value(key = "readerThreads", value = "2")
+    private int readerThreads;
 
     @Inject
-    private Event<LogEntry> logEntryEvent;
+    private LogEntryPipeline pipeline;
 
-    private long last; // The last time the file was checked for changes
-    private long position; // position within the file
-    private boolean forceStop = false;
+    private final List<LogFileTailer> tailers = new CopyOnWriteArrayList<>();
+    private final Map<LogFileTailer, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> watchKeys = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private WatchService watchService;
+    private volatile boolean forceStop = false;
 
     /**
      * This method is called when this applicationScoped bean is initialized It
-     * performs post construct initialization and starts the reader thread.
+     * performs post construct initialization and starts a tailer for each file
+     * source.
      *
      * @param init -
      */
     public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
-        new Thread(this::run).start();
+        final List<LogSource> files = logSources.getFiles();
+        if (files.isEmpty()) {
+            return;
+        }
+        scheduler = Executors.newScheduledThreadPool(Math.max(1, Math.min(readerThreads, files.size())), (r) -> {
+            final Thread thread = new Thread(r, "log-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchService = openWatchService();
+        for (LogSource source : files) {
+            final LogFileTailer tailer = new LogFileTailer(source.getId(), source.getFile(),
+                    logSources.getCheckpoint(source), Boolean.parseBoolean(backfill), pipeline::publish);
+            tailers.add(tailer);
+            watchDirectory(tailer.getFile());
+            schedule(tailer, 0);
+        }
+        if (watchService != null) {
+            final Thread watcher = new Thread(this::watch, "log-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
     }
 
     public void destroy(@Observes @Destroyed(ApplicationScoped.class) Object init) {
-        forceStop = true;
+        stop();
     }
 
-    private void run() {
-        setLogFile(configUlog);
-
-        try {
-            last = 0;
-            position = 0;
-            BufferedReader reader = openReader();
-            while (canContinue()) {
-                if (isRotated()) {
-                    reader = rotateReader(reader);
-                    continue;
-                } else if (resetFile()) {
-                    setLogFile(configUlog);
-                    reader = openReader();
-                } else {
-                    processNewLines(reader);
-                }
-                sleepQuietly();
+    private synchronized void stop() {
+        if (forceStop) {
+            return;
+        }
+        forceStop = true;
+        closeQuietly(watchService);
+        tailers.forEach(LogFileTailer::stop);
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-
-        } catch (IOException e) {
-            throw new IllegalStateException("Unable to read log " + ulog, e);
         }
-        LOGGER.info(() -> "Stop reading log " + ulog);
+        tailers.forEach(LogFileTailer::close);
     }
 
-    private void setLogFile(String ulog) {
-        LOGGER.info(() -> "Start reading log " + ulog);
-        this.ulog = ulog;
-        this.file = new File(ulog);
-    }
-
-    private boolean isRotated() {
-        return file.length() < position;
-    }
-
-    private boolean resetFile() {
-        return !ulog.equals(configUlog);
+    private void schedule(final LogFileTailer tailer, final long delay) {
+        if (canContinue()) {
+            scheduled.put(tailer, scheduler.schedule(() -> poll(tailer), delay, TimeUnit.MILLISECONDS));
+        }
     }
 
-    private void processNewLines(BufferedReader reader) throws IOException {
-        if (isMoreDataAvailable()) {
-            last = System.currentTimeMillis();
-            position = readLines(reader);
-        } else if (isFileNewer()) {
-
-            /* This can happen if the file is truncated or overwritten
-            * with the exact same length of information. In cases like
-            * this, the file position needs to be reset
-             */
-            position = 0;
-
-            // Now we can read new lines
-            last = System.currentTimeMillis();
-            position = readLines(reader);
+    private void poll(final LogFileTailer tailer) {
+        long delay = LogFileTailer.MAX_POLL_INTERVAL;
+        try {
+            delay = tailer.poll();
+            // a directory that could not be watched, or was deleted
+            watchDirectory(tailer.getFile());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Reading log " + tailer.getFile() + " failed ", e);
+        }
+        if (delay >= 0) {
+            schedule(tailer, delay);
         }
     }
 
-    private boolean isMoreDataAvailable() {
-        return file.length() > position;
+    /*
+     * Poll the tailer now, unless it is already running.
+     */
+    private void wakeUp(final LogFileTailer tailer) {
+        tailer.changed();
+        final ScheduledFuture<?> next = scheduled.get(tailer);
+        if (next != null && next.cancel(false)) {
+            schedule(tailer, 0);
+        }
     }
 
-    private BufferedReader rotateReader(final BufferedReader oldReader) {
-        LOGGER.info("File was rotated... ");
+    private WatchService openWatchService() {
         try {
-            final BufferedReader reader = new BufferedReader(new FileReader(file));
-            position = 0;
-            closeQuietly(oldReader);
-            return reader;
-        } catch (FileNotFoundException e) {
-            LOGGER.log(Level.SEVERE, "File not found ", e);
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.log(Level.WARNING, "No watch service available, falling back to polling ", e);
+            return null;
         }
-        return oldReader;
     }
 
-    private BufferedReader openReader() throws IOException {
-        // Open the file
-        BufferedReader reader = null;
-        while (reader == null) {
-            try {
-                reader = new BufferedReader(new FileReader(file));
-            } catch (FileNotFoundException e) {
-                LOGGER.log(Level.SEVERE, "File not found ", e);
-            }
-            if (reader == null) {
-                sleepQuietly();
-            } else {
-                // The current position in the file (aka  start)
-                position = 0;
-                last = System.currentTimeMillis();
-            }
+    /*
+     * Watch the directory, not the file itself. A rotated log is replaced by a
+     * new file which would not be reported on a watch of the old one.
+     */
+    private void watchDirectory(final File file) {
+        if (watchService == null) {
+            return;
         }
-        return reader;
-    }
-
-    private void sleepQuietly() {
-        if (canContinue()) {
+        final Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        watchKeys.computeIfAbsent(dir, (d) -> {
             try {
-                TimeUnit.SECONDS.sleep(10);
-            } catch (InterruptedException e) {
-                // do nothing. suppress exceptions
+                return d.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException | ClosedWatchServiceException e) {
+                LOGGER.log(Level.WARNING, "Unable to watch " + d + ", falling back to polling ", e);
+                return null;
             }
-        }
+        });
     }
 
-    private long readLines(final BufferedReader reader) throws IOException {
-        String line = reader.readLine();
-        while (line != null) {
-            LOGGER.log(Level.FINE, "input: {0}", line);
-            logEntryEvent.fire(new LogEntry(line));
-            if (!canContinue()) {
-                return file.length();
+    private void watch() {
+        try {
+            while (canContinue()) {
+                final WatchKey key = watchService.take();
+                final Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    final boolean overflow = event.kind() == StandardWatchEventKinds.OVERFLOW;
+                    tailers.stream()
+                            .filter((t) -> isInDirectory(t, dir) && (overflow || t.getFile().getName().equals(String.valueOf(event.context()))))
+                            .forEach(this::wakeUp);
+                }
+                if (!key.reset()) {
+                    // directory is gone, the tailers poll until it is back
+                    watchKeys.remove(dir);
+                }
             }
-            line = reader.readLine();
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // do nothing. stopped
         }
-        return file.length();
     }
 
-    private boolean isFileNewer() {
-        if (!file.exists()) {
-            return false;
-        }
-        return file.lastModified() > last;
+    private static boolean isInDirectory(final LogFileTailer tailer, final Path dir) {
+        return dir.equals(tailer.getFile().getAbsoluteFile().getParentFile().toPath());
     }
 
-    private void closeQuietly(final BufferedReader raFile) {
-        if (raFile != null) {
+    private void closeQuietly(final AutoCloseable closeable) {
+        if (closeable != null) {
             try {
-                raFile.close();
-            } catch (IOException e) {
+                closeable.close();
+            } catch (Exception e) {
                 // do nothing. suppress exceptions
             }
         }
@@ -212,8 +238,16 @@ public class IPTablesLogHandler {
     public void update(final @Observes Configuration c) {
         LOGGER.info(() -> String.format("Update received from %s", c.getClass().getName()));
 
-        configUlog = c.getUlog();
-        forceStop = !c.canContinue();
+        tailers.stream()
+                .filter((t) -> LogSources.ULOG.equals(t.getSourceId()) && !t.getFile().getPath().equals(c.getUlog()))
+                .forEach((t) -> {
+                    t.setFile(new File(c.getUlog()));
+                    watchDirectory(t.getFile());
+                    wakeUp(t);
+                });
+        if (!c.canContinue()) {
+            stop();
+        }
     }
 
     private boolean canContinue() {
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.util.Locale;
+
+/**
+ * Where the netfilter log is read from, configured with the input key.
+ */
+public enum InputMode {
+    /**
+     * Tail the ulogd syslogemu file.
+     */
+    FILE,
+    /**
+     * Receive syslog messages.
+     */
+    SYSLOG,
+    /**
+     * Both of the above.
+     */
+    BOTH;
+
+    public boolean isFile() {
+        return this != SYSLOG;
+    }
+
+    public boolean isSyslog() {
+        return this != FILE;
+    }
+
+    /**
+     * @param name file, syslog or both.
+     * @return the input mode.
+     */
+    public static InputMode of(final String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Reads complete lines from a growing log file using a FileChannel.
+ *
+ * The position is the byte offset directly after the last complete line handed
+ * out. A trailing line that is not yet terminated by a newline is left in the
+ * file and read again on the next call, once it is complete.
+ */
+public final class LogFileReader implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(LogFileReader.class.getName());
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final ByteBuffer view;
+    private final byte[] line;
+    private final String fileKey;
+    private long position;
+
+    /**
+     * Opens the given file for reading, starting at position 0.
+     *
+     * @param file the log file.
+     * @throws IOException when the file can not be opened.
+     */
+    public LogFileReader(final File file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens the given file for reading, starting at position 0.
+     *
+     * @param file the log file.
+     * @param bufferSize size of the read buffer, also the maximum line length.
+     * @throws IOException when the file can not be opened.
+     */
+    public LogFileReader(final File file, final int bufferSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileKey = fileKeyOf(file);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.view = buffer.duplicate();
+        this.line = new byte[bufferSize];
+    }
+
+    private static String fileKeyOf(final File file) {
+        try {
+            return ReadCheckpoint.fileKey(file.toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the file key (device and inode on Linux) of the file as it was
+     * when opened, null when not supported.
+     */
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public void setPosition(final long position) {
+        this.position = position;
+    }
+
+    /**
+     * @return the current size of the opened file.
+     * @throws IOException -
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Reads all complete lines from the current position up to the end of the
+     * file.
+     *
+     * @param handler receives each line without line terminator, returns false
+     * to stop reading.
+     * @return the number of lines read.
+     * @throws IOException -
+     */
+    public int readLines(final Predicate<String> handler) throws IOException {
+        int count = 0;
+        buffer.clear();
+        while (channel.read(buffer, position + buffer.position()) > 0) {
+            buffer.flip();
+            final int limit = buffer.limit();
+            int start = 0;
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    count++;
+                    position += i + 1 - start;
+                    final boolean more = handler.test(decode(start, i));
+                    start = i + 1;
+                    if (!more) {
+                        return count;
+                    }
+                }
+            }
+            if (start == 0 && limit == buffer.capacity()) {
+                LOGGER.warning(() -> String.format("Line at %d exceeds %d bytes, splitting it.", position, limit));
+                count++;
+                position += limit;
+                start = limit;
+                if (!handler.test(decode(0, limit))) {
+                    return count;
+                }
+            }
+            // keep the partial line at the start of the buffer
+            buffer.position(start);
+            buffer.compact();
+        }
+        return count;
+    }
+
+    /**
+     * Reads the rest of the file as one line, for the last line of a file that
+     * is no longer written to and does not end with a newline.
+     *
+     * @return the line without line terminator, null at the end of the file.
+     * @throws IOException -
+     */
+    public String readUnterminatedLine() throws IOException {
+        buffer.clear();
+        int read = 0;
+        while (read >= 0 && buffer.hasRemaining()) {
+            read = channel.read(buffer, position + buffer.position());
+        }
+        final int length = buffer.position();
+        if (length == 0) {
+            return null;
+        }
+        position += length;
+        return decode(0, length);
+    }
+
+    private String decode(final int start, final int end) {
+        int length = end - start;
+        if (length > 0 && buffer.get(end - 1) == '\r') {
+            length--;
+        }
+        view.limit(start + length).position(start);
+        view.get(line, 0, length);
+        return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nl.tjonahen.iptableslogd.domain.LogEntry;
+
+/**
+ * Tails a single log file. Each call to poll reads what was added since the
+ * previous call and returns the delay until the next, the caller schedules
+ * the polls.
+ *
+ * The delay is adaptive, it backs off while the file is idle. A change
+ * reported by a WatchService resets it.
+ */
+public final class LogFileTailer {
+
+    private static final Logger LOGGER = Logger.getLogger(LogFileTailer.class.getName());
+
+    static final long MIN_POLL_INTERVAL = 25L;
+    static final long MAX_POLL_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    private static final int MAX_LINES = 1024;
+
+    private final String sourceId;
+    private final Path checkpoint;
+    private final boolean backfill;
+    private final Consumer<List<LogEntry>> publisher;
+
+    private volatile File file;
+    private volatile File newFile;
+    private volatile boolean changed;
+    private volatile boolean stopped;
+
+    private LogFileReader reader;
+    private boolean started;
+    private long lastCheckpoint; // The last time the read position was stored
+    private long pollInterval = MIN_POLL_INTERVAL;
+    private List<LogEntry> entries = new ArrayList<>();
+
+    /**
+     * @param sourceId the source id of the entries.
+     * @param file the log file.
+     * @param checkpoint the checkpoint file, null for none.
+     * @param backfill read the rotated logs before the file itself, unless
+     * the checkpoint shows the file was read before.
+     * @param publisher receives the entries read, in order.
+     */
+    public LogFileTailer(final String sourceId, final File file, final Path checkpoint, final boolean backfill, final Consumer<List<LogEntry>> publisher) {
+        this.sourceId = sourceId;
+        this.file = file;
+        this.checkpoint = checkpoint;
+        this.backfill = backfill;
+        this.publisher = publisher;
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    public File getFile() {
+        return newFile == null ? file : newFile;
+    }
+
+    /**
+     * Switches to another log file on the next poll.
+     *
+     * @param file the new log file.
+     */
+    public void setFile(final File file) {
+        this.newFile = file;
+        this.changed = true;
+    }
+
+    /**
+     * Called when the file is reported changed, the next delay returned is
+     * the minimum.
+     */
+    public void changed() {
+        changed = true;
+    }
+
+    /**
+     * Reads the new lines.
+     *
+     * @return the delay in milliseconds until the next poll, negative when
+     * stopped.
+     */
+    public synchronized long poll() {
+        changed = false;
+        if (stopped) {
+            return -1;
+        }
+        boolean read = false;
+        try {
+            if (!started) {
+                started = true;
+                LOGGER.info(() -> "Start reading log " + file);
+                if (backfill && !hasCheckpoint()) {
+                    new RotatedLogBackfill(file, sourceId, publisher, () -> !stopped).run();
+                }
+                read = openReader();
+            } else if (newFile != null) {
+                storeCheckpoint();
+                closeReader();
+                file = newFile;
+                newFile = null;
+                LOGGER.info(() -> "Start reading log " + file);
+                read = openReader();
+            } else if (reader == null) {
+                read = openReader();
+            } else if (isRotated()) {
+                read = rotateReader();
+            } else {
+                read = processNewLines();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to read log " + file, e);
+            storeCheckpoint();
+            closeReader();
+        }
+        pollInterval = read || changed ? MIN_POLL_INTERVAL : Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+        return pollInterval;
+    }
+
+    private boolean openReader() {
+        try {
+            reader = new LogFileReader(file);
+            // The current position in the file (aka  start)
+            reader.setPosition(resumePosition());
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to open log ", e);
+            return false;
+        }
+    }
+
+    /*
+     * A truncated or replaced file is read from the start. A newer modification
+     * time alone does not mean that, it is also set by an append that landed
+     * while the previous lines were read.
+     */
+    private boolean isRotated() {
+        return file.length() < reader.getPosition() || !Objects.equals(reader.getFileKey(), currentFileKey());
+    }
+
+    private String currentFileKey() {
+        try {
+            return ReadCheckpoint.fileKey(file.toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean rotateReader() throws IOException {
+        LOGGER.info(() -> "File was rotated... " + file);
+        final LogFileReader newReader;
+        try {
+            newReader = new LogFileReader(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to open log ", e);
+            return false;
+        }
+        // the old channel still points to the rotated file, read what is left of it
+        readLines();
+        closeReader();
+        reader = newReader;
+        return true;
+    }
+
+    private boolean processNewLines() throws IOException {
+        if (isMoreDataAvailable()) {
+            readLines();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isMoreDataAvailable() {
+        return file.length() > reader.getPosition();
+    }
+
+    /*
+     * Publish in blocks of at most MAX_LINES entries so a large backlog is not
+     * held in memory at once.
+     */
+    private void readLines() throws IOException {
+        int count;
+        do {
+            count = reader.readLines(this::addLine);
+            if (!entries.isEmpty()) {
+                publisher.accept(entries);
+                entries = new ArrayList<>();
+            }
+        } while (count > 0 && !stopped);
+        if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+            storeCheckpoint();
+        }
+    }
+
+    private boolean addLine(final String line) {
+        LOGGER.log(Level.FINE, "input: {0}", line);
+        try {
+            entries.add(new LogEntry(line, sourceId));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Skip invalid line: {0}", line);
+        }
+        return entries.size() < MAX_LINES && !stopped;
+    }
+
+    /*
+     * A checkpoint of the live file means the rotated logs were read before,
+     * reading them again would count their entries twice.
+     */
+    private boolean hasCheckpoint() {
+        if (checkpoint == null) {
+            return false;
+        }
+        try {
+            final ReadCheckpoint stored = ReadCheckpoint.load(checkpoint);
+            return stored != null && stored.getFileKey() != null && stored.getFileKey().equals(currentFileKey());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read checkpoint ", e);
+            return false;
+        }
+    }
+
+    /*
+     * Continue from the stored checkpoint when it still matches the log file,
+     * otherwise read the file from the start.
+     */
+    private long resumePosition() {
+        if (checkpoint == null) {
+            return 0;
+        }
+        try {
+            final ReadCheckpoint stored = ReadCheckpoint.load(checkpoint);
+            if (stored != null) {
+                final long offset = stored.resumeOffset(file.toPath());
+                LOGGER.info(() -> offset == 0
+                        ? String.format("Checkpoint %s does not match %s, reading from start", stored, file)
+                        : String.format("Resume reading from checkpoint %s", stored));
+                return offset;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read checkpoint ", e);
+        }
+        return 0;
+    }
+
+    private void storeCheckpoint() {
+        if (checkpoint == null || reader == null) {
+            return;
+        }
+        lastCheckpoint = System.currentTimeMillis();
+        try {
+            final ReadCheckpoint current = ReadCheckpoint.of(file.toPath(), reader.getPosition());
+            // a rotation that is not yet handled, the position belongs to the old file
+            if (Objects.equals(current.getFileKey(), reader.getFileKey())) {
+                current.store(checkpoint);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to store checkpoint ", e);
+        }
+    }
+
+    /**
+     * Stops reading, a running poll ends after its current block of lines.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Stores the checkpoint and closes the file, waits for a running poll.
+     */
+    public synchronized void close() {
+        stopped = true;
+        storeCheckpoint();
+        closeReader();
+        LOGGER.info(() -> "Stop reading log " + file);
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // do nothing. suppress exceptions
+            }
+            reader = null;
+        }
+    }
+}
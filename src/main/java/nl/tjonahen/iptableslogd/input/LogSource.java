@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A configured log source, a log file to tail or a socket to receive syslog
+ * messages on. The id is carried on every LogEntry read from it.
+ *
+ * Sources are configured as a comma separated list of [id=]location, the
+ * location is a file path, udp://host:port or tcp://host:port:
+ *
+ * <pre>
+ * fw1=/var/log/fw1/ulogd.syslogemu,fw2=udp://0.0.0.0:5140
+ * </pre>
+ */
+public final class LogSource {
+
+    /**
+     * The kind of source.
+     */
+    public enum Type {
+        FILE, UDP, TCP
+    }
+
+    private final String id;
+    private final Type type;
+    private final String location;
+
+    public LogSource(final String id, final Type type, final String location) {
+        this.id = id;
+        this.type = type;
+        this.location = location;
+    }
+
+    /**
+     * Parses a list of sources. The ids must be unique, they name the
+     * checkpoint file and the statistics of a source.
+     *
+     * @param sources the comma separated sources.
+     * @return the sources, empty when none are given.
+     * @throws IllegalArgumentException on an invalid source or a duplicate id.
+     */
+    public static List<LogSource> parse(final String sources) {
+        final List<LogSource> result = new ArrayList<>();
+        final Set<String> ids = new HashSet<>();
+        for (String source : sources.split(",")) {
+            if (!source.trim().isEmpty()) {
+                final LogSource parsed = parseSource(source.trim());
+                if (!ids.add(parsed.getId())) {
+                    throw new IllegalArgumentException("Duplicate log source id " + parsed.getId()
+                            + " in " + source.trim() + ", give the source an id with id=location");
+                }
+                result.add(parsed);
+            }
+        }
+        return result;
+    }
+
+    private static LogSource parseSource(final String source) {
+        final int separator = source.indexOf('=');
+        final String location = separator < 0 ? source : source.substring(separator + 1).trim();
+        final String scheme = location.contains("://") ? location.substring(0, location.indexOf("://")).toUpperCase(Locale.ROOT) : "";
+        final Type type;
+        if ("UDP".equals(scheme) || "TCP".equals(scheme)) {
+            type = Type.valueOf(scheme);
+        } else if (scheme.isEmpty()) {
+            type = Type.FILE;
+        } else {
+            throw new IllegalArgumentException("Unknown log source " + source);
+        }
+        final String id;
+        if (separator > 0) {
+            id = source.substring(0, separator).trim();
+        } else if (type == Type.FILE) {
+            id = new File(location).getName();
+        } else {
+            id = location.substring(location.indexOf("://") + 3);
+        }
+        return new LogSource(id, type, location);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the file of a FILE source.
+     */
+    public File getFile() {
+        return new File(location);
+    }
+
+    /**
+     * @return the address of a UDP or TCP source.
+     */
+    public InetSocketAddress getAddress() {
+        final URI uri = URI.create(location);
+        if (uri.getHost() == null || uri.getPort() < 0) {
+            throw new IllegalArgumentException("Invalid address in log source " + location);
+        }
+        return new InetSocketAddress(uri.getHost(), uri.getPort());
+    }
+
+    @Override
+    public String toString() {
+        return id + "=" + location;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import nl.tjonahen.cdi.value.Value;
+
+/**
+ * The configured log sources. When no sources are configured they are derived
+ * from the input, ulog and syslog settings: the "ulog" file source and/or the
+ * "syslog" socket sources.
+ */
+@Singleton
+public class LogSources {
+
+    private static final Logger LOGGER = Logger.getLogger(LogSources.class.getName());
+
+    /**
+     * Id of the file source configured with ulog, it follows
+     * Configuration.setUlog.
+     */
+    public static final String ULOG = "ulog";
+
+    @Inject
+    @Value(key = "sources", value = "")
+    private String sources;
+
+    @Inject
+    @Value(key = "input", value = "file")
+    private String input;
+
+    @Inject
+    @Value(key = "ulog", value = "/var/log/ulogd.syslogemu")
+    private String ulog;
+
+    @Inject
+    @Value(key = "syslogAddress", value = "0.0.0.0")
+    private String syslogAddress;
+
+    @Inject
+    @Value(key = "syslogUdpPort", value = "514")
+    private int syslogUdpPort;
+
+    @Inject
+    @Value(key = "syslogTcpPort", value = "0")
+    private int syslogTcpPort;
+
+    @Inject
+    @Value(key = "checkpoint", value = "iptableslogd.checkpoint")
+    private String checkpoint;
+
+    private List<LogSource> all;
+
+    @PostConstruct
+    public void setup() {
+        all = LogSource.parse(sources);
+        if (all.isEmpty()) {
+            all = new ArrayList<>();
+            final InputMode mode = InputMode.of(input);
+            if (mode.isFile()) {
+                all.add(new LogSource(ULOG, LogSource.Type.FILE, ulog));
+            }
+            if (mode.isSyslog() && syslogUdpPort > 0) {
+                all.add(new LogSource("syslog", LogSource.Type.UDP, "udp://" + address(syslogUdpPort)));
+            }
+            if (mode.isSyslog() && syslogTcpPort > 0) {
+                all.add(new LogSource("syslog", LogSource.Type.TCP, "tcp://" + address(syslogTcpPort)));
+            }
+        }
+        all = Collections.unmodifiableList(all);
+        LOGGER.info(() -> "Log sources " + all);
+    }
+
+    private String address(final int port) {
+        // an IPv6 address is bracketed in a URI
+        return (syslogAddress.contains(":") ? "[" + syslogAddress + "]" : syslogAddress) + ":" + port;
+    }
+
+    public List<LogSource> getSources() {
+        return all;
+    }
+
+    public List<LogSource> getFiles() {
+        return all.stream().filter((s) -> s.getType() == LogSource.Type.FILE).collect(Collectors.toList());
+    }
+
+    public List<LogSource> getSockets() {
+        return all.stream().filter((s) -> s.getType() != LogSource.Type.FILE).collect(Collectors.toList());
+    }
+
+    /**
+     * The ulog source keeps the checkpoint file as configured, other file
+     * sources get their id appended to it.
+     *
+     * @param source a file source.
+     * @return the checkpoint file of the source, null when disabled.
+     */
+    public Path getCheckpoint(final LogSource source) {
+        if (checkpoint == null || checkpoint.isEmpty()) {
+            return null;
+        }
+        return Paths.get(ULOG.equals(source.getId()) ? checkpoint : checkpoint + "." + source.getId());
+    }
+}
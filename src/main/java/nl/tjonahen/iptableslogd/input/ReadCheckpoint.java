@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * The position up to which a log file has been read, identified by the file key
+ * (device and inode on Linux) so a restart can continue where it stopped.
+ */
+public final class ReadCheckpoint {
+
+    private static final String FILE = "file";
+    private static final String FILE_KEY = "fileKey";
+    private static final String OFFSET = "offset";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private final String file;
+    private final String fileKey;
+    private final long offset;
+    private final long lastModified;
+
+    public ReadCheckpoint(final String file, final String fileKey, final long offset, final long lastModified) {
+        this.file = file;
+        this.fileKey = fileKey;
+        this.offset = offset;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Creates the checkpoint for the given position in a log file.
+     *
+     * @param log the log file.
+     * @param offset the byte offset read up to.
+     * @return the checkpoint.
+     * @throws IOException when the file attributes can not be read.
+     */
+    public static ReadCheckpoint of(final Path log, final long offset) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(log, BasicFileAttributes.class);
+        return new ReadCheckpoint(log.toString(), fileKey(attributes), offset, attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * @param log the log file.
+     * @return the file key of the log or null when the file system has none.
+     * @throws IOException when the file attributes can not be read.
+     */
+    public static String fileKey(final Path log) throws IOException {
+        return fileKey(Files.readAttributes(log, BasicFileAttributes.class));
+    }
+
+    private static String fileKey(final BasicFileAttributes attributes) {
+        return attributes.fileKey() == null ? null : attributes.fileKey().toString();
+    }
+
+    /**
+     * Loads a stored checkpoint.
+     *
+     * @param checkpoint the checkpoint file.
+     * @return the checkpoint, or null if there is none.
+     * @throws IOException when the checkpoint can not be read.
+     */
+    public static ReadCheckpoint load(final Path checkpoint) throws IOException {
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpoint)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            return new ReadCheckpoint(properties.getProperty(FILE),
+                    properties.getProperty(FILE_KEY),
+                    Long.parseLong(properties.getProperty(OFFSET, "0")),
+                    Long.parseLong(properties.getProperty(LAST_MODIFIED, "0")));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint " + checkpoint, e);
+        }
+    }
+
+    /**
+     * Stores this checkpoint, the file is replaced atomically so a crash never
+     * leaves a half written checkpoint.
+     *
+     * @param checkpoint the checkpoint file.
+     * @throws IOException when the checkpoint can not be written.
+     */
+    public void store(final Path checkpoint) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(FILE, file);
+        if (fileKey != null) {
+            properties.setProperty(FILE_KEY, fileKey);
+        }
+        properties.setProperty(OFFSET, Long.toString(offset));
+        properties.setProperty(LAST_MODIFIED, Long.toString(lastModified));
+
+        final Path parent = checkpoint.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path tmp = Files.createTempFile(parent, checkpoint.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, "iptableslogd read checkpoint");
+            }
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Determines the offset to resume reading the given log from. This is the
+     * stored offset only when the log is still the same file and has not been
+     * truncated or overwritten since, otherwise it is 0.
+     *
+     * @param log the log file.
+     * @return the resume offset.
+     * @throws IOException when the file attributes can not be read.
+     */
+    public long resumeOffset(final Path log) throws IOException {
+        final ReadCheckpoint current = of(log, Files.size(log));
+        if (!Objects.equals(file, current.file)
+                || !Objects.equals(fileKey, current.fileKey)
+                || current.offset < offset
+                || current.lastModified < lastModified) {
+            return 0;
+        }
+        if (current.offset == offset && current.lastModified != lastModified) {
+            // rewritten with exactly the same length
+            return 0;
+        }
+        return offset;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%s] @ %d", file, fileKey, offset);
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import nl.tjonahen.iptableslogd.domain.LogEntry;
+
+/**
+ * Reads the rotated siblings of a log file (ulogd.syslogemu.1,
+ * ulogd.syslogemu.2.gz, ...) before the live log is tailed.
+ *
+ * Large files are split in line aligned chunks which are parsed in parallel on
+ * a fork join pool, compressed files are read in blocks of lines of the same
+ * size. Only a few chunks are pending at any time. The parsed chunks are
+ * handed to the consumer one by one, oldest file first and in file order, so
+ * observers that depend on the order of the entries (the port scan detection)
+ * see them chronologically.
+ */
+public final class RotatedLogBackfill {
+
+    private static final Logger LOGGER = Logger.getLogger(RotatedLogBackfill.class.getName());
+
+    private static final long CHUNK_SIZE = 4L * 1024 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 1024;
+
+    private final File log;
+    private final String sourceId;
+    private final Consumer<List<LogEntry>> consumer;
+    private final BooleanSupplier canContinue;
+    private final long chunkSize;
+
+    /**
+     * @param log the live log file, its rotated siblings are read.
+     * @param sourceId the source id of the entries.
+     * @param consumer receives the parsed chunks in chronological order.
+     * @param canContinue stops the backfill when it returns false.
+     */
+    public RotatedLogBackfill(final File log, final String sourceId, final Consumer<List<LogEntry>> consumer, final BooleanSupplier canContinue) {
+        this(log, sourceId, consumer, canContinue, CHUNK_SIZE);
+    }
+
+    /*
+     * chunkSize is the number of bytes parsed by a single task.
+     */
+    RotatedLogBackfill(final File log, final String sourceId, final Consumer<List<LogEntry>> consumer, final BooleanSupplier canContinue, final long chunkSize) {
+        this.log = log.getAbsoluteFile();
+        this.sourceId = sourceId;
+        this.consumer = consumer;
+        this.canContinue = canContinue;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Reads all rotated siblings.
+     *
+     * @return the number of entries handed to the consumer.
+     */
+    public long run() {
+        final List<File> files = findRotatedFiles();
+        if (files.isEmpty()) {
+            return 0;
+        }
+        LOGGER.info(() -> String.format("Backfill from %d rotated logs %s", files.size(), files));
+        final long start = System.currentTimeMillis();
+        final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            final long count = backfill(files, pool);
+            LOGGER.info(() -> String.format("Backfill of %d entries took %d ms", count, System.currentTimeMillis() - start));
+            return count;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private long backfill(final List<File> files, final ForkJoinPool pool) {
+        final Backlog backlog = new Backlog(pool);
+        for (File file : files) {
+            if (file.getName().endsWith(".gz")) {
+                readCompressed(file, backlog);
+            } else {
+                for (ChunkTask task : split(file)) {
+                    if (!backlog.submit(task)) {
+                        break;
+                    }
+                }
+            }
+        }
+        return backlog.drain();
+    }
+
+    /*
+     * A gzip stream can not be split, its lines are read here in blocks of
+     * about chunkSize bytes which are parsed on the pool like the chunks of a
+     * plain file.
+     */
+    private void readCompressed(final File file, final Backlog backlog) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.ISO_8859_1))) {
+            List<String> lines = new ArrayList<>();
+            long size = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                lines.add(line);
+                size += line.length() + 1;
+                if (size >= chunkSize) {
+                    if (!backlog.submit(new LinesTask(lines, sourceId))) {
+                        return;
+                    }
+                    lines = new ArrayList<>();
+                    size = 0;
+                }
+                line = reader.readLine();
+            }
+            if (!lines.isEmpty()) {
+                backlog.submit(new LinesTask(lines, sourceId));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to read " + file, e);
+        }
+    }
+
+    /*
+     * Siblings are named <log>.<n> or <log>-<date>, optionally followed by .gz.
+     * logrotate keeps the modification time, the oldest file is read first.
+     */
+    private List<File> findRotatedFiles() {
+        final Pattern rotated = Pattern.compile(Pattern.quote(log.getName()) + "[.-]\\d+(\\.gz)?");
+        final File[] siblings = log.getParentFile().listFiles((dir, name) -> rotated.matcher(name).matches());
+        if (siblings == null) {
+            return Collections.emptyList();
+        }
+        final List<File> files = new ArrayList<>(Arrays.asList(siblings));
+        files.sort(Comparator.comparingLong(File::lastModified).thenComparing(File::getName, Comparator.reverseOrder()));
+        return files;
+    }
+
+    private List<ChunkTask> split(final File file) {
+        final List<ChunkTask> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                final long end = nextLineStart(channel, Math.min(start + chunkSize, size));
+                chunks.add(new ChunkTask(file, sourceId, start, end));
+                start = end;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to read " + file, e);
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(final FileChannel channel, final long from) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = from;
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position++;
+                if (buffer.get() == '\n') {
+                    return position;
+                }
+            }
+            buffer.clear();
+        }
+        return position;
+    }
+
+    private static void parse(final String line, final String sourceId, final List<LogEntry> entries) {
+        try {
+            entries.add(new LogEntry(line, sourceId));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Skip invalid line: {0}", line);
+        }
+    }
+
+    /**
+     * The parse tasks submitted and not yet consumed. The look ahead is
+     * bounded, parsing continues while earlier chunks are consumed.
+     */
+    private final class Backlog {
+
+        private final ForkJoinPool pool;
+        private final int maxPending;
+        private final Deque<ForkJoinTask<List<LogEntry>>> pending = new ArrayDeque<>();
+        private long count;
+
+        Backlog(final ForkJoinPool pool) {
+            this.pool = pool;
+            this.maxPending = 2 * pool.getParallelism();
+        }
+
+        /*
+         * Submits a task, first consuming the oldest one when the look ahead
+         * is full. Returns false when the backfill is stopped.
+         */
+        boolean submit(final Callable<List<LogEntry>> task) {
+            if (!canContinue.getAsBoolean()) {
+                return false;
+            }
+            if (pending.size() == maxPending) {
+                consume(pending.removeFirst());
+            }
+            pending.addLast(pool.submit(task));
+            return true;
+        }
+
+        long drain() {
+            while (!pending.isEmpty() && canContinue.getAsBoolean()) {
+                consume(pending.removeFirst());
+            }
+            return count;
+        }
+
+        private void consume(final ForkJoinTask<List<LogEntry>> task) {
+            try {
+                final List<LogEntry> entries = task.join();
+                consumer.accept(entries);
+                count += entries.size();
+            } catch (UncheckedIOException e) {
+                LOGGER.log(Level.SEVERE, "Skip unreadable chunk ", e);
+            }
+        }
+    }
+
+    /**
+     * Parses the lines of a file between start (inclusive) and end
+     * (exclusive), both on a line boundary. The last line of the file may lack
+     * its newline, the file is no longer written so it is complete.
+     */
+    private static final class ChunkTask implements Callable<List<LogEntry>> {
+
+        private final File file;
+        private final String sourceId;
+        private final long start;
+        private final long end;
+
+        ChunkTask(final File file, final String sourceId, final long start, final long end) {
+            this.file = file;
+            this.sourceId = sourceId;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public List<LogEntry> call() {
+            final List<LogEntry> entries = new ArrayList<>();
+            try (LogFileReader reader = new LogFileReader(file)) {
+                reader.setPosition(start);
+                reader.readLines((line) -> {
+                    parse(line, sourceId, entries);
+                    return reader.getPosition() < end;
+                });
+                if (reader.getPosition() < end) {
+                    final String line = reader.readUnterminatedLine();
+                    if (line != null) {
+                        parse(line, sourceId, entries);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read " + file, e);
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Parses a block of lines read from a compressed file.
+     */
+    private static final class LinesTask implements Callable<List<LogEntry>> {
+
+        private final List<String> lines;
+        private final String sourceId;
+
+        LinesTask(final List<String> lines, final String sourceId) {
+            this.lines = lines;
+            this.sourceId = sourceId;
+        }
+
+        @Override
+        public List<LogEntry> call() {
+            final List<LogEntry> entries = new ArrayList<>(lines.size());
+            lines.forEach((line) -> parse(line, sourceId, entries));
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Destroyed;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import nl.tjonahen.iptableslogd.jmx.Configuration;
+import nl.tjonahen.iptableslogd.pipeline.LogEntryPipeline;
+
+/**
+ * Auto started CDI bean, receives the netfilter log as syslog messages sent by
+ * ulogd or a syslog daemon on the configured UDP and TCP log sources and
+ * publishes them in the LogEntryPipeline.
+ */
+@ApplicationScoped
+public class SyslogListener {
+
+    private static final Logger LOGGER = Logger.getLogger(SyslogListener.class.getName());
+
+    @Inject
+    private LogSources logSources;
+
+    @Inject
+    private LogEntryPipeline pipeline;
+
+    private final List<SyslogReceiver> receivers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Binds the syslog ports and starts a receiver thread for each socket
+     * source.
+     *
+     * @param init -
+     */
+    public void init(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        for (LogSource source : logSources.getSockets()) {
+            final SyslogReceiver receiver;
+            try {
+                receiver = new SyslogReceiver(source.getId(),
+                        source.getType() == LogSource.Type.UDP ? source.getAddress() : null,
+                        source.getType() == LogSource.Type.TCP ? source.getAddress() : null,
+                        pipeline::publish);
+                LOGGER.info(() -> "Listening for syslog on " + source);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to listen for syslog on " + source, e);
+            }
+            receivers.add(receiver);
+            new Thread(receiver, "syslog-" + source.getId()).start();
+        }
+    }
+
+    public void destroy(@Observes @Destroyed(ApplicationScoped.class) Object init) {
+        stop();
+    }
+
+    public void update(final @Observes Configuration c) {
+        if (!c.canContinue()) {
+            stop();
+        }
+    }
+
+    private void stop() {
+        receivers.forEach(SyslogReceiver::close);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.nio.ByteBuffer;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import nl.tjonahen.iptableslogd.domain.AsciiCharSequence;
+
+/**
+ * Converts a received syslog message (RFC 3164 or RFC 5424) into a line in the
+ * format written by the ulogd syslogemu plugin, which is what LogEntry parses:
+ *
+ * <pre>
+ * Oct 23 09:25:49 host kernel: IN=eth0 OUT= MAC=... SRC=... DST=...
+ * </pre>
+ *
+ * The message is parsed directly from the receive buffer and the line is
+ * returned as an AsciiCharSequence view, no String is created for it. A
+ * message that already is in the syslogemu format is a view on the receive
+ * buffer itself, other messages are rewritten into a line buffer owned by the
+ * parser. One parser is used by one thread only, it reuses its views and its
+ * line buffer.
+ */
+public final class SyslogMessageParser {
+
+    private static final DateTimeFormatter SYSLOG_TIME = DateTimeFormatter.ofPattern("MMM ppd HH:mm:ss", Locale.ENGLISH);
+    private static final int TIMESTAMP_LENGTH = 15;
+    private static final byte[] NETFILTER = {'I', 'N', '='};
+
+    private final AsciiCharSequence view = new AsciiCharSequence();
+    private final AsciiCharSequence timestamp = new AsciiCharSequence();
+    private ByteBuffer line = ByteBuffer.allocate(512);
+    private int length;
+
+    /**
+     * Parses the message between the position and the limit of the buffer,
+     * the buffer itself is not changed.
+     *
+     * @param buffer the buffer holding one message.
+     * @return the line, or null when it is not a netfilter log message. The
+     * line is a view that is valid until the next parse or until the buffer
+     * changes.
+     */
+    public CharSequence parse(final ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        while (end > start && isTrailer(buffer.get(end - 1))) {
+            end--;
+        }
+        start = skipPriority(buffer, start, end);
+        if (end - start > 2 && buffer.get(start) == '1' && buffer.get(start + 1) == ' ') {
+            reset(end - start + 2 * TIMESTAMP_LENGTH);
+            parseRfc5424(buffer, start + 2, end);
+            return netfilter(line, 0, length);
+        } else if (isTimestamp(buffer, start, end)) {
+            // already a syslogemu line
+            return netfilter(buffer, start, end);
+        }
+        // senders that leave the timestamp out get the time of arrival
+        reset(end - start + TIMESTAMP_LENGTH + 1);
+        append(SYSLOG_TIME.format(ZonedDateTime.now()));
+        append(' ');
+        append(buffer, start, end);
+        return netfilter(line, 0, length);
+    }
+
+    private CharSequence netfilter(final ByteBuffer buffer, final int start, final int end) {
+        return indexOf(buffer, start, end, NETFILTER) < 0 ? null : view.wrap(buffer, start, end - start);
+    }
+
+    private static int indexOf(final ByteBuffer buffer, final int start, final int end, final byte[] text) {
+        for (int i = start; i <= end - text.length; i++) {
+            int j = 0;
+            while (j < text.length && buffer.get(i + j) == text[j]) {
+                j++;
+            }
+            if (j == text.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isTrailer(final byte b) {
+        return b == '\n' || b == '\r' || b == 0;
+    }
+
+    /*
+     * <PRI> is up to three digits, a message without it is taken as is.
+     */
+    private static int skipPriority(final ByteBuffer buffer, final int start, final int end) {
+        if (start < end && buffer.get(start) == '<') {
+            for (int i = start + 1; i < end && i <= start + 4; i++) {
+                final byte b = buffer.get(i);
+                if (b == '>') {
+                    return i + 1;
+                } else if (b < '0' || b > '9') {
+                    break;
+                }
+            }
+        }
+        return start;
+    }
+
+    private static boolean isTimestamp(final ByteBuffer buffer, final int start, final int end) {
+        return end - start >= TIMESTAMP_LENGTH
+                && Character.isLetter(buffer.get(start))
+                && buffer.get(start + 3) == ' '
+                && buffer.get(start + 9) == ':'
+                && buffer.get(start + 12) == ':';
+    }
+
+    /*
+     * VERSION TIMESTAMP HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA [MSG],
+     * the version is already consumed.
+     */
+    private void parseRfc5424(final ByteBuffer buffer, final int start, final int end) {
+        int field = nextSpace(buffer, start, end);
+        append(SYSLOG_TIME.format(timestamp(timestamp.wrap(buffer, start, field - start))));
+        // hostname and app-name
+        final int host = field + 1;
+        field = nextSpace(buffer, host, end);
+        final int app = field + 1;
+        final int appEnd = nextSpace(buffer, app, end);
+        append(' ');
+        append(buffer, host, Math.min(appEnd, end));
+        append(':');
+        // procid and msgid
+        field = nextSpace(buffer, appEnd + 1, end);
+        field = nextSpace(buffer, field + 1, end);
+        int msg = skipStructuredData(buffer, field + 1, end) + 1;
+        if (end - msg >= 3 && (buffer.get(msg) & 0xff) == 0xef
+                && (buffer.get(msg + 1) & 0xff) == 0xbb && (buffer.get(msg + 2) & 0xff) == 0xbf) {
+            // UTF-8 byte order mark
+            msg += 3;
+        }
+        if (msg < end) {
+            append(' ');
+            append(buffer, msg, end);
+        }
+    }
+
+    private static ZonedDateTime timestamp(final CharSequence value) {
+        try {
+            return OffsetDateTime.parse(value).atZoneSameInstant(ZoneId.systemDefault());
+        } catch (DateTimeParseException e) {
+            // the nil value "-" or an invalid timestamp
+            return ZonedDateTime.now();
+        }
+    }
+
+    private static int nextSpace(final ByteBuffer buffer, final int from, final int end) {
+        int i = from;
+        while (i < end && buffer.get(i) != ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /*
+     * Either the nil value "-" or one or more [id name="value" ...] elements,
+     * a value can hold escaped quotes and brackets. Returns the end.
+     */
+    private static int skipStructuredData(final ByteBuffer buffer, final int from, final int end) {
+        if (from >= end || buffer.get(from) != '[') {
+            return nextSpace(buffer, from, end);
+        }
+        int i = from;
+        boolean quoted = false;
+        while (i < end) {
+            final byte b = buffer.get(i);
+            if (b == '\\') {
+                i++;
+            } else if (b == '"') {
+                quoted = !quoted;
+            } else if (b == ']' && !quoted && (i + 1 >= end || buffer.get(i + 1) != '[')) {
+                return i + 1;
+            }
+            i++;
+        }
+        return end;
+    }
+
+    /*
+     * Empty the line buffer, making room for at least size bytes.
+     */
+    private void reset(final int size) {
+        if (line.capacity() < size) {
+            line = ByteBuffer.allocate(Math.max(size, 2 * line.capacity()));
+        }
+        length = 0;
+    }
+
+    private void append(final char c) {
+        line.put(length++, (byte) c);
+    }
+
+    private void append(final String text) {
+        for (int i = 0; i < text.length(); i++) {
+            append(text.charAt(i));
+        }
+    }
+
+    private void append(final ByteBuffer buffer, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            line.put(length++, buffer.get(i));
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nl.tjonahen.iptableslogd.domain.LogEntry;
+
+/**
+ * Receives syslog messages on a UDP and/or a TCP port using a single selector
+ * thread.
+ *
+ * A UDP datagram holds one message. On TCP the messages are framed by octet
+ * counting (RFC 6587, "123 &lt;4&gt;1 ...") or terminated by a newline, a
+ * connection may mix both.
+ */
+public final class SyslogReceiver implements Runnable, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(SyslogReceiver.class.getName());
+
+    private static final int MAX_MESSAGE_SIZE = 64 * 1024;
+    private static final int MAX_LENGTH_DIGITS = 6;
+
+    private final Selector selector;
+    private final DatagramChannel udp;
+    private final ServerSocketChannel tcp;
+    private final String sourceId;
+    private final Consumer<LogEntry> consumer;
+    private final SyslogMessageParser parser = new SyslogMessageParser();
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+    private volatile boolean running = true;
+
+    /**
+     * Binds the channels.
+     *
+     * @param sourceId the source id of the entries.
+     * @param udpAddress the UDP address to listen on, null for none.
+     * @param tcpAddress the TCP address to listen on, null for none.
+     * @param consumer receives the netfilter log entries.
+     * @throws IOException when a channel can not be bound.
+     */
+    public SyslogReceiver(final String sourceId, final InetSocketAddress udpAddress, final InetSocketAddress tcpAddress, final Consumer<LogEntry> consumer) throws IOException {
+        this.sourceId = sourceId;
+        this.consumer = consumer;
+        this.selector = Selector.open();
+        DatagramChannel udpChannel = null;
+        ServerSocketChannel tcpChannel = null;
+        try {
+            if (udpAddress != null) {
+                udpChannel = DatagramChannel.open();
+                udpChannel.bind(udpAddress);
+                udpChannel.configureBlocking(false);
+                udpChannel.register(selector, SelectionKey.OP_READ);
+            }
+            if (tcpAddress != null) {
+                tcpChannel = ServerSocketChannel.open();
+                tcpChannel.bind(tcpAddress);
+                tcpChannel.configureBlocking(false);
+                tcpChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            closeQuietly(udpChannel);
+            closeQuietly(tcpChannel);
+            closeQuietly(selector);
+            throw e;
+        }
+        this.udp = udpChannel;
+        this.tcp = tcpChannel;
+    }
+
+    /**
+     * @return the bound UDP address, null when not listening on UDP.
+     * @throws IOException -
+     */
+    public SocketAddress getUdpAddress() throws IOException {
+        return udp == null ? null : udp.getLocalAddress();
+    }
+
+    /**
+     * @return the bound TCP address, null when not listening on TCP.
+     * @throws IOException -
+     */
+    public SocketAddress getTcpAddress() throws IOException {
+        return tcp == null ? null : tcp.getLocalAddress();
+    }
+
+    /**
+     * Receives messages until closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                LOGGER.log(Level.SEVERE, "Syslog receiver failed ", e);
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+        LOGGER.info("Syslog receiver stopped.");
+    }
+
+    private void handle(final SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+        } else if (key.channel() == udp) {
+            receive();
+        } else {
+            try {
+                ((Connection) key.attachment()).read(key);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Connection closed ", e);
+                key.cancel();
+                closeQuietly(key.channel());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = tcp.accept();
+        if (channel != null) {
+            LOGGER.fine(() -> "New syslog connection " + channel);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    private void receive() throws IOException {
+        while (udp.receive(datagram) != null) {
+            datagram.flip();
+            publish(datagram);
+            datagram.clear();
+        }
+    }
+
+    /*
+     * The line is a view on the buffer, LogEntry copies what it keeps of it.
+     */
+    private void publish(final ByteBuffer message) {
+        final CharSequence line = parser.parse(message);
+        if (line == null) {
+            return;
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("input: " + line);
+        }
+        try {
+            consumer.accept(new LogEntry(line, sourceId));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Skip invalid message: {0}", line.toString());
+        }
+    }
+
+    /**
+     * Stops receiving, the channels are closed by the receiving thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // do nothing. suppress exceptions
+            }
+        }
+    }
+
+    /**
+     * Collects the bytes of a TCP connection until a complete frame is
+     * received.
+     */
+    private final class Connection {
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+
+        void read(final SelectionKey key) throws IOException {
+            final int read = ((SocketChannel) key.channel()).read(buffer);
+            if (read < 0) {
+                throw new IOException("End of stream");
+            }
+            buffer.flip();
+            while (nextFrame()) {
+                // all complete frames are published
+            }
+            buffer.compact();
+        }
+
+        /*
+         * Publishes the frame at the position, returns false when it is not
+         * yet complete.
+         */
+        private boolean nextFrame() throws IOException {
+            final int start = buffer.position();
+            final int limit = buffer.limit();
+            if (start == limit) {
+                return false;
+            }
+            final byte first = buffer.get(start);
+            if (first == '\n' || first == '\r' || first == ' ') {
+                buffer.position(start + 1);
+                return true;
+            }
+            return first >= '0' && first <= '9' ? octetCountedFrame(start, limit) : newlineFrame(start, limit);
+        }
+
+        private boolean octetCountedFrame(final int start, final int limit) throws IOException {
+            int length = 0;
+            int i = start;
+            while (i < limit && buffer.get(i) != ' ') {
+                final byte b = buffer.get(i);
+                if (b < '0' || b > '9' || i - start >= MAX_LENGTH_DIGITS) {
+                    throw new IOException("Invalid frame length");
+                }
+                length = length * 10 + b - '0';
+                i++;
+            }
+            if (length > MAX_MESSAGE_SIZE - MAX_LENGTH_DIGITS - 1) {
+                throw new IOException("Frame of " + length + " bytes exceeds maximum message size");
+            }
+            if (i == limit || limit - (i + 1) < length) {
+                return false;
+            }
+            frame(i + 1, i + 1 + length);
+            return true;
+        }
+
+        private boolean newlineFrame(final int start, final int limit) {
+            for (int i = start; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    frame(start, i);
+                    buffer.position(i + 1);
+                    return true;
+                }
+            }
+            if (start == 0 && limit == buffer.capacity()) {
+                LOGGER.warning(() -> String.format("Message exceeds %d bytes, splitting it.", limit));
+                frame(start, limit);
+                return true;
+            }
+            return false;
+        }
+
+        private void frame(final int start, final int end) {
+            final int limit = buffer.limit();
+            buffer.limit(end).position(start);
+            publish(buffer);
+            buffer.limit(limit).position(end);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 import nl.tjonahen.cdi.value.Value;
+import nl.tjonahen.iptableslogd.domain.FilterRules;
 
 /**
  * HttpServerConfiguration MBean.
@@ -50,6 +51,11 @@ public final class Configuration implements ConfigurationMBean {
     @PostConstruct
     public void setup() {
         LOGGER.info("Initializing JMX.");
+        try {
+            compiledFilterRules = FilterRules.compile(filterRules);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Invalid filterRules ", e);
+        }
         try {
             objectName = new ObjectName("nl.tjonahen.iptableslogd.Config:type=configuration");
             // Register the HttpServer configuration MBean
@@ -79,6 +85,20 @@ public final class Configuration implements ConfigurationMBean {
     @Value("/var/log/ulogd.syslogemu")
     private String ulog;
 
+    @Inject
+    @Value("5000")
+    private int portScanWindow;
+
+    @Inject
+    @Value("3")
+    private int portScanThreshold;
+
+    @Inject
+    @Value(FilterRules.DEFAULT)
+    private String filterRules;
+
+    private volatile FilterRules compiledFilterRules;
+
     @Override
     public void setPoolSize(int poolSize) {
         this.poolSize = poolSize;
@@ -122,6 +142,53 @@ public final class Configuration implements ConfigurationMBean {
         notifyAllAboservers();
     }
 
+    @Override
+    public int getPortScanWindow() {
+        return portScanWindow;
+    }
+
+    @Override
+    public void setPortScanWindow(int portScanWindow) {
+        this.portScanWindow = portScanWindow;
+        notifyAllAboservers();
+    }
+
+    @Override
+    public int getPortScanThreshold() {
+        return portScanThreshold;
+    }
+
+    @Override
+    public void setPortScanThreshold(int portScanThreshold) {
+        this.portScanThreshold = portScanThreshold;
+        notifyAllAboservers();
+    }
+
+    @Override
+    public String getFilterRules() {
+        return filterRules;
+    }
+
+    /**
+     * Compiles and replaces the filter rules, invalid rules are rejected and
+     * the current ones are kept.
+     *
+     * @param filterRules the rules.
+     */
+    @Override
+    public void setFilterRules(String filterRules) {
+        compiledFilterRules = FilterRules.compile(filterRules);
+        this.filterRules = filterRules;
+        notifyAllAboservers();
+    }
+
+    /**
+     * @return the compiled filter rules.
+     */
+    public FilterRules getCompiledFilterRules() {
+        return compiledFilterRules;
+    }
+
     private void notifyAllAboservers() {
        
         LOGGER.info("fire CDI event to notify all observers of configuration change.");
@@ -32,4 +32,26 @@ public interface ConfigurationMBean {
     
     void setUlog(String ulog);
 
+    /**
+     * @return the port scan window in milliseconds.
+     */
+    int getPortScanWindow();
+
+    void setPortScanWindow(int portScanWindow);
+
+    /**
+     * @return the number of distinct destination ports within the window
+     * that is a port scan.
+     */
+    int getPortScanThreshold();
+
+    void setPortScanThreshold(int portScanThreshold);
+
+    /**
+     * @return the filter rules, see FilterRules for the syntax.
+     */
+    String getFilterRules();
+
+    void setFilterRules(String filterRules);
+
 }
@@ -17,45 +17,72 @@
 package nl.tjonahen.iptableslogd.output;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.net.URLDecoder;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import java.util.logging.Logger;
 
+import nl.tjonahen.iptableslogd.domain.DashboardSnapshot;
+import nl.tjonahen.iptableslogd.domain.FrequencySketches;
 import nl.tjonahen.iptableslogd.domain.LogEntry;
 import nl.tjonahen.iptableslogd.domain.LogEntryCollector;
 import nl.tjonahen.iptableslogd.domain.LogEntryStatistics;
 import nl.tjonahen.iptableslogd.domain.LogEntryStatistics.Counter;
 import nl.tjonahen.iptableslogd.domain.PortNumbers;
+import nl.tjonahen.iptableslogd.domain.RateHistory;
+import nl.tjonahen.iptableslogd.domain.RollupCube;
+import nl.tjonahen.iptableslogd.domain.ScanProfile;
 
 /**
- * Request handler, handles a single get.
+ * Request handler, handles a single get. The page is built from a single
+ * snapshot, so all tables show the same moment. The lookups and the rollup
+ * query the copies of the sketches and the rollup in the snapshot, they never
+ * hold a lock the ingest needs.
+ *
+ * /lookup?source=address or /lookup?port=number shows the estimated number of
+ * entries of any source address or destination port. /rollup slices the
+ * rollup on source, port, proto and in, and drills down on the dimension by.
  *
  */
 public final class HttpRequestHandler implements Runnable {
 
     private static final String CRLF = "\r\n";
     private static final String SERVERLINE = "Server: iptableslogd httpServer";
+    private static final String[] CHART_COLORS = {"black", "red", "blue", "green", "orange", "purple", "teal", "brown"};
+    private static final int CHART_HEIGHT = 60;
+    private static final int MAX_REQUEST_LINE = 8192;
+    private static final String LOOKUP = "/lookup";
+    private static final String ROLLUP = "/rollup";
+    private static final int ROLLUP_ROWS = 20;
+    private final InputStream input;
     private final OutputStream output;
-    private final LogEntryCollector logEntryCollector;
-    private final LogEntryStatistics logEntryStatistics;
+    private final LogEntryCollector.Snapshot logEntryCollector;
+    private final LogEntryStatistics.Snapshot logEntryStatistics;
     private final PortNumbers portNumbers;
     private final boolean useReverseLookup;
 
     private static final Logger LOGGER = Logger.getLogger(HttpRequestHandler.class.getName());
 
     public HttpRequestHandler(final boolean useReverseLookup, 
+                              final InputStream input,
                               final OutputStream output, 
-                              final LogEntryCollector logEntryCollector, 
-                              final LogEntryStatistics logEntryStatistics,
+                              final DashboardSnapshot snapshot,
                               final PortNumbers portNumbers) {
         this.useReverseLookup = useReverseLookup;
+        this.input = input;
         this.output = output;
-        this.logEntryCollector = logEntryCollector;
-        this.logEntryStatistics = logEntryStatistics;
+        this.logEntryCollector = snapshot.getCollector();
+        this.logEntryStatistics = snapshot.getStatistics();
         this.portNumbers = portNumbers;
     }
 
@@ -64,13 +91,22 @@ public final class HttpRequestHandler implements Runnable {
         LOGGER.fine("Create response page.");
         try {
             LOGGER.fine("Building result page.");
+            final String target = readRequestTarget();
+            final String body;
+            if (isPath(target, LOOKUP)) {
+                body = buildLookup(target);
+            } else if (isPath(target, ROLLUP)) {
+                body = buildRollup(target);
+            } else {
+                body = buildBody();
+            }
             final StringBuilder entityBody = new StringBuilder("");
             entityBody.append("<HTML><HEAD><TITLE>IPTables LogD</TITLE>")
-                    .append(addMetaData())
+                    .append(isPath(target, "/") ? addMetaData() : "")
                     .append(addStyle())
                     .append("</HEAD>")
                     .append("<BODY><center><h1> I P T A B L E S  L O G </h1></center><hr/>")
-                    .append(buildBody())
+                    .append(body)
                     .append("</BODY></HTML>");
 
             // Construct the response message.
@@ -97,6 +133,155 @@ public final class HttpRequestHandler implements Runnable {
         }
     }
 
+    /*
+     * The target of the request line, "/" when there is no valid request
+     * line.
+     */
+    private String readRequestTarget() {
+        final StringBuilder line = new StringBuilder();
+        try {
+            int c = input.read();
+            while (c >= 0 && c != '\n' && line.length() < MAX_REQUEST_LINE) {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+                c = input.read();
+            }
+        } catch (IOException e) {
+            LOGGER.fine(() -> "Unable to read request " + e.getMessage());
+        }
+        final String[] parts = line.toString().split(" ");
+        return parts.length >= 2 && parts[1].startsWith("/") ? parts[1] : "/";
+    }
+
+    private static boolean isPath(final String target, final String path) {
+        return target.equals(path) || target.startsWith(path + "?");
+    }
+
+    private static Map<String, String> parseQuery(final String target) {
+        final Map<String, String> parameters = new HashMap<>();
+        final int start = target.indexOf('?');
+        if (start < 0) {
+            return parameters;
+        }
+        for (String parameter : target.substring(start + 1).split("&")) {
+            final int split = parameter.indexOf('=');
+            if (split > 0) {
+                parameters.put(decode(parameter.substring(0, split)), decode(parameter.substring(split + 1)).trim());
+            }
+        }
+        return parameters;
+    }
+
+    private static String decode(final String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return text;
+        }
+    }
+
+    private static String escape(final String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("'", "&#39;").replace("\"", "&quot;");
+    }
+
+    private String buildLookup(final String target) {
+        final Map<String, String> parameters = parseQuery(target);
+        final StringBuilder data = new StringBuilder("");
+        data.append(buildLookupForm());
+        data.append("<table class='special' width='100%'>");
+        final String source = parameters.get("source");
+        if (source != null && !source.isEmpty()) {
+            data.append(buildEstimate("Source " + source, logEntryStatistics.getSketches().estimateSource(source)));
+        }
+        final String port = parameters.get("port");
+        if (port != null && !port.isEmpty()) {
+            try {
+                final int number = Integer.parseInt(port);
+                if (number < 0 || number > 65535) {
+                    throw new NumberFormatException(port);
+                }
+                data.append(buildEstimate("Port " + number, logEntryStatistics.getSketches().estimatePort(number)));
+            } catch (NumberFormatException e) {
+                data.append("<tr><td>Invalid port ").append(escape(port)).append("</td></tr>");
+            }
+        }
+        data.append("</table>");
+        data.append("<a href='/'>Back</a>");
+        return data.toString();
+    }
+
+    private static String buildEstimate(final String name, final FrequencySketches.Estimate estimate) {
+        return "<tr><td width='60%'>" + escape(name) + "</td><td width='40%'>" + estimate + "</td></tr>";
+    }
+
+    private String buildLookupForm() {
+        return "<h3>Lookup:</h3>"
+                + "<form action='" + LOOKUP + "' method='get'>"
+                + "source <input name='source' size='20'/> port <input name='port' size='5'/> "
+                + "<input type='submit' value='lookup'/></form>"
+                + "<form action='" + ROLLUP + "' method='get'>"
+                + "source/24 <input name='source' size='15'/> port <input name='port' size='5'/> "
+                + "proto <input name='proto' size='4'/> in <input name='in' size='6'/> by <select name='by'>"
+                + "<option>port</option><option>source</option><option>proto</option><option>in</option></select> "
+                + "<input type='submit' value='rollup'/></form>";
+    }
+
+    private String buildRollup(final String target) {
+        final Map<String, String> parameters = parseQuery(target);
+        final RollupCube rollup = logEntryStatistics.getRollup();
+        final RollupCube.Query query = rollup.query();
+        final StringBuilder slice = new StringBuilder("");
+        try {
+            if (!parameters.getOrDefault("source", "").isEmpty()) {
+                query.source(parameters.get("source"));
+                slice.append(" source ").append(parameters.get("source"));
+            }
+            if (!parameters.getOrDefault("port", "").isEmpty()) {
+                query.port(Integer.parseInt(parameters.get("port")));
+                slice.append(" port ").append(parameters.get("port"));
+            }
+        } catch (NumberFormatException e) {
+            return buildLookupForm() + "Invalid port " + escape(parameters.get("port"));
+        }
+        if (!parameters.getOrDefault("proto", "").isEmpty()) {
+            query.protocol(parameters.get("proto"));
+            slice.append(" proto ").append(parameters.get("proto"));
+        }
+        if (!parameters.getOrDefault("in", "").isEmpty()) {
+            query.inInterface(parameters.get("in"));
+            slice.append(" in ").append(parameters.get("in"));
+        }
+        final RollupCube.Dimension by = dimension(parameters.getOrDefault("by", "port"));
+        final StringBuilder data = new StringBuilder("");
+        data.append(buildLookupForm());
+        data.append("<h3>").append(escape(by.name().toLowerCase())).append(" of").append(escape(slice.length() == 0 ? " all" : slice.toString()))
+                .append(": ").append(query.count()).append("</h3>");
+        data.append("<table class='special' width='100%'>");
+        query.drillDown(by, ROLLUP_ROWS).forEach((cell) -> {
+            data.append("<tr><td width='90%'>").append(escape(cell.getLabel())).append("</td>");
+            data.append("<td width='10%'>").append(cell.getCount()).append("</td></tr>");
+        });
+        data.append("</table>");
+        data.append("Cells ").append(rollup.getCells()).append(" of ").append(rollup.getCapacity())
+                .append(", evicted entries ").append(rollup.getEvicted()).append("<br/>");
+        data.append("<a href='/'>Back</a>");
+        return data.toString();
+    }
+
+    private static RollupCube.Dimension dimension(final String name) {
+        switch (name) {
+            case "source":
+                return RollupCube.Dimension.SOURCE;
+            case "proto":
+                return RollupCube.Dimension.PROTOCOL;
+            case "in":
+                return RollupCube.Dimension.INTERFACE;
+            default:
+                return RollupCube.Dimension.PORT;
+        }
+    }
+
     private String addMetaData() {
         return "<META HTTP-EQUIV='Refresh' CONTENT='10; URL=/'>";
     }
@@ -126,10 +311,17 @@ public final class HttpRequestHandler implements Runnable {
     private String buildStatistics() {
         final StringBuilder data = new StringBuilder("");
         data.append(buildGlobalStatistics());
+        data.append(buildSourceStatistics());
+        data.append(buildRateCharts());
+        data.append(buildLookupForm());
         data.append(buildStatisticsTable("IN statistics:", logEntryStatistics.getInInterfaces()));
         data.append(buildStatisticsTable("Protocol statistics:", logEntryStatistics.getProtocol()));
         data.append(buildStatisticsTable("Port statistics:", logEntryStatistics.getPorts()));
         data.append(buildStatisticsTable("Host statistics:", logEntryStatistics.getHosts()));
+        data.append(buildStatisticsTable("Hot prefixes:", logEntryStatistics.getHeavyHitters()));
+        data.append(buildStatisticsTable("/16 statistics:", logEntryStatistics.getPrefixes16()));
+        data.append(buildStatisticsTable("/24 statistics:", logEntryStatistics.getPrefixes24()));
+        data.append(buildStatisticsTable("/48 statistics:", logEntryStatistics.getPrefixes48()));
         return data.toString();
     }
 
@@ -158,6 +350,80 @@ public final class HttpRequestHandler implements Runnable {
         return data.toString();
     }
 
+    private String buildSourceStatistics() {
+        final Set<String> sources = logEntryStatistics.getSources();
+        if (sources.size() < 2) {
+            return "";
+        }
+        final StringBuilder data = new StringBuilder("");
+        data.append("<h3>Source statistics:</h3>");
+        data.append("<table class='special' width='100%'>");
+        sources.forEach((source) -> {
+            data.append("<tr>");
+            data.append("<td width='90%'>").append(source).append("</td>");
+            data.append("<td width='10%'>").append(logEntryStatistics.getNumber(source)).append("</td>");
+            data.append("</tr>");
+        });
+        data.append("</table>");
+        return data.toString();
+    }
+
+    private String buildRateCharts() {
+        final RateHistory.Snapshot rates = logEntryStatistics.getRates();
+        if (rates.getEnd() == 0) {
+            return "";
+        }
+        final StringBuilder data = new StringBuilder("");
+        data.append("<h3>Rate statistics:</h3>");
+        data.append("<table class='special' width='100%'>");
+        for (RateHistory.Resolution resolution : RateHistory.Resolution.values()) {
+            data.append("<tr><td>").append(buildRateChart(rates, resolution)).append("</td></tr>");
+        }
+        data.append("<tr><td>");
+        final List<String> names = rates.getNames();
+        for (int s = 0; s < names.size(); s++) {
+            data.append("<span style='color:").append(CHART_COLORS[s % CHART_COLORS.length]).append("'>")
+                    .append(names.get(s)).append("</span> ");
+        }
+        data.append("</td></tr>");
+        data.append("</table>");
+        return data.toString();
+    }
+
+    /*
+     * A line per series with counts in the period, scaled to the highest
+     * count of all series.
+     */
+    private String buildRateChart(final RateHistory.Snapshot rates, final RateHistory.Resolution resolution) {
+        final int series = rates.getNames().size();
+        long max = 1;
+        for (int s = 0; s < series; s++) {
+            for (long count : rates.getCounts(resolution, s)) {
+                max = Math.max(max, count);
+            }
+        }
+        final StringBuilder data = new StringBuilder("");
+        data.append("Per ").append(resolution.getUnit()).append(", last ").append(resolution.getBuckets())
+                .append(" until ").append(new Date(rates.getEnd())).append(", max ").append(max).append("<br/>");
+        data.append("<svg width='100%' height='").append(CHART_HEIGHT).append("' viewBox='0 0 ")
+                .append(resolution.getBuckets()).append(' ').append(CHART_HEIGHT)
+                .append("' preserveAspectRatio='none'>");
+        for (int s = 0; s < series; s++) {
+            final long[] counts = rates.getCounts(resolution, s);
+            if (s != RateHistory.ALL && Arrays.stream(counts).allMatch((c) -> c == 0)) {
+                continue;
+            }
+            data.append("<polyline fill='none' vector-effect='non-scaling-stroke' stroke='")
+                    .append(CHART_COLORS[s % CHART_COLORS.length]).append("' points='");
+            for (int i = 0; i < counts.length; i++) {
+                data.append(i).append(',').append(CHART_HEIGHT - counts[i] * CHART_HEIGHT / max).append(' ');
+            }
+            data.append("'/>");
+        }
+        data.append("</svg>");
+        return data.toString();
+    }
+
     private String buildStatisticsTable(String name, List<Counter> lst) {
         final StringBuilder data = new StringBuilder("");
         data.append("<h3>").append(name).append("</h3>");
@@ -193,7 +459,7 @@ public final class HttpRequestHandler implements Runnable {
         final StringBuffer data = new StringBuffer("");
         data.append("<h3>Possible portscan sources</h3>");
         data.append("<table  class='special' width='100%'>");
-        data.append("<tr><td nowrap width='10%'>Date/Time</td><td width='25%'>source</td></tr>");
+        data.append("<tr><td nowrap width='10%'>Date/Time</td><td width='25%'>source</td><td>ports</td><td>hosts</td><td width='100%'>scan</td></tr>");
         logEntryCollector.getPortScans()
                 .stream()
                 .filter((line) -> (line != null))
@@ -217,6 +483,17 @@ public final class HttpRequestHandler implements Runnable {
                     data.append("</td>");
                     return line;
                 })
+                .map((line) -> {
+                    final ScanProfile profile = logEntryCollector.getScanProfile(line);
+                    if (profile == null) {
+                        data.append("<td></td><td></td><td></td>");
+                    } else {
+                        data.append("<td>~").append(profile.getPorts()).append("</td>");
+                        data.append("<td>~").append(profile.getDestinations()).append("</td>");
+                        data.append("<td>").append(profile.getKind().getLabel()).append("</td>");
+                    }
+                    return line;
+                })
                 .forEach((line) -> {
                     data.append("</tr>");
                 });
@@ -262,7 +539,7 @@ public final class HttpRequestHandler implements Runnable {
             }
             data.append("</td>");
             data.append("<td>").append(line.getProtocol()).append("</td>");
-            data.append("<td>").append(portNumbers.getDescription(line.getDestinationPort(), line.getProtocol())).append("</td>");
+            data.append("<td>").append(portNumbers.getDescription(line)).append("</td>");
             data.append("</tr>");
         }
         return data.toString();
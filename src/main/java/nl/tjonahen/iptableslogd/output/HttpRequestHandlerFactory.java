@@ -16,13 +16,13 @@
  */
 package nl.tjonahen.iptableslogd.output;
 
+import java.io.InputStream;
 import java.io.OutputStream;
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import nl.tjonahen.iptableslogd.domain.LogEntryCollector;
-import nl.tjonahen.iptableslogd.domain.LogEntryStatistics;
 import nl.tjonahen.iptableslogd.domain.PortNumbers;
 import nl.tjonahen.iptableslogd.jmx.Configuration;
+import nl.tjonahen.iptableslogd.pipeline.LogEntryPipeline;
 
 /**
  *
@@ -32,10 +32,7 @@ import nl.tjonahen.iptableslogd.jmx.Configuration;
 public class HttpRequestHandlerFactory {
 
     @Inject
-    private LogEntryCollector logEntryCollector;
-
-    @Inject
-    private LogEntryStatistics logEntryStatistics;
+    private LogEntryPipeline pipeline;
 
     @Inject
     private Configuration config;
@@ -43,8 +40,9 @@ public class HttpRequestHandlerFactory {
     @Inject
     private PortNumbers portNumbers;
 
-    public HttpRequestHandler createHandler(OutputStream outputStream) {
-        return new HttpRequestHandler(config.getUseReverseLookup(), outputStream, logEntryCollector, logEntryStatistics, portNumbers);
+    public HttpRequestHandler createHandler(InputStream inputStream, OutputStream outputStream) {
+        return new HttpRequestHandler(config.getUseReverseLookup(), inputStream, outputStream,
+                pipeline.getSnapshot(), portNumbers);
     }
 
 }
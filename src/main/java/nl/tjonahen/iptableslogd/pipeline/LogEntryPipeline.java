@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.pipeline;
+
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import nl.tjonahen.cdi.value.Value;
+import nl.tjonahen.iptableslogd.domain.DashboardSnapshot;
+import nl.tjonahen.iptableslogd.domain.LogEntry;
+import nl.tjonahen.iptableslogd.domain.LogEntryCollector;
+import nl.tjonahen.iptableslogd.domain.LogEntryStatistics;
+import nl.tjonahen.iptableslogd.jmx.Configuration;
+
+/**
+ * Staged pipeline between the log readers and the aggregators. Parsed entries
+ * are published in a ring buffer, the LogEntryCollector and LogEntryStatistics
+ * each consume it in batches on their own thread.
+ *
+ * Every snapshotInterval milliseconds, or after snapshotEvents entries, a
+ * marker is published. When the collector and the statistics reach it, each
+ * copies its state on its own thread. The two copies together form the
+ * DashboardSnapshot that readers get with a single volatile read, so readers
+ * never lock or wait for the aggregators.
+ *
+ * The queue depth and the number of dropped entries are exposed through JMX.
+ */
+@Singleton
+public class LogEntryPipeline implements LogEntryPipelineMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(LogEntryPipeline.class.getName());
+
+    @Inject
+    private MBeanServer platformMBeanServer;
+
+    @Inject
+    private LogEntryCollector logEntryCollector;
+
+    @Inject
+    private LogEntryStatistics logEntryStatistics;
+
+    @Inject
+    @Value(key = "ringSize", value = "65536")
+    private int ringSize;
+
+    @Inject
+    @Value(key = "waitStrategy", value = "blocking")
+    private String waitStrategy;
+
+    @Inject
+    @Value(key = "overflowPolicy", value = "block")
+    private String overflowPolicy;
+
+    @Inject
+    @Value(key = "sampleRate", value = "10")
+    private int sampleRate;
+
+    @Inject
+    @Value(key = "batchSize", value = "256")
+    private int batchSize;
+
+    @Inject
+    @Value(key = "snapshotInterval", value = "100")
+    private int snapshotInterval;
+
+    @Inject
+    @Value(key = "snapshotEvents", value = "10000")
+    private int snapshotEvents;
+
+    private static final int MAX_PENDING_SNAPSHOTS = 64;
+
+    private LogEntryRingBuffer ringBuffer;
+    private ObjectName objectName = null;
+    private ScheduledExecutorService snapshotTimer;
+    // entries published since the last marker, guarded by this
+    private int unmarked;
+    private volatile DashboardSnapshot snapshot;
+    // the parts taken at a marker, until both are there
+    private final TreeMap<Long, Parts> pending = new TreeMap<>();
+
+    @PostConstruct
+    public void setup() {
+        ringBuffer = new LogEntryRingBuffer(ringSize, WaitStrategy.of(waitStrategy), OverflowPolicy.of(overflowPolicy), sampleRate);
+        LOGGER.info(() -> String.format("Setup pipeline, %d slots, %s wait strategy, %s on overflow.",
+                ringBuffer.getCapacity(), waitStrategy, overflowPolicy));
+        snapshot = new DashboardSnapshot(-1, logEntryCollector.snapshot(), logEntryStatistics.snapshot());
+        start(ringBuffer.subscribe("collector", logEntryCollector::addLogLines,
+                (sequence) -> offer(sequence, logEntryCollector.snapshot(), null), batchSize));
+        start(ringBuffer.subscribe("statistics", logEntryStatistics::updateStatistics,
+                (sequence) -> offer(sequence, null, logEntryStatistics.snapshot()), batchSize));
+        snapshotTimer = Executors.newSingleThreadScheduledExecutor((r) -> {
+            final Thread thread = new Thread(r, "pipeline-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final int interval = Math.max(1, snapshotInterval);
+        snapshotTimer.scheduleWithFixedDelay(this::markIfNeeded, interval, interval, TimeUnit.MILLISECONDS);
+        try {
+            objectName = new ObjectName("nl.tjonahen.iptableslogd.Pipeline:type=pipeline");
+            platformMBeanServer.registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException | MBeanRegistrationException | MalformedObjectNameException | NotCompliantMBeanException e) {
+            throw new IllegalStateException("Unable to register PipelineMBean ", e);
+        }
+    }
+
+    private static void start(final LogEntryRingBuffer.Subscriber subscriber) {
+        final Thread thread = new Thread(subscriber, "pipeline-" + subscriber.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        snapshotTimer.shutdownNow();
+        ringBuffer.stop();
+        try {
+            platformMBeanServer.unregisterMBean(this.objectName);
+        } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+            throw new IllegalStateException("Unable to unregistration PipelineMBean ", e);
+        }
+    }
+
+    /**
+     * Publishes an entry. The ring buffer has a single producer, publishing
+     * inputs (file and syslog) are serialized.
+     *
+     * @param entry the entry.
+     */
+    public synchronized void publish(final LogEntry entry) {
+        ringBuffer.publish(entry);
+        if (++unmarked >= snapshotEvents) {
+            mark();
+        }
+    }
+
+    /**
+     * Publishes entries in order.
+     *
+     * @param entries the entries.
+     */
+    public synchronized void publish(final List<LogEntry> entries) {
+        entries.forEach(this::publish);
+    }
+
+    /**
+     * @return the last complete snapshot, never null.
+     */
+    public DashboardSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private synchronized void markIfNeeded() {
+        if (unmarked > 0) {
+            mark();
+        }
+    }
+
+    private void mark() {
+        if (ringBuffer.publishMarker()) {
+            unmarked = 0;
+        }
+    }
+
+    /*
+     * Called by the subscribers with their part taken at a marker. A part of
+     * a subscriber that was lapped past the marker never arrives, so pending
+     * parts are bounded and dropped once a later snapshot is complete.
+     */
+    private void offer(final long sequence, final LogEntryCollector.Snapshot collector, final LogEntryStatistics.Snapshot statistics) {
+        synchronized (pending) {
+            if (sequence <= snapshot.getVersion()) {
+                return;
+            }
+            final Parts parts = pending.computeIfAbsent(sequence, (s) -> new Parts());
+            if (collector != null) {
+                parts.collector = collector;
+            }
+            if (statistics != null) {
+                parts.statistics = statistics;
+            }
+            if (parts.collector != null && parts.statistics != null) {
+                snapshot = new DashboardSnapshot(sequence, parts.collector, parts.statistics);
+                pending.headMap(sequence, true).clear();
+            } else if (pending.size() > MAX_PENDING_SNAPSHOTS) {
+                pending.pollFirstEntry();
+            }
+        }
+    }
+
+    public void update(final @Observes Configuration c) {
+        if (!c.canContinue()) {
+            snapshotTimer.shutdownNow();
+            ringBuffer.stop();
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return ringBuffer.getCapacity();
+    }
+
+    @Override
+    public String getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    @Override
+    public long getPublished() {
+        return ringBuffer.getPublished();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return ringBuffer.getQueueDepth();
+    }
+
+    @Override
+    public long getDropped() {
+        return ringBuffer.getDropped();
+    }
+
+    @Override
+    public long getSnapshotVersion() {
+        return snapshot.getVersion();
+    }
+
+    @Override
+    public String[] getSubscribers() {
+        return ringBuffer.getSubscribers().stream()
+                .map((s) -> String.format("%s: queue depth %d, dropped %d", s.getName(), s.getQueueDepth(), s.getDropped()))
+                .toArray(String[]::new);
+    }
+
+    private static final class Parts {
+
+        private LogEntryCollector.Snapshot collector;
+        private LogEntryStatistics.Snapshot statistics;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nl.tjonahen.iptableslogd.domain.LogEntry;
+import nl.tjonahen.iptableslogd.domain.LogEntryBatch;
+
+/**
+ * Pre-allocated ring buffer with a single producer and one or more
+ * subscribers. Every subscriber sees every published entry, in order, and runs
+ * on its own thread so a slow subscriber does not stall the others or (unless
+ * the overflow policy is BLOCK) the producer.
+ *
+ * A subscriber takes all entries that are available, up to a maximum, and
+ * delivers them as one LogEntryBatch.
+ *
+ * Besides entries the producer can publish a marker. A subscriber delivers
+ * the entries before the marker and then calls its marker handler with the
+ * sequence of the marker, so every subscriber handles the marker at the same
+ * position in the stream.
+ */
+public final class LogEntryRingBuffer {
+
+    private static final Logger LOGGER = Logger.getLogger(LogEntryRingBuffer.class.getName());
+
+    private static final long WRITING = -1L;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<LogEntry> entries;
+    // the sequence held by each slot, WRITING while the producer replaces it
+    private final AtomicLongArray slots;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final WaitStrategy waitStrategy;
+    private final OverflowPolicy overflowPolicy;
+    private final int sampleRate;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private long cachedMinimum = -1;
+    private long overflowCount;
+    private volatile boolean running = true;
+
+    /**
+     * @param size the number of slots, rounded up to a power of two.
+     * @param waitStrategy how subscribers wait for new entries.
+     * @param overflowPolicy what to do when the buffer is full.
+     * @param sampleRate with SAMPLE, publish one in sampleRate entries while
+     * full.
+     */
+    public LogEntryRingBuffer(final int size, final WaitStrategy waitStrategy, final OverflowPolicy overflowPolicy, final int sampleRate) {
+        this.capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.mask = capacity - 1;
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.slots = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots.set(i, i - (long) capacity);
+        }
+        this.waitStrategy = waitStrategy;
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Adds a subscriber, it receives the entries published from now on. The
+     * caller runs the returned subscriber on its own thread.
+     *
+     * @param name name of the subscriber.
+     * @param handler receives the batches.
+     * @param maxBatch maximum number of entries in a batch.
+     * @return the subscriber.
+     */
+    public Subscriber subscribe(final String name, final Consumer<LogEntryBatch> handler, final int maxBatch) {
+        return subscribe(name, handler, (sequence) -> {
+            // markers are ignored
+        }, maxBatch);
+    }
+
+    /**
+     * Adds a subscriber that handles markers.
+     *
+     * @param name name of the subscriber.
+     * @param handler receives the batches.
+     * @param markerHandler receives the sequence of every marker, after the
+     * entries published before it.
+     * @param maxBatch maximum number of entries in a batch.
+     * @return the subscriber.
+     */
+    public Subscriber subscribe(final String name, final Consumer<LogEntryBatch> handler, final LongConsumer markerHandler, final int maxBatch) {
+        final Subscriber subscriber = new Subscriber(name, handler, markerHandler, Math.max(1, maxBatch));
+        subscribers.add(subscriber);
+        cachedMinimum = -1;
+        return subscriber;
+    }
+
+    /**
+     * Publishes an entry, only called from the producer thread.
+     *
+     * @param entry the entry.
+     * @return false when the entry was dropped or the buffer was stopped.
+     */
+    public boolean publish(final LogEntry entry) {
+        return publish(entry, overflowPolicy);
+    }
+
+    /**
+     * Publishes a marker, only called from the producer thread. A marker is
+     * never sampled away.
+     *
+     * @return false when the marker was dropped or the buffer was stopped.
+     */
+    public boolean publishMarker() {
+        return publish(null, overflowPolicy == OverflowPolicy.SAMPLE ? OverflowPolicy.BLOCK : overflowPolicy);
+    }
+
+    // a null entry is a marker
+    private boolean publish(final LogEntry entry, final OverflowPolicy policy) {
+        final long next = cursor.get() + 1;
+        final long wrapPoint = next - capacity;
+        if (wrapPoint > cachedMinimum && wrapPoint > (cachedMinimum = minimumSequence(next - 1))) {
+            if (!handleOverflow(wrapPoint, policy)) {
+                return false;
+            }
+        } else {
+            overflowCount = 0;
+        }
+        final int index = (int) next & mask;
+        slots.set(index, WRITING);
+        entries.set(index, entry);
+        slots.set(index, next);
+        cursor.set(next);
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    private boolean handleOverflow(final long wrapPoint, final OverflowPolicy policy) {
+        switch (policy) {
+            case DROP_OLDEST:
+                // subscribers notice they are lapped and skip ahead
+                return true;
+            case SAMPLE:
+                if (overflowCount++ % sampleRate != 0) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                return awaitCapacity(wrapPoint);
+            default:
+                return awaitCapacity(wrapPoint);
+        }
+    }
+
+    private boolean awaitCapacity(final long wrapPoint) {
+        while (wrapPoint > (cachedMinimum = minimumSequence(cursor.get()))) {
+            if (!running) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+        return true;
+    }
+
+    private long minimumSequence(final long minimum) {
+        long result = minimum;
+        for (Subscriber subscriber : subscribers) {
+            result = Math.min(result, subscriber.sequence.get());
+        }
+        return result;
+    }
+
+    /**
+     * Stops the subscribers and a producer waiting for capacity.
+     */
+    public void stop() {
+        running = false;
+        waitStrategy.signalAll();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of published entries and markers.
+     */
+    public long getPublished() {
+        return cursor.get() + 1;
+    }
+
+    /**
+     * @return the number of entries not yet consumed by the slowest
+     * subscriber.
+     */
+    public long getQueueDepth() {
+        final long published = cursor.get();
+        return published - minimumSequence(published);
+    }
+
+    /**
+     * @return the number of entries dropped by the producer (SAMPLE) or
+     * skipped by lapped subscribers (DROP_OLDEST).
+     */
+    public long getDropped() {
+        long result = dropped.get();
+        for (Subscriber subscriber : subscribers) {
+            result += subscriber.dropped.get();
+        }
+        return result;
+    }
+
+    public List<Subscriber> getSubscribers() {
+        return new ArrayList<>(subscribers);
+    }
+
+    /**
+     * Consumes the ring buffer on its own thread.
+     */
+    public final class Subscriber implements Runnable {
+
+        private final String name;
+        private final Consumer<LogEntryBatch> handler;
+        private final LongConsumer markerHandler;
+        private final int maxBatch;
+        private final AtomicLong sequence;
+        private final AtomicLong dropped = new AtomicLong();
+
+        private Subscriber(final String name, final Consumer<LogEntryBatch> handler, final LongConsumer markerHandler, final int maxBatch) {
+            this.name = name;
+            this.handler = handler;
+            this.markerHandler = markerHandler;
+            this.maxBatch = maxBatch;
+            this.sequence = new AtomicLong(cursor.get());
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            while (running) {
+                final long available = waitStrategy.waitFor(next, cursor, () -> running);
+                if (available >= next) {
+                    next = consume(next, Math.min(available, next + maxBatch - 1));
+                    sequence.set(next - 1);
+                }
+            }
+            LOGGER.info(() -> String.format("Subscriber %s stopped.", name));
+        }
+
+        /*
+         * Deliver the entries from next up to and including last, returns the
+         * next sequence to consume.
+         */
+        private long consume(final long next, final long last) {
+            List<LogEntry> batch = new ArrayList<>((int) (last - next + 1));
+            long seq = next;
+            while (seq <= last) {
+                final int index = (int) seq & mask;
+                final LogEntry entry = entries.get(index);
+                // the producer marks a slot before replacing the entry, so an
+                // unchanged slot sequence means the entry read is the right one
+                if (slots.get(index) != seq) {
+                    // lapped by the producer, continue with the oldest entry still available
+                    final long oldest = Math.max(seq, cursor.get() - capacity + 1);
+                    dropped.addAndGet(oldest - seq);
+                    seq = oldest;
+                    break;
+                }
+                if (entry == null) {
+                    if (!batch.isEmpty()) {
+                        deliver(batch);
+                        batch = new ArrayList<>((int) (last - seq));
+                    }
+                    mark(seq);
+                } else {
+                    batch.add(entry);
+                }
+                seq++;
+            }
+            if (!batch.isEmpty()) {
+                deliver(batch);
+            }
+            return seq;
+        }
+
+        private void deliver(final List<LogEntry> batch) {
+            try {
+                handler.accept(new LogEntryBatch(batch));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Subscriber " + name + " failed ", e);
+            }
+        }
+
+        private void mark(final long seq) {
+            try {
+                markerHandler.accept(seq);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Subscriber " + name + " failed on marker ", e);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of entries published but not yet consumed.
+         */
+        public long getQueueDepth() {
+            return cursor.get() - sequence.get();
+        }
+
+        /**
+         * @return the number of entries skipped because this subscriber was
+         * lapped.
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+    }
+}
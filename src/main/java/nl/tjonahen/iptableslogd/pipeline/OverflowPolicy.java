@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.pipeline;
+
+import java.util.Locale;
+
+/**
+ * What the producer does when the ring buffer is full because a consumer
+ * falls behind.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait for the slowest consumer, nothing is lost but reading the log stalls.
+     */
+    BLOCK,
+    /**
+     * Overwrite the oldest unconsumed entries, a consumer that is lapped skips
+     * them.
+     */
+    DROP_OLDEST,
+    /**
+     * Only publish every n-th entry while the buffer is full, the others are
+     * dropped.
+     */
+    SAMPLE;
+
+    /**
+     * @param name block, drop-oldest or sample.
+     * @return the policy.
+     */
+    public static OverflowPolicy of(final String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
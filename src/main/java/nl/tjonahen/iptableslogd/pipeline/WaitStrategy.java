@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.pipeline;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a consumer waits for the producer to publish the next sequence.
+ *
+ * <ul>
+ * <li>blocking: waits on a lock condition, no CPU use when idle.</li>
+ * <li>sleeping: spins, yields and then parks with increasing intervals.</li>
+ * <li>yielding: spins and then yields the thread, low latency.</li>
+ * <li>busy-spin: spins, lowest latency but uses a core per consumer.</li>
+ * </ul>
+ */
+public abstract class WaitStrategy {
+
+    private static final int SPIN_TRIES = 100;
+
+    /**
+     * Waits until the cursor reaches the sequence.
+     *
+     * @param sequence the sequence to wait for.
+     * @param cursor the producer cursor.
+     * @param running stops waiting when it returns false.
+     * @return the available sequence, or a value below sequence when stopped.
+     */
+    public abstract long waitFor(long sequence, AtomicLong cursor, BooleanSupplier running);
+
+    /**
+     * Called by the producer after a sequence is published.
+     */
+    public void signalAll() {
+        // only needed by strategies that block
+    }
+
+    /**
+     * @param name blocking, sleeping, yielding or busy-spin.
+     * @return a new wait strategy.
+     */
+    public static WaitStrategy of(final String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "blocking":
+                return new Blocking();
+            case "sleeping":
+                return new Sleeping();
+            case "yielding":
+                return new Yielding();
+            case "busy-spin":
+                return new BusySpin();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy " + name);
+        }
+    }
+
+    private static final class Blocking extends WaitStrategy {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition published = lock.newCondition();
+        private volatile int waiters;
+
+        @Override
+        public long waitFor(final long sequence, final AtomicLong cursor, final BooleanSupplier running) {
+            long available = cursor.get();
+            if (available >= sequence) {
+                return available;
+            }
+            lock.lock();
+            try {
+                waiters++;
+                while ((available = cursor.get()) < sequence && running.getAsBoolean()) {
+                    // timed, so a stop request is noticed without a signal
+                    published.await(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters--;
+                lock.unlock();
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAll() {
+            if (waiters > 0) {
+                lock.lock();
+                try {
+                    published.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static final class Sleeping extends WaitStrategy {
+
+        @Override
+        public long waitFor(final long sequence, final AtomicLong cursor, final BooleanSupplier running) {
+            long available;
+            int counter = 0;
+            while ((available = cursor.get()) < sequence && running.getAsBoolean()) {
+                if (counter < SPIN_TRIES) {
+                    counter++;
+                } else if (counter < 2 * SPIN_TRIES) {
+                    counter++;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                }
+            }
+            return available;
+        }
+    }
+
+    private static final class Yielding extends WaitStrategy {
+
+        @Override
+        public long waitFor(final long sequence, final AtomicLong cursor, final BooleanSupplier running) {
+            long available;
+            int counter = 0;
+            while ((available = cursor.get()) < sequence && running.getAsBoolean()) {
+                if (counter < SPIN_TRIES) {
+                    counter++;
+                } else {
+                    Thread.yield();
+                }
+            }
+            return available;
+        }
+    }
+
+    private static final class BusySpin extends WaitStrategy {
+
+        @Override
+        public long waitFor(final long sequence, final AtomicLong cursor, final BooleanSupplier running) {
+            long available;
+            while ((available = cursor.get()) < sequence && running.getAsBoolean()) {
+                // spin
+            }
+            return available;
+        }
+    }
+}
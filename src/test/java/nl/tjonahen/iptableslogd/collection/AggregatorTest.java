@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class AggregatorTest {
+
+    @Test
+    public void testAggregate() {
+        final AtomicInteger extracted = new AtomicInteger();
+        final Aggregator<String> aggregator = new Aggregator<>(2, (s) -> {
+            extracted.incrementAndGet();
+            return s.substring(0, 1);
+        });
+        assertEquals(1, aggregator.add("a1"));
+        assertEquals(2, aggregator.add("a2"));
+        assertEquals(1, aggregator.add("b1"));
+        assertEquals(3, extracted.get());
+        assertEquals(2, aggregator.getAggregateCount("a"));
+        assertEquals(Arrays.asList("a1", "b1"), aggregator.snapshot());
+
+        // the oldest identity is evicted, a count does not refresh it
+        aggregator.add("c1");
+        assertEquals(0, aggregator.getAggregateCount("a"));
+        assertEquals(1, aggregator.getAggregateCount("b"));
+        assertEquals(2, aggregator.size());
+        assertEquals(Arrays.asList("b1", "c1"), aggregator.snapshot());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class CountMinSketchTest {
+
+    @Test
+    public void testErrorBound() {
+        final CountMinSketch sketch = new CountMinSketch(1000, 4);
+        assertEquals(1024, sketch.getWidth());
+        final Map<Long, Long> exact = new HashMap<>();
+        final Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            // a few heavy keys and many light ones
+            final long key = i % 10 == 0 ? random.nextInt(10) : random.nextInt(50000) + 100;
+            sketch.add(key, 1);
+            exact.merge(key, 1L, Long::sum);
+        }
+        assertEquals(100000, sketch.getTotal());
+        final long bound = sketch.getErrorBound();
+        int outside = 0;
+        for (Map.Entry<Long, Long> e : exact.entrySet()) {
+            final long estimate = sketch.estimate(e.getKey());
+            assertTrue(estimate >= e.getValue());
+            if (estimate - e.getValue() > bound) {
+                outside++;
+            }
+        }
+        // at most e^-4, about 1.8%, of the estimates may exceed the bound
+        assertTrue(outside <= exact.size() * (1 - sketch.getConfidence()));
+        // the heavy keys stand out
+        for (long key = 0; key < 10; key++) {
+            assertTrue(sketch.estimate(key) - exact.get(key) <= bound);
+        }
+    }
+
+    @Test
+    public void testConservativeUpdate() {
+        final CountMinSketch sketch = new CountMinSketch(2, 1);
+        sketch.add(0, 5);
+        sketch.add(0, 2);
+        assertEquals(7, sketch.estimate(0));
+        // the one other key that shares the counter, it is raised only as
+        // far as its own estimate requires
+        long other = 1;
+        while (sketch.estimate(other) == 0) {
+            other++;
+        }
+        sketch.add(other, 1);
+        assertEquals(8, sketch.estimate(0));
+        assertEquals(8, sketch.estimate(other));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testSmallCounts() {
+        final HyperLogLog sketch = new HyperLogLog(8);
+        assertEquals(0, sketch.estimate());
+        for (int i = 0; i < 10; i++) {
+            sketch.add(i);
+            sketch.add(i);
+        }
+        assertEquals(10, sketch.estimate(), 1);
+    }
+
+    @Test
+    public void testLargeCounts() {
+        final HyperLogLog sketch = new HyperLogLog(8);
+        for (int i = 0; i < 100_000; i++) {
+            sketch.add(i);
+        }
+        // 4 standard errors of 6.5%
+        assertTrue(Math.abs(sketch.estimate() - 100_000) < 26_000);
+    }
+
+    @Test
+    public void testMerge() {
+        final HyperLogLog ports = new HyperLogLog(8);
+        final HyperLogLog other = new HyperLogLog(8);
+        for (int i = 0; i < 20; i++) {
+            ports.add(i);
+            other.add(i + 10);
+        }
+        final HyperLogLog merged = new HyperLogLog(ports);
+        merged.merge(other);
+        // linear counting, within 10%
+        assertEquals(20, ports.estimate(), 2);
+        assertEquals(30, merged.estimate(), 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergePrecision() {
+        new HyperLogLog(8).merge(new HyperLogLog(10));
+    }
+}
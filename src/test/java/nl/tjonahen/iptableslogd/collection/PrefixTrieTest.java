@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PrefixTrieTest {
+
+    private static long v4(final int a, final int b, final int c, final int d) {
+        return ((long) a << 24 | b << 16 | c << 8 | d) << 32;
+    }
+
+    @Test
+    public void testIpv4() {
+        final PrefixTrie trie = new PrefixTrie();
+        trie.add(v4(10, 3, 0, 0), 0, 16);
+        trie.add(v4(192, 168, 1, 128), 0, 25);
+        trie.add(v4(172, 16, 0, 1), 0, 32);
+        assertTrue(trie.matches(v4(10, 3, 200, 1), 0));
+        assertFalse(trie.matches(v4(10, 4, 0, 1), 0));
+        assertTrue(trie.matches(v4(192, 168, 1, 255), 0));
+        assertFalse(trie.matches(v4(192, 168, 1, 127), 0));
+        assertTrue(trie.matches(v4(172, 16, 0, 1), 0));
+        assertFalse(trie.matches(v4(172, 16, 0, 2), 0));
+
+        // a shorter prefix covers a longer one
+        trie.add(v4(10, 0, 0, 0), 0, 12);
+        assertTrue(trie.matches(v4(10, 3, 200, 1), 0));
+        assertTrue(trie.matches(v4(10, 15, 0, 1), 0));
+        assertFalse(trie.matches(v4(10, 16, 0, 1), 0));
+    }
+
+    @Test
+    public void testIpv6() {
+        final PrefixTrie trie = new PrefixTrie();
+        trie.add(0xfd00000000000000L, 0, 8);
+        trie.add(0x20010db800000000L, 0x1L, 128);
+        assertTrue(trie.matches(0xfdffffffffffffffL, 1));
+        assertFalse(trie.matches(0xfc00000000000000L, 1));
+        assertTrue(trie.matches(0x20010db800000000L, 0x1L));
+        assertFalse(trie.matches(0x20010db800000000L, 0x2L));
+    }
+
+    @Test
+    public void testAll() {
+        final PrefixTrie trie = new PrefixTrie();
+        assertFalse(trie.matches(0, 0));
+        trie.add(0, 0, 0);
+        assertTrue(trie.matches(-1L, -1L));
+    }
+}
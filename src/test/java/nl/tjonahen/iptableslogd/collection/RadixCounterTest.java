@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class RadixCounterTest {
+
+    private static long ipv4(final int a, final int b, final int c, final int d) {
+        return (long) (a << 24 | b << 16 | c << 8 | d) << 32;
+    }
+
+    @Test
+    public void testPrefixCounts() {
+        final RadixCounter counter = new RadixCounter(32, 4096);
+        // a scan spread over one /24, no single host stands out
+        for (int i = 0; i < 200; i++) {
+            counter.add(ipv4(203, 0, 113, i), 0, 1);
+        }
+        counter.add(ipv4(198, 51, 100, 7), 0, 50);
+        counter.add(ipv4(198, 51, 200, 7), 0, 10);
+        assertEquals(260, counter.getTotal());
+
+        final List<RadixCounter.Prefix> top24 = counter.top(24, 10);
+        assertEquals(3, top24.size());
+        assertEquals(ipv4(203, 0, 113, 0), top24.get(0).getHigh());
+        assertEquals(200, top24.get(0).getCount());
+        assertEquals(24, top24.get(0).getLength());
+
+        final List<RadixCounter.Prefix> top16 = counter.top(16, 1);
+        assertEquals(1, top16.size());
+        assertEquals(ipv4(203, 0, 0, 0), top16.get(0).getHigh());
+        assertEquals(ipv4(198, 51, 0, 0), counter.top(16, 2).get(1).getHigh());
+        assertEquals(60, counter.top(16, 2).get(1).getCount());
+        assertEquals(1, counter.top(32, 1).size());
+        assertEquals(50, counter.top(32, 1).get(0).getCount());
+    }
+
+    @Test
+    public void testHeavyHitters() {
+        final RadixCounter counter = new RadixCounter(32, 4096);
+        // spread evenly, neither half of the /24 is heavy on its own
+        for (int i = 0; i < 160; i++) {
+            counter.add(ipv4(203, 0, 113, i * 256 / 160), 0, 1);
+        }
+        counter.add(ipv4(198, 51, 100, 7), 0, 100);
+        for (int i = 0; i < 700; i++) {
+            counter.add(ipv4(i % 256, i / 256, 0, 1), 0, 1);
+        }
+        final List<RadixCounter.Prefix> hitters = counter.heavyHitters(0.1);
+        // the host and the /24 of the scan, the background only in short prefixes
+        assertEquals(32, hitters.get(0).getLength());
+        assertEquals(ipv4(198, 51, 100, 7), hitters.get(0).getHigh());
+        assertEquals(100, hitters.get(0).getCount());
+        long discounted = 0;
+        boolean scan = false;
+        for (RadixCounter.Prefix p : hitters) {
+            assertTrue(p.getCount() >= 96);
+            if (p.getLength() > 8) {
+                assertTrue(p == hitters.get(0) || p.getLength() == 24);
+            }
+            if (p.getLength() == 24) {
+                assertEquals(ipv4(203, 0, 113, 0), p.getHigh());
+                assertEquals(160, p.getCount());
+                scan = true;
+            }
+            discounted += p.getCount();
+        }
+        assertTrue(scan);
+        assertTrue(discounted <= counter.getTotal());
+    }
+
+    @Test
+    public void testCompaction() {
+        final RadixCounter counter = new RadixCounter(32, 512);
+        for (int i = 0; i < 100000; i++) {
+            counter.add(ipv4(10, 1, 2, 3), 0, 1);
+            counter.add(ipv4(i & 0xff, i >>> 8 & 0xff, i * 7 & 0xff, i * 13 & 0xff), 0, 1);
+            assertTrue(counter.getNodes() <= 512);
+        }
+        // counts merged into a parent are kept
+        assertEquals(200000, counter.getTotal());
+        assertEquals(200000, counter.top(0, 1).get(0).getCount());
+        final RadixCounter.Prefix hot = counter.top(32, 1).get(0);
+        assertEquals(ipv4(10, 1, 2, 3), hot.getHigh());
+        assertEquals(100000, hot.getCount());
+    }
+
+    @Test
+    public void testIpv6() {
+        final RadixCounter counter = new RadixCounter(128, 4096);
+        counter.add(0x20010db800010000L, 1, 5);
+        counter.add(0x20010db800010000L, 2, 5);
+        counter.add(0x20010db800010001L, 1, 3);
+        counter.add(0x20010db800020000L, 1, 1);
+        final List<RadixCounter.Prefix> top48 = counter.top(48, 10);
+        assertEquals(2, top48.size());
+        assertEquals(0x20010db800010000L, top48.get(0).getHigh());
+        assertEquals(13, top48.get(0).getCount());
+        assertEquals(3, counter.top(64, 10).size());
+        assertEquals(10, counter.top(64, 10).get(0).getCount());
+        assertEquals(2, counter.top(128, 1).get(0).getLow() + 1);
+    }
+}
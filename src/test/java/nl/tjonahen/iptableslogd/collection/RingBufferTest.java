@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class RingBufferTest {
+
+    @Test
+    public void testEviction() {
+        final List<String> evicted = new ArrayList<>();
+        final RingBuffer<String> ring = new RingBuffer<>(3);
+        ring.setCallback((s) -> {
+            evicted.add(s);
+            return null;
+        });
+        ring.add("a");
+        ring.add("b");
+        assertEquals(Arrays.asList("a", "b"), ring.snapshot());
+        ring.add("c");
+        ring.add("d");
+        ring.add("e");
+        assertEquals(3, ring.size());
+        assertEquals(Arrays.asList("c", "d", "e"), ring.snapshot());
+        assertEquals(Arrays.asList("a", "b"), evicted);
+        assertEquals(Arrays.asList("c", "d", "e"), new ArrayList<>(ring));
+    }
+
+    @Test
+    public void testConcurrentSnapshot() throws InterruptedException {
+        final RingBuffer<Integer> ring = new RingBuffer<>(64);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread writer = new Thread(() -> {
+            int i = 0;
+            while (running.get()) {
+                ring.add(i++);
+            }
+        });
+        writer.start();
+        try {
+            for (int n = 0; n < 10000; n++) {
+                final List<Integer> snapshot = ring.snapshot();
+                assertTrue(snapshot.size() <= 64);
+                for (int i = 1; i < snapshot.size(); i++) {
+                    assertEquals(snapshot.get(i - 1) + 1, (int) snapshot.get(i));
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+}
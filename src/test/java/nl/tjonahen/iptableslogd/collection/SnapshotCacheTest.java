@@ -16,37 +16,27 @@
  */
 package nl.tjonahen.iptableslogd.collection;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
-public class FixedSizeArrayListTest {
+public class SnapshotCacheTest {
 
     @Test
-    public void testTrimToSize() {
-        ArrayList<String> list = new FixedSizeList<>(10);
-        list.add("String1");
-        list.add("String2");
-        list.add("String3");
-        assertEquals(3, list.size());
-        list.trimToSize();
-        assertEquals(3, list.size());
-        list.add("String4");
-        assertEquals(3, list.size());
+    public void testReuse() throws InterruptedException {
+        final AtomicInteger copies = new AtomicInteger();
+        final SnapshotCache<Integer> cache = new SnapshotCache<>(copies::incrementAndGet);
+        assertEquals(1, cache.get().intValue());
+        assertEquals(1, cache.get().intValue());
 
-    }
+        // changed, but the copy is less than a second old
+        cache.changed();
+        assertEquals(1, cache.get().intValue());
 
-    @Test
-    public void testAddT() {
-        List<String> list = new FixedSizeList<>(2);
-        assertEquals(0, list.size());
-        list.add("String1");
-        assertEquals(1, list.size());
-        list.add("String2");
-        assertEquals(2, list.size());
-        list.add("String3");
-        assertEquals(2, list.size());
+        Thread.sleep(1100);
+        assertEquals(2, cache.get().intValue());
+        // not changed since
+        Thread.sleep(1100);
+        assertEquals(2, cache.get().intValue());
     }
-
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class SpaceSavingTest {
+
+    private static final int KEYS = 10000;
+    private static final int EVENTS = 200000;
+    private static final int CAPACITY = 100;
+
+    /*
+     * Zipf distributed keys, s = 1.1, by inverting the cumulative distribution.
+     */
+    private static int[] zipf(final long seed) {
+        final double[] cumulative = new double[KEYS];
+        double sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += 1.0 / Math.pow(i + 1, 1.1);
+            cumulative[i] = sum;
+        }
+        final Random random = new Random(seed);
+        final int[] events = new int[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            final int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            events[i] = index < 0 ? -index - 1 : index;
+        }
+        return events;
+    }
+
+    @Test
+    public void testZipfAccuracy() {
+        final SpaceSaving<Integer> summary = new SpaceSaving<>(CAPACITY);
+        final Map<Integer, Long> exact = new HashMap<>();
+        final int[] events = zipf(42);
+        for (int i = 0; i < events.length; i++) {
+            summary.offer(events[i], i);
+            exact.merge(events[i], 1L, Long::sum);
+        }
+        assertEquals(EVENTS, summary.getTotal());
+        assertEquals(CAPACITY, summary.size());
+
+        final List<SpaceSaving.Counted<Integer>> top = summary.top(10);
+        final Set<Integer> exactTop = exact.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Long>comparingByValue().reversed())
+                .limit(10).map(Map.Entry::getKey).collect(Collectors.toSet());
+        assertEquals(exactTop, top.stream().map(SpaceSaving.Counted::getKey).collect(Collectors.toSet()));
+
+        for (SpaceSaving.Counted<Integer> counted : summary.top(CAPACITY)) {
+            final long count = exact.get(counted.getKey());
+            assertTrue(counted.getCount() >= count);
+            assertTrue(counted.getCount() - counted.getError() <= count);
+            assertTrue(counted.getError() <= EVENTS / CAPACITY);
+        }
+    }
+
+    @Test
+    public void testSteadyKeyClimbs() {
+        final SpaceSaving<String> summary = new SpaceSaving<>(4);
+        for (int i = 0; i < 100; i++) {
+            // a steady key every second event, a new key in between
+            summary.offer(i % 2 == 0 ? "steady" : "noise" + i, i);
+        }
+        final List<SpaceSaving.Counted<String>> top = summary.top(1);
+        assertEquals("steady", top.get(0).getKey());
+        assertEquals(50, top.get(0).getCount());
+        assertEquals(98, top.get(0).getLastSeen());
+    }
+
+    @Test
+    public void testOrder() {
+        final SpaceSaving<String> summary = new SpaceSaving<>(10);
+        summary.offer("a", 1);
+        summary.offer("b", 2);
+        summary.offer("b", 3);
+        summary.offer("c", 4);
+        final List<SpaceSaving.Counted<String>> top = summary.top(3);
+        assertEquals("b", top.get(0).getKey());
+        assertEquals(2, top.get(0).getCount());
+        // equal counts, latest first
+        assertEquals("c", top.get(1).getKey());
+        assertEquals("a", top.get(2).getKey());
+        assertEquals(0, top.get(2).getError());
+    }
+}
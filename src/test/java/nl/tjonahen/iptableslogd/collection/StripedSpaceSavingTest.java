@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class StripedSpaceSavingTest {
+
+    @Test
+    public void testConcurrentOffers() throws Exception {
+        final StripedSpaceSaving<String> summary = new StripedSpaceSaving<>(64, 4);
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            keys.add("key" + i);
+        }
+        final long[] times = new long[keys.size()];
+        Arrays.fill(times, 7L);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        summary.offer(keys, times);
+                        summary.offer("single", i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(44000, summary.getTotal());
+        final List<SpaceSaving.Counted<String>> top = summary.top(11);
+        assertEquals(11, top.size());
+        for (SpaceSaving.Counted<String> counted : top) {
+            assertEquals(4000, counted.getCount());
+            assertEquals(0, counted.getError());
+        }
+    }
+
+    @Test
+    public void testSkipsNullKeys() {
+        final StripedSpaceSaving<String> summary = new StripedSpaceSaving<>(8, 16);
+        assertEquals(8, summary.getStripes());
+        summary.offer(Arrays.asList("a", null, "a"), new long[]{1, 2, 3});
+        assertEquals(2, summary.getTotal());
+        assertEquals(3, summary.top(1).get(0).getLastSeen());
+    }
+}
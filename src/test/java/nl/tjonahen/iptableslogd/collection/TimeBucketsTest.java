@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.collection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class TimeBucketsTest {
+
+    private static void add(final TimeBuckets buckets, final int series, final long time) {
+        final int slot = buckets.slot(time);
+        if (slot >= 0) {
+            buckets.add(series, slot, 1);
+        }
+    }
+
+    @Test
+    public void testCounts() {
+        final TimeBuckets buckets = new TimeBuckets(1000, 4, 2);
+        add(buckets, 0, 1000);
+        add(buckets, 0, 1999);
+        add(buckets, 1, 1500);
+        add(buckets, 0, 3000);
+        assertArrayEquals(new long[]{0, 0, 2, 0}, buckets.counts(0, 2000));
+        assertArrayEquals(new long[]{0, 2, 0, 1}, buckets.counts(0, 3000));
+        assertArrayEquals(new long[]{0, 1, 0, 0}, buckets.counts(1, 3000));
+        assertEquals(3000, buckets.getLatest());
+    }
+
+    @Test
+    public void testWrap() {
+        final TimeBuckets buckets = new TimeBuckets(1000, 4, 1);
+        add(buckets, 0, 1000);
+        add(buckets, 0, 5000);
+        // period 1 is reused by period 5
+        assertArrayEquals(new long[]{0, 0, 0, 1}, buckets.counts(0, 5000));
+        // older than the ring
+        assertEquals(-1, buckets.slot(1000));
+        add(buckets, 0, 2000);
+        assertArrayEquals(new long[]{1, 0, 0, 1}, buckets.counts(0, 5000));
+        // a period after the last counted one is empty
+        assertArrayEquals(new long[]{0, 0, 0, 0}, buckets.counts(0, 60000));
+    }
+}
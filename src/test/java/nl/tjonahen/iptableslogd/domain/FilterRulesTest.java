@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import nl.tjonahen.iptableslogd.domain.FilterRules.Action;
+import static nl.tjonahen.iptableslogd.domain.LogEntryBuilder.entry;
+import org.junit.Test;
+
+public class FilterRulesTest {
+
+    @Test
+    public void testDefault() {
+        final FilterRules rules = FilterRules.compile(FilterRules.DEFAULT);
+        assertEquals(Action.HIDE.ordinal() + 1, rules.evaluate(entry().in("docker0").source("10.0.0.1").protocol("TCP").port(22).build()));
+        assertTrue(Action.IGNORE.isSet(rules.evaluate(entry().in("eth0").source("10.0.0.1").protocol("UDP").port(138).build())));
+        assertFalse(Action.IGNORE.isSet(rules.evaluate(entry().in("eth0").source("10.0.0.1").protocol("UDP").port(140).build())));
+        assertEquals(0, rules.evaluate(entry().in("eth0").source("10.0.0.1").protocol("TCP").port(22).build()));
+    }
+
+    @Test
+    public void testTerms() {
+        final FilterRules rules = FilterRules.compile("ignore src=10.0.0.0/8,fd00::/8 proto=udp,6 dir=in in=eth?");
+        assertTrue(Action.IGNORE.isSet(rules.evaluate(entry().in("eth0").source("10.1.2.3").protocol("UDP").port(53).build())));
+        assertTrue(Action.IGNORE.isSet(rules.evaluate(entry().in("eth1").source("10.1.2.3").protocol("TCP").port(53).build())));
+        assertTrue(Action.IGNORE.isSet(rules.evaluate(entry().in("eth1").source("fd00:0000:0000:0000:0000:0000:0000:0001").protocol("TCP").port(53).build())));
+        // each term on its own
+        assertEquals(0, rules.evaluate(entry().in("eth0").source("11.1.2.3").protocol("UDP").port(53).build()));
+        assertEquals(0, rules.evaluate(entry().in("eth0").source("10.1.2.3").protocol("ICMP").port(53).build()));
+        assertEquals(0, rules.evaluate(entry().in("eth0").out("eth1").source("10.1.2.3").protocol("UDP").port(53).build()));
+        assertEquals(0, rules.evaluate(entry().in("eth10").source("10.1.2.3").protocol("UDP").port(53).build()));
+    }
+
+    @Test
+    public void testPrefixes() {
+        final FilterRules rules = FilterRules.compile("hide src=192.168.1.128/25,172.16.0.1");
+        assertTrue(Action.HIDE.isSet(rules.evaluate(entry().in("eth0").source("192.168.1.200").protocol("TCP").port(1).build())));
+        assertFalse(Action.HIDE.isSet(rules.evaluate(entry().in("eth0").source("192.168.1.127").protocol("TCP").port(1).build())));
+        assertTrue(Action.HIDE.isSet(rules.evaluate(entry().in("eth0").source("172.16.0.1").protocol("TCP").port(1).build())));
+        assertFalse(Action.HIDE.isSet(rules.evaluate(entry().in("eth0").source("172.16.0.2").protocol("TCP").port(1).build())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        FilterRules.compile("ignore dport=100-10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownKey() {
+        FilterRules.compile("hide port=22");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAction() {
+        FilterRules.compile("drop dport=22");
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static nl.tjonahen.iptableslogd.domain.LogEntryBuilder.entry;
+import org.junit.Test;
+
+public class FrequencySketchesTest {
+
+    @Test
+    public void testLookup() {
+        final FrequencySketches sketches = new FrequencySketches(1024, 4);
+        sketches.add(Arrays.asList(
+                entry().source("203.0.113.7").port(22).build(),
+                entry().source("203.0.113.7").port(23).build(),
+                entry().source("2001:db8::1").port(22).build()));
+        assertEquals(2, sketches.estimateSource("203.0.113.7").getCount());
+        assertEquals(1, sketches.estimateSource("2001:0db8:0000:0000:0000:0000:0000:0001").getCount());
+        assertEquals(0, sketches.estimateSource("198.51.100.1").getCount());
+        assertEquals(2, sketches.estimatePort(22).getCount());
+        assertEquals(0, sketches.estimatePort(80).getCount());
+        assertEquals(1, sketches.estimatePort(22).getError());
+    }
+
+    @Test
+    public void testSnapshot() {
+        final FrequencySketches sketches = new FrequencySketches(1024, 4);
+        sketches.add(Collections.singletonList(entry().source("203.0.113.7").port(22).build()));
+        final FrequencySketches snapshot = sketches.snapshot();
+        sketches.add(Collections.singletonList(entry().source("203.0.113.7").port(22).build()));
+        assertEquals(2, sketches.estimateSource("203.0.113.7").getCount());
+        // the copy does not change and is reused within a second
+        assertEquals(1, snapshot.estimateSource("203.0.113.7").getCount());
+        assertEquals(1, snapshot.estimatePort(22).getCount());
+        assertSame(snapshot, sketches.snapshot());
+    }
+}
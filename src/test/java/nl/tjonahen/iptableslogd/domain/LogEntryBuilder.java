@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+/**
+ * Builds the log entries of the tests from a syslog line of the "ulog"
+ * source, every field not set has a fixed value.
+ */
+final class LogEntryBuilder {
+
+    private String time = "16:10:09";
+    private String in = "eth0";
+    private String out = "";
+    private String source = "10.0.0.1";
+    private String destination = "192.168.1.2";
+    private String protocol = "TCP";
+    private int port = 22;
+
+    private LogEntryBuilder() {
+    }
+
+    static LogEntryBuilder entry() {
+        return new LogEntryBuilder();
+    }
+
+    LogEntryBuilder time(final String time) {
+        this.time = time;
+        return this;
+    }
+
+    LogEntryBuilder in(final String in) {
+        this.in = in;
+        return this;
+    }
+
+    LogEntryBuilder out(final String out) {
+        this.out = out;
+        return this;
+    }
+
+    LogEntryBuilder source(final String source) {
+        this.source = source;
+        return this;
+    }
+
+    LogEntryBuilder destination(final String destination) {
+        this.destination = destination;
+        return this;
+    }
+
+    LogEntryBuilder protocol(final String protocol) {
+        this.protocol = protocol;
+        return this;
+    }
+
+    LogEntryBuilder port(final int port) {
+        this.port = port;
+        return this;
+    }
+
+    LogEntry build() {
+        return new LogEntry("Jun 18 " + time + " host IN=" + in + " OUT=" + out + " SRC=" + source + " DST=" + destination
+                + " LEN=40 TOS=0x00 PREC=0x00 TTL=50 ID=1 PROTO=" + protocol + " SPT=40000 DPT=" + port, "ulog");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import nl.tjonahen.iptableslogd.domain.LogLineParser.Flag;
+import org.junit.Test;
+
+public class LogEntryTest {
+
+    @Test
+    public void testIpv4() {
+        final LogEntry entry = new LogEntry("Jun 18 16:10:09 eb8740w  IN=wlan0 OUT= MAC=01:00:5e:00:00:fb:dc:86:d8:21:50:94:08:00 "
+                + "SRC=145.89.78.8 DST=224.0.0.251 LEN=248 TOS=00 PREC=0x00 TTL=255 ID=33635 PROTO=UDP SPT=5353 DPT=5353 LEN=228 MARK=0");
+        assertEquals("Jun 18 16:10:09", entry.getDateTime());
+        assertEquals("wlan0", entry.getInInterface());
+        assertEquals("", entry.getOutInterface());
+        assertEquals("01:00:5e:00:00:fb:dc:86:d8:21:50:94:08:00", entry.getMacAdress());
+        assertEquals("145.89.78.8", entry.getSource());
+        assertEquals("224.0.0.251", entry.getDestination());
+        assertEquals("33635", entry.getId());
+        assertEquals("UDP", entry.getProtocol());
+        assertEquals("5353", entry.getSourcePort());
+        assertEquals("5353", entry.getDestinationPort());
+    }
+
+    @Test
+    public void testIpv6() {
+        final LogEntry entry = new LogEntry("Jun 18 16:10:09 host kernel: IN=eth0 OUT= "
+                + "SRC=fe80:0000:0000:0000:0202:b3ff:fe1e:8329 DST=ff02::1 LEN=72 PROTO=ICMPv6 TYPE=134 CODE=0");
+        assertEquals("fe80:0000:0000:0000:0202:b3ff:fe1e:8329", entry.getSource());
+        assertEquals("ff02:0000:0000:0000:0000:0000:0000:0001", entry.getDestination());
+        assertEquals("ICMPv6", entry.getProtocol());
+        assertEquals("", entry.getSourcePort());
+        assertEquals("", entry.getDestinationPort());
+        assertEquals("", entry.getId());
+        assertEquals("", entry.getMacAdress());
+    }
+
+    @Test
+    public void testOtherValues() {
+        final LogEntry entry = new LogEntry("Jun 18 16:10:09 host kernel: IN=eth0 SRC=not-an-address DST=10.0.0.1 PROTO=47");
+        assertEquals("not-an-address", entry.getSource());
+        assertEquals("10.0.0.1", entry.getDestination());
+        assertEquals("47", entry.getProtocol());
+        assertEquals("IGMP", new LogEntry("Jun 18 16:10:09 host kernel: PROTO=2").getProtocol());
+        assertEquals("", new LogEntry("Jun 18 16:10:09 host kernel: IN=eth0").getProtocol());
+    }
+
+    @Test
+    public void testInvalidDateTime() {
+        final LogEntry entry = new LogEntry("Xyz 99 16:10:09 host kernel: SRC=10.0.0.1 DST=10.0.0.2").compact();
+        assertEquals(0, entry.getTime());
+        assertEquals("Xyz 99 16:10:09", entry.getDateTime());
+    }
+
+    @Test
+    public void testSameSource() {
+        final LogEntry a = new LogEntry("Jun 18 16:10:09 host kernel: SRC=10.0.0.1 DST=10.0.0.2");
+        final LogEntry b = new LogEntry("Jun 18 16:10:10 host kernel: SRC=10.0.0.1 DST=10.0.0.3");
+        final LogEntry c = new LogEntry("Jun 18 16:10:10 host kernel: SRC=::1 DST=::2");
+        assertTrue(a.hasSameSource(b));
+        assertFalse(a.hasSameSource(c));
+        assertTrue(c.hasSameSource(new LogEntry("Jun 18 16:10:11 host kernel: SRC=0:0:0:0:0:0:0:1")));
+    }
+
+    @Test
+    public void testHeaderFields() {
+        final LogEntry entry = new LogEntry("Oct 23 09:25:49 host kernel: IN=eth0 OUT= SRC=10.0.0.1 DST=10.0.0.2 LEN=60 TOS=0x10 PREC=0x00 "
+                + "TTL=64 ID=0 DF PROTO=TCP SPT=51234 DPT=22 WINDOW=29200 RES=0x00 SYN URGP=0 MARK=0x1f");
+        assertEquals(60, entry.getLength());
+        assertEquals(0x10, entry.getTos());
+        assertEquals(0, entry.getPrecedence());
+        assertEquals(64, entry.getTtl());
+        assertEquals(0x1f, entry.getMark());
+        assertEquals("0", entry.getId());
+        assertTrue(entry.hasFlag(Flag.DF));
+        assertTrue(entry.hasFlag(Flag.SYN));
+        assertFalse(entry.hasFlag(Flag.ACK));
+        assertFalse(entry.hasFlag(Flag.URG));
+
+        final LogEntry none = new LogEntry("Oct 23 09:25:49 host kernel: IN=eth0 SRC=10.0.0.1");
+        assertEquals(-1, none.getLength());
+        assertEquals(-1, none.getTtl());
+        assertEquals(-1, none.getMark());
+    }
+
+    @Test
+    public void testCompact() {
+        final byte[] line = "Oct 23 09:25:49 host kernel: IN=eth0 OUT= SRC=10.0.0.1 DST=10.0.0.2 LEN=60 TTL=64 PROTO=TCP SPT=1 DPT=22"
+                .getBytes(StandardCharsets.ISO_8859_1);
+        final ByteBuffer buffer = ByteBuffer.wrap(line);
+        final LogEntry entry = new LogEntry(new AsciiCharSequence(buffer, 0, line.length), "fw");
+        // the entry holds a copy, the read buffer is reused
+        buffer.put(0, (byte) 'X').put(line.length - 1, (byte) '9');
+        assertEquals("22", entry.getDestinationPort());
+        assertTrue(entry == entry.compact());
+        assertEquals("10.0.0.1", entry.getSource());
+        assertEquals("10.0.0.2", entry.getDestination());
+        assertEquals("TCP", entry.getProtocol());
+        assertEquals("eth0", entry.getInInterface());
+        assertEquals("1", entry.getSourcePort());
+        assertEquals(60, entry.getLength());
+        assertEquals(64, entry.getTtl());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import nl.tjonahen.iptableslogd.domain.LogLineParser.Field;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class LogLineParserTest {
+
+    private static final String LINE = "Oct 23 09:25:49 IDEFIX kernel: IN=eth0 OUT= MAC=ff:ff:ff:ff:ff:ff:00:14:22:f2:f9:c2:08:00 "
+            + "SRC=192.168.0.105 DST=192.168.0.255 LEN=78 TOS=0x00 PREC=0x00 TTL=128 ID=21157 PROTO=UDP SPT=137 DPT=138 LEN=58";
+
+    private final LogLineParser parser = new LogLineParser();
+
+    @Test
+    public void testString() {
+        assertTrue(parser.parse(LINE));
+        assertFields();
+    }
+
+    @Test
+    public void testByteBuffer() {
+        final byte[] bytes = ("xx" + LINE + "\n").getBytes(StandardCharsets.ISO_8859_1);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        assertTrue(parser.parse(new AsciiCharSequence(buffer, 2, LINE.length())));
+        assertFields();
+    }
+
+    private void assertFields() {
+        assertEquals("Oct 23 09:25:49", parser.timestamp());
+        assertEquals("eth0", parser.value(Field.IN));
+        assertEquals("", parser.value(Field.OUT));
+        assertTrue(parser.has(Field.OUT));
+        assertEquals("ff:ff:ff:ff:ff:ff:00:14:22:f2:f9:c2:08:00", parser.value(Field.MAC));
+        assertEquals("192.168.0.105", parser.value(Field.SRC));
+        assertEquals("192.168.0.255", parser.value(Field.DST));
+        assertEquals("21157", parser.value(Field.ID));
+        assertEquals("UDP", parser.value(Field.PROTO));
+        assertEquals("137", parser.value(Field.SPT));
+        assertEquals("138", parser.value(Field.DPT));
+        assertEquals(LINE.indexOf("DPT=") + 4, parser.start(Field.DPT));
+        assertEquals(LINE.length() - " LEN=58".length(), parser.end(Field.DPT));
+    }
+
+    @Test
+    public void testAbsentFields() {
+        assertTrue(parser.parse("Oct 23 09:25:49 host kernel: IN=eth0 SRC=10.0.0.1 [SRC=10.0.0.2 DST=10.0.0.3] PROTO=ICMP"));
+        assertEquals("10.0.0.1", parser.value(Field.SRC));
+        // DST= of the embedded packet is a token of its own
+        assertEquals("10.0.0.3]", parser.value(Field.DST));
+        assertFalse(parser.has(Field.DPT));
+        assertEquals("", parser.value(Field.DPT));
+        assertFalse(parser.parse("Oct 23"));
+    }
+
+    @Test
+    public void testHeaderAndFlags() {
+        assertTrue(parser.parse(LINE));
+        // the IP length, not the UDP length logged later
+        assertEquals("78", parser.value(Field.LEN));
+        assertEquals("128", parser.value(Field.TTL));
+        assertEquals("0x00", parser.value(Field.PREC));
+        assertEquals(0, parser.flags());
+        assertTrue(parser.parse("Oct 23 09:25:49 host kernel: ID=0 DF PROTO=TCP SPT=1 DPT=2 WINDOW=0 ACK URGP=0 MARK=0x2"));
+        assertEquals("0x2", parser.value(Field.MARK));
+        assertTrue(LogLineParser.Flag.DF.isSet(parser.flags()));
+        assertTrue(LogLineParser.Flag.ACK.isSet(parser.flags()));
+        assertFalse(LogLineParser.Flag.URG.isSet(parser.flags()));
+    }
+
+    @Test
+    public void testLogEntry() {
+        final LogEntry entry = new LogEntry(LINE.replace("PROTO=UDP", "PROTO=2"), "fw");
+        assertEquals("fw", entry.getSourceId());
+        assertEquals("Oct 23 09:25:49", entry.getDateTime());
+        assertEquals("IGMP", entry.getProtocol());
+        assertEquals("192.168.0.105", entry.getSource());
+        assertEquals("138", entry.getDestinationPort());
+        assertEquals("137", entry.getSourcePort());
+        assertEquals("21157", entry.getId());
+        assertEquals("", entry.getOutInterface());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PortNumbersTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final short TCP = Protocols.parse("TCP");
+    private static final short ICMP = Protocols.parse("ICMP");
+
+    @Test
+    public void testDescriptions() throws IOException {
+        final PortNumbers portNumbers = new PortNumbers(new File(folder.getRoot(), "missing").getPath());
+        assertEquals("(22) ssh - Secure Shell Login", portNumbers.getDescription(22, TCP));
+        assertSame(portNumbers.getDescription(22, TCP), portNumbers.getDescription(22, TCP));
+        assertEquals("65000", portNumbers.getDescription(65000, TCP));
+        assertEquals("() Internet Control Management Protocol", portNumbers.getDescription(-1, ICMP));
+        assertEquals("", portNumbers.getDescription(-1, TCP));
+        // by name, as before
+        assertEquals("(80) http - World Wide Web HTTP", portNumbers.getDescription("80", "TCP"));
+        assertEquals("() Internet Control Management Protocol", portNumbers.getDescription("", "ICMP"));
+        assertEquals("x", portNumbers.getDescription("x", "TCP"));
+    }
+
+    @Test
+    public void testAttackPorts() throws IOException {
+        final PortNumbers portNumbers = new PortNumbers("");
+        assertTrue(portNumbers.isKnownAttackPort(3389));
+        assertTrue(portNumbers.isKnownAttackPort("23"));
+        assertFalse(portNumbers.isKnownAttackPort(22));
+        assertFalse(portNumbers.isKnownAttackPort(-1));
+        assertFalse(portNumbers.isKnownAttackPort(""));
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        final File file = folder.newFile("portnumbers.properties");
+        Files.write(file.toPath(), Collections.singletonList("65000/tcp=custom"), StandardCharsets.ISO_8859_1);
+        final PortNumbers portNumbers = new PortNumbers(file.getPath());
+        assertEquals("(65000) custom", portNumbers.getDescription(65000, TCP));
+        assertEquals("(22) ssh - Secure Shell Login", portNumbers.getDescription(22, TCP));
+        assertFalse(portNumbers.reload());
+
+        Files.write(file.toPath(), Collections.singletonList("22/tcp=secure shell"), StandardCharsets.ISO_8859_1);
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        assertTrue(portNumbers.reload());
+        assertEquals("(22) secure shell", portNumbers.getDescription(22, TCP));
+        assertEquals("65000", portNumbers.getDescription(65000, TCP));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PortScanDetectorTest {
+
+    private static final long SOURCE = 0x1C0A80001L;
+
+    @Test
+    public void testDistinctPorts() {
+        final PortScanDetector detector = new PortScanDetector(16, 5000, 3);
+        assertFalse(detector.isScan(SOURCE, 80, 1000));
+        assertFalse(detector.isScan(SOURCE, 80, 1100));
+        assertFalse(detector.isScan(SOURCE, 80, 1200));
+        assertFalse(detector.isScan(SOURCE, 443, 1300));
+        assertTrue(detector.isScan(SOURCE, 22, 1400));
+        assertTrue(detector.isScan(SOURCE, 80, 1500));
+        // other sources are not affected
+        assertFalse(detector.isScan(SOURCE + 1, 22, 1500));
+    }
+
+    @Test
+    public void testWindow() {
+        final PortScanDetector detector = new PortScanDetector(16, 5000, 3);
+        assertFalse(detector.isScan(SOURCE, 21, 1000));
+        assertFalse(detector.isScan(SOURCE, 22, 4000));
+        // port 21 has expired
+        assertFalse(detector.isScan(SOURCE, 23, 7000));
+        assertTrue(detector.isScan(SOURCE, 24, 8000));
+    }
+
+    @Test
+    public void testManySources() {
+        final int count = 100_000;
+        final PortScanDetector detector = new PortScanDetector(131072, 5000, 3);
+        for (int port = 1; port <= 3; port++) {
+            for (int i = 0; i < count; i++) {
+                final boolean scan = detector.isScan(SOURCE + i, port, 1000 + port);
+                assertEquals(port == 3, scan);
+            }
+        }
+        assertEquals(count, detector.getSources());
+        assertEquals(0, detector.getEvictions());
+    }
+
+    @Test
+    public void testEviction() {
+        final PortScanDetector detector = new PortScanDetector(16, 5000, 3);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(detector.isScan(SOURCE + i, 80, 1000 + i));
+        }
+        assertEquals(16, detector.getSources());
+        assertEquals(84, detector.getEvictions());
+    }
+
+    @Test
+    public void testConfigure() {
+        final PortScanDetector detector = new PortScanDetector(16, 5000, 3);
+        detector.configure(5000, 2);
+        assertFalse(detector.isScan(SOURCE, 80, 1000));
+        assertTrue(detector.isScan(SOURCE, 443, 1100));
+        // the same settings again keep the sources
+        detector.configure(5000, 2);
+        assertTrue(detector.isScan(SOURCE, 22, 1200));
+        assertEquals(1, detector.getSources());
+    }
+}
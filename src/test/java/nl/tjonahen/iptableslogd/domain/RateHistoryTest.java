@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import nl.tjonahen.iptableslogd.domain.RateHistory.Resolution;
+import static nl.tjonahen.iptableslogd.domain.LogEntryBuilder.entry;
+import org.junit.Test;
+
+public class RateHistoryTest {
+
+    private static long last(final long[] counts) {
+        return counts[counts.length - 1];
+    }
+
+    @Test
+    public void testSeries() {
+        final RateHistory history = new RateHistory(16);
+        history.add(Arrays.asList(
+                entry().time("16:10:08").in("eth0").protocol("TCP").build(),
+                entry().time("16:10:09").in("eth0").protocol("TCP").build(),
+                entry().time("16:10:09").in("eth1").protocol("UDP").build(),
+                entry().time("16:11:09").in("eth0").protocol("TCP").build()));
+        final RateHistory.Snapshot snapshot = history.snapshot();
+        assertEquals(Arrays.asList("all", "TCP", "in eth0", "UDP", "in eth1"), snapshot.getNames());
+
+        final long[] seconds = snapshot.getCounts(Resolution.SECONDS, RateHistory.ALL);
+        assertEquals(Resolution.SECONDS.getBuckets(), seconds.length);
+        assertEquals(1, last(seconds));
+        assertEquals(2, seconds[seconds.length - 61]);
+        assertEquals(1, seconds[seconds.length - 62]);
+
+        final long[] minutes = snapshot.getCounts(Resolution.MINUTES, RateHistory.ALL);
+        assertEquals(1, last(minutes));
+        assertEquals(3, minutes[minutes.length - 2]);
+        assertEquals(2, snapshot.getCounts(Resolution.MINUTES, 1)[minutes.length - 2]);
+        assertEquals(4, last(snapshot.getCounts(Resolution.HOURS, RateHistory.ALL)));
+        assertEquals(1, last(snapshot.getCounts(Resolution.HOURS, 4)));
+    }
+
+    @Test
+    public void testMaximumSeries() {
+        final RateHistory history = new RateHistory(2);
+        history.add(Arrays.asList(entry().time("16:10:08").in("eth0").protocol("TCP").build(),
+                entry().time("16:10:08").in("eth1").protocol("UDP").build()));
+        final RateHistory.Snapshot snapshot = history.snapshot();
+        assertEquals(Arrays.asList("all", "TCP"), snapshot.getNames());
+        assertEquals(2, last(snapshot.getCounts(Resolution.SECONDS, RateHistory.ALL)));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import nl.tjonahen.iptableslogd.domain.RollupCube.Cell;
+import nl.tjonahen.iptableslogd.domain.RollupCube.Dimension;
+import static nl.tjonahen.iptableslogd.domain.LogEntryBuilder.entry;
+import org.junit.Test;
+
+public class RollupCubeTest {
+
+    @Test
+    public void testSliceAndDrillDown() {
+        final RollupCube cube = new RollupCube(1024);
+        cube.add(Arrays.asList(
+                entry().in("eth0").source("203.0.113.7").protocol("TCP").port(22).build(),
+                entry().in("eth0").source("203.0.113.8").protocol("TCP").port(22).build(),
+                entry().in("eth0").source("203.0.113.9").protocol("TCP").port(23).build(),
+                entry().in("eth1").source("203.0.113.9").protocol("UDP").port(53).build(),
+                entry().in("eth0").source("198.51.100.1").protocol("TCP").port(22).build(),
+                entry().in("eth0").source("2001:db8::1").protocol("TCP").port(443).build()));
+        assertEquals(5, cube.getCells());
+        assertEquals(6, cube.query().count());
+
+        final List<Cell> ports = cube.query().source("203.0.113.0/24").inInterface("eth0").drillDown(Dimension.PORT, 10);
+        assertEquals(2, ports.size());
+        assertEquals("22", ports.get(0).getLabel());
+        assertEquals(2, ports.get(0).getCount());
+        assertEquals("23", ports.get(1).getLabel());
+
+        final List<Cell> sources = cube.query().port(22).drillDown(Dimension.SOURCE, 10);
+        assertEquals("203.0.113.0/24", sources.get(0).getLabel());
+        assertEquals(2, sources.get(0).getCount());
+        assertEquals("198.51.100.0/24", sources.get(1).getLabel());
+
+        assertEquals(1, cube.query().protocol("udp").count());
+        assertEquals("other", cube.query().port(443).drillDown(Dimension.SOURCE, 1).get(0).getLabel());
+        assertEquals("eth1", cube.query().port(53).drillDown(Dimension.INTERFACE, 1).get(0).getLabel());
+        assertEquals(0, cube.query().inInterface("unknown0").count());
+    }
+
+    @Test
+    public void testSnapshot() {
+        final RollupCube cube = new RollupCube(1024);
+        cube.add(Collections.singletonList(entry().in("eth0").source("203.0.113.7").protocol("TCP").port(22).build()));
+        final RollupCube snapshot = cube.snapshot();
+        cube.add(Collections.singletonList(entry().in("eth0").source("203.0.113.7").protocol("TCP").port(23).build()));
+        assertEquals(2, cube.query().count());
+        // the copy does not change and is reused within a second
+        assertEquals(1, snapshot.query().count());
+        assertEquals(1, snapshot.getCells());
+        assertSame(snapshot, cube.snapshot());
+        assertSame(snapshot, snapshot.snapshot());
+    }
+
+    @Test
+    public void testEviction() {
+        final RollupCube cube = new RollupCube(16);
+        final List<LogEntry> heavy = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            heavy.add(entry().in("eth0").source("203.0.113.7").protocol("TCP").port(22).build());
+        }
+        cube.add(heavy);
+        final List<LogEntry> light = new ArrayList<>();
+        for (int port = 1000; port < 2000; port++) {
+            light.add(entry().in("eth0").source("198.51.100.1").protocol("TCP").port(port).build());
+        }
+        cube.add(light);
+        assertEquals(16, cube.getCells());
+        // the light cells evict each other, the heavy one stays
+        assertEquals(100, cube.query().port(22).count());
+        assertTrue(cube.getEvicted() >= 1000 - 15);
+        assertEquals(1100, cube.query().count() + cube.getEvicted());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static nl.tjonahen.iptableslogd.domain.LogEntryBuilder.entry;
+import org.junit.Test;
+
+public class ScanProfilesTest {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    @Test
+    public void testClassification() {
+        final ScanProfiles profiles = new ScanProfiles(16, 8, HOUR);
+        for (int i = 1; i <= 8; i++) {
+            profiles.add(entry().source("10.0.0.1").destination("192.168.1.1").port(i).build());
+            profiles.add(entry().source("10.0.0.2").destination("192.168.1." + i).port(22).build());
+            profiles.add(entry().source("10.0.0.3").destination("192.168.1." + i).port(i).build());
+            profiles.add(entry().source("10.0.0.4").destination("192.168.1.1").port(22).build());
+        }
+        assertEquals(ScanProfile.Kind.VERTICAL, profiles.get(entry().source("10.0.0.1").destination("192.168.1.1").port(1).build()).getKind());
+        assertEquals(ScanProfile.Kind.HORIZONTAL, profiles.get(entry().source("10.0.0.2").destination("192.168.1.1").port(1).build()).getKind());
+        assertEquals(ScanProfile.Kind.BLOCK, profiles.get(entry().source("10.0.0.3").destination("192.168.1.1").port(1).build()).getKind());
+        final ScanProfile quiet = profiles.get(entry().source("10.0.0.4").destination("192.168.1.1").port(1).build());
+        assertEquals(ScanProfile.Kind.NONE, quiet.getKind());
+        assertEquals(1, quiet.getPorts());
+        assertEquals(1, quiet.getDestinations());
+    }
+
+    @Test
+    public void testEviction() {
+        final ScanProfiles profiles = new ScanProfiles(2, 8, HOUR);
+        profiles.add(entry().source("10.0.0.1").destination("192.168.1.1").port(22).build());
+        profiles.add(entry().source("10.0.0.2").destination("192.168.1.1").port(22).build());
+        profiles.add(entry().source("10.0.0.1").destination("192.168.1.1").port(23).build());
+        profiles.add(entry().source("10.0.0.3").destination("192.168.1.1").port(22).build());
+        assertEquals(2, profiles.size());
+        assertNull(profiles.get(entry().source("10.0.0.2").destination("192.168.1.1").port(22).build()));
+        assertEquals(2, profiles.get(entry().source("10.0.0.1").destination("192.168.1.1").port(22).build()).getPorts());
+    }
+
+    @Test
+    public void testWindow() {
+        final ScanProfiles profiles = new ScanProfiles(16, 8, HOUR);
+        // a few ports an hour never add up to a scan
+        for (int hour = 10; hour < 20; hour++) {
+            for (int port = 0; port < 3; port++) {
+                final ScanProfile profile = profiles.add(entry().time(hour + ":10:00").source("10.0.0.1").destination("192.168.1.1").port(1000 * hour + port).build());
+                assertEquals(ScanProfile.Kind.NONE, profile.getKind());
+            }
+        }
+        // the previous hour is still counted
+        assertEquals(6, profiles.get(entry().source("10.0.0.1").destination("192.168.1.1").port(1).build()).getPorts());
+        // after a silent hour the source starts over
+        assertEquals(1, profiles.add(entry().time("21:10:00").source("10.0.0.1").destination("192.168.1.1").port(1).build()).getPorts());
+    }
+}
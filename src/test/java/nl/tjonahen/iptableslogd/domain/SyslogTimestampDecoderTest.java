@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.domain;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class SyslogTimestampDecoderTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Amsterdam");
+
+    @Test
+    public void testDecode() {
+        final SyslogTimestampDecoder decoder = decoder(2017, 10, 23, 12, 0, 0);
+        assertEquals(epoch(2017, 10, 23, 9, 25, 49), decoder.decode("Oct 23 09:25:49 host kernel: IN=eth0"));
+        // same minute, from the cache
+        assertEquals(epoch(2017, 10, 23, 9, 25, 51), decoder.decode("Oct 23 09:25:51 host kernel: IN=eth0"));
+        assertEquals(epoch(2017, 10, 3, 9, 26, 0), decoder.decode("Oct  3 09:26:00"));
+        assertEquals(epoch(2017, 10, 23, 9, 25, 49), decoder.decode("Oct 23 09:25:49"));
+    }
+
+    @Test
+    public void testYearRollover() {
+        // December lines read in January are from last year
+        assertEquals(epoch(2017, 12, 31, 23, 59, 59), decoder(2018, 1, 1, 0, 0, 10).decode("Dec 31 23:59:59"));
+        // a line just after midnight read just before it, clocks differ
+        assertEquals(epoch(2018, 1, 1, 0, 0, 1), decoder(2017, 12, 31, 23, 59, 59).decode("Jan  1 00:00:01"));
+        // a rotated log from earlier this year
+        assertEquals(epoch(2017, 1, 10, 8, 0, 0), decoder(2017, 12, 15, 12, 0, 0).decode("Jan 10 08:00:00"));
+        // only a leap year has a 29th of February
+        assertEquals(epoch(2016, 2, 29, 8, 0, 0), decoder(2017, 3, 1, 12, 0, 0).decode("Feb 29 08:00:00"));
+    }
+
+    @Test
+    public void testInvalid() {
+        final SyslogTimestampDecoder decoder = decoder(2017, 10, 23, 12, 0, 0);
+        assertEquals(SyslogTimestampDecoder.INVALID, decoder.decode("Foo 23 09:25:49"));
+        assertEquals(SyslogTimestampDecoder.INVALID, decoder.decode("Oct 32 09:25:49"));
+        assertEquals(SyslogTimestampDecoder.INVALID, decoder.decode("Oct 23 09:25:61"));
+        assertEquals(SyslogTimestampDecoder.INVALID, decoder.decode("Oct 23"));
+    }
+
+    private static SyslogTimestampDecoder decoder(int year, int month, int day, int hour, int minute, int second) {
+        return new SyslogTimestampDecoder(Clock.fixed(ZonedDateTime.of(year, month, day, hour, minute, second, 0, ZONE).toInstant(), ZONE));
+    }
+
+    private static long epoch(int year, int month, int day, int hour, int minute, int second) {
+        return LocalDateTime.of(year, month, day, hour, minute, second).atZone(ZONE).toInstant().toEpochMilli();
+    }
+}
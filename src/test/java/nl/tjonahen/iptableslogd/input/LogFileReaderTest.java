@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogFileReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPartialLine() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        append(file, "line1\nline2\nli");
+        try (LogFileReader reader = new LogFileReader(file)) {
+            final List<String> lines = new ArrayList<>();
+            assertEquals(2, reader.readLines(lines::add));
+            assertEquals(12, reader.getPosition());
+
+            append(file, "ne3\r\n");
+            assertEquals(1, reader.readLines(lines::add));
+            assertEquals(file.length(), reader.getPosition());
+            assertEquals(Arrays.asList("line1", "line2", "line3"), lines);
+
+            assertEquals(0, reader.readLines(lines::add));
+        }
+    }
+
+    @Test
+    public void testLinesSpanningBuffer() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        append(file, "0123456789\nabcdefghij\nABCDEFGHIJK\n");
+        try (LogFileReader reader = new LogFileReader(file, 16)) {
+            final List<String> lines = new ArrayList<>();
+            assertEquals(3, reader.readLines(lines::add));
+            assertEquals(Arrays.asList("0123456789", "abcdefghij", "ABCDEFGHIJK"), lines);
+        }
+    }
+
+    @Test
+    public void testLineLongerThanBuffer() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        append(file, "0123456789\n");
+        try (LogFileReader reader = new LogFileReader(file, 8)) {
+            final List<String> lines = new ArrayList<>();
+            assertEquals(2, reader.readLines(lines::add));
+            assertEquals(Arrays.asList("01234567", "89"), lines);
+            assertEquals(11, reader.getPosition());
+        }
+    }
+
+    @Test
+    public void testStop() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        append(file, "line1\nline2\n");
+        try (LogFileReader reader = new LogFileReader(file)) {
+            assertEquals(1, reader.readLines((String line) -> false));
+            assertEquals(6, reader.getPosition());
+        }
+    }
+
+    @Test
+    public void testUnterminatedLine() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        append(file, "line1\nline2");
+        try (LogFileReader reader = new LogFileReader(file)) {
+            final List<String> lines = new ArrayList<>();
+            assertEquals(1, reader.readLines(lines::add));
+            assertEquals("line2", reader.readUnterminatedLine());
+            assertEquals(file.length(), reader.getPosition());
+            assertNull(reader.readUnterminatedLine());
+        }
+    }
+
+    private static void append(final File file, final String data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(data.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
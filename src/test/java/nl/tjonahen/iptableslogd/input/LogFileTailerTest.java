@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogFileTailerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> ids = new ArrayList<>();
+
+    @Test
+    public void testAppendDuringRead() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        append(file, line(1) + line(2));
+        final boolean[] appended = {false};
+        final LogFileTailer tailer = new LogFileTailer("ulog", file, null, false, (entries) -> {
+            entries.forEach((e) -> ids.add(e.getId()));
+            if (!appended[0]) {
+                appended[0] = true;
+                try {
+                    append(file, line(3));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                // an append later than the start of the read
+                file.setLastModified(System.currentTimeMillis() + 60_000L);
+            }
+        });
+        tailer.poll();
+        tailer.poll();
+        assertEquals(Arrays.asList("1", "2", "3"), ids);
+
+        // idle, the newer modification time must not read the file again
+        assertEquals(LogFileTailer.MIN_POLL_INTERVAL * 2, tailer.poll());
+        assertEquals(Arrays.asList("1", "2", "3"), ids);
+        tailer.close();
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        final Path checkpoint = folder.getRoot().toPath().resolve("checkpoint");
+        append(file, line(1) + line(2));
+        LogFileTailer tailer = tailer(file, checkpoint);
+        tailer.poll();
+        tailer.poll();
+        tailer.close();
+
+        append(file, line(3));
+        tailer = tailer(file, checkpoint);
+        tailer.poll();
+        tailer.poll();
+        tailer.close();
+        assertEquals(Arrays.asList("1", "2", "3"), ids);
+    }
+
+    @Test
+    public void testCheckpointOfOtherFile() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        final Path checkpoint = folder.getRoot().toPath().resolve("checkpoint");
+        append(file, line(1));
+        LogFileTailer tailer = tailer(file, checkpoint);
+        tailer.poll();
+        tailer.poll();
+        tailer.close();
+
+        // replaced while stopped by a larger file, the checkpoint offset is of the old one
+        final File replacement = folder.newFile("ulogd.syslogemu.new");
+        append(replacement, line(2) + line(3));
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        tailer = tailer(file, checkpoint);
+        tailer.poll();
+        tailer.poll();
+        tailer.close();
+        assertEquals(Arrays.asList("1", "2", "3"), ids);
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        append(file, line(1) + line(2));
+        final LogFileTailer tailer = tailer(file, null);
+        tailer.poll();
+        tailer.poll();
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(line(3).getBytes(StandardCharsets.US_ASCII));
+        }
+        tailer.poll();
+        tailer.poll();
+        tailer.close();
+        assertEquals(Arrays.asList("1", "2", "3"), ids);
+    }
+
+    @Test
+    public void testRotated() throws IOException {
+        final File file = folder.newFile("ulogd.syslogemu");
+        append(file, line(1));
+        final LogFileTailer tailer = tailer(file, null);
+        tailer.poll();
+        tailer.poll();
+
+        // written to the old file before it was rotated
+        append(file, line(2));
+        Files.move(file.toPath(), folder.getRoot().toPath().resolve("ulogd.syslogemu.1"));
+        append(file, line(3));
+        tailer.poll();
+        tailer.poll();
+        tailer.close();
+        assertEquals(Arrays.asList("1", "2", "3"), ids);
+    }
+
+    private LogFileTailer tailer(final File file, final Path checkpoint) {
+        return new LogFileTailer("ulog", file, checkpoint, false, (entries) -> entries.forEach((e) -> ids.add(e.getId())));
+    }
+
+    private static String line(final int id) {
+        return "Jun 18 16:10:09 host IN=eth0 OUT= SRC=10.0.0.1 DST=192.168.1.2 LEN=40 TOS=0x00 PREC=0x00 TTL=50 ID="
+                + id + " PROTO=TCP SPT=40000 DPT=80 SYN\n";
+    }
+
+    private static void append(final File file, final String data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(data.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.File;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class LogSourceTest {
+
+    @Test
+    public void testParse() {
+        final List<LogSource> sources = LogSource.parse("fw1=/var/log/fw1.log, /var/log/fw2.log,fw3=udp://0.0.0.0:5140,tcp://[::1]:5141");
+        assertEquals(4, sources.size());
+        assertEquals("fw1", sources.get(0).getId());
+        assertEquals(LogSource.Type.FILE, sources.get(0).getType());
+        assertEquals(new File("/var/log/fw1.log"), sources.get(0).getFile());
+        assertEquals("fw2.log", sources.get(1).getId());
+        assertEquals("fw3", sources.get(2).getId());
+        assertEquals(LogSource.Type.UDP, sources.get(2).getType());
+        assertEquals(5140, sources.get(2).getAddress().getPort());
+        assertEquals("[::1]:5141", sources.get(3).getId());
+        assertEquals(LogSource.Type.TCP, sources.get(3).getType());
+        assertEquals(5141, sources.get(3).getAddress().getPort());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, LogSource.parse("").size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateId() {
+        LogSource.parse("/a/ulogd.syslogemu,/b/ulogd.syslogemu");
+    }
+
+    @Test
+    public void testDistinctIds() {
+        final List<LogSource> sources = LogSource.parse("/a/ulogd.syslogemu,b=/b/ulogd.syslogemu");
+        assertEquals("ulogd.syslogemu", sources.get(0).getId());
+        assertEquals("b", sources.get(1).getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownScheme() {
+        LogSource.parse("fw=http://localhost:80");
+    }
+}
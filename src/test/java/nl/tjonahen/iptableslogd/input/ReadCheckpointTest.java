@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReadCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoreAndLoad() throws IOException {
+        final Path log = write("ulogd.syslogemu", "line1\nline2\n");
+        final Path checkpoint = folder.getRoot().toPath().resolve("checkpoint");
+        assertNull(ReadCheckpoint.load(checkpoint));
+
+        ReadCheckpoint.of(log, 6).store(checkpoint);
+        final ReadCheckpoint stored = ReadCheckpoint.load(checkpoint);
+        assertEquals(6, stored.getOffset());
+        assertEquals(ReadCheckpoint.fileKey(log), stored.getFileKey());
+        assertEquals(6, stored.resumeOffset(log));
+    }
+
+    @Test
+    public void testResumeAfterAppend() throws IOException {
+        final Path log = write("ulogd.syslogemu", "line1\n");
+        final ReadCheckpoint checkpoint = ReadCheckpoint.of(log, 6);
+        Files.write(log, "line2\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        touch(log, 60_000L);
+        assertEquals(6, checkpoint.resumeOffset(log));
+    }
+
+    @Test
+    public void testOtherFileKey() throws IOException {
+        final Path log = write("ulogd.syslogemu", "line1\n");
+        final ReadCheckpoint checkpoint = ReadCheckpoint.of(log, 6);
+        // replaced by a new file that is larger and newer, only the key differs
+        final Path replacement = write("ulogd.syslogemu.new", "line1\nline2\n");
+        Files.move(replacement, log, StandardCopyOption.REPLACE_EXISTING);
+        touch(log, 60_000L);
+        assertEquals(0, checkpoint.resumeOffset(log));
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        final Path log = write("ulogd.syslogemu", "line1\nline2\n");
+        final ReadCheckpoint checkpoint = ReadCheckpoint.of(log, 12);
+        Files.write(log, "line3\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.TRUNCATE_EXISTING);
+        assertEquals(0, checkpoint.resumeOffset(log));
+    }
+
+    @Test
+    public void testRewrittenWithSameLength() throws IOException {
+        final Path log = write("ulogd.syslogemu", "line1\n");
+        final ReadCheckpoint checkpoint = ReadCheckpoint.of(log, 6);
+        Files.write(log, "line2\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.TRUNCATE_EXISTING);
+        touch(log, 60_000L);
+        assertEquals(0, checkpoint.resumeOffset(log));
+    }
+
+    private Path write(final String name, final String data) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), data.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void touch(final Path file, final long later) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + later));
+    }
+}
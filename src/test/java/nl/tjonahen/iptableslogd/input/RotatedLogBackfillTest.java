@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RotatedLogBackfillTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> ids = new ArrayList<>();
+
+    @Test
+    public void testOldestFirst() throws IOException {
+        final long now = System.currentTimeMillis();
+        write(folder.newFile("ulogd.syslogemu.3.gz"), true, lines(1, 10, true), now - 3 * DAY);
+        write(folder.newFile("ulogd.syslogemu.2"), false, lines(11, 20, true), now - 2 * DAY);
+        write(folder.newFile("ulogd.syslogemu.1"), false, lines(21, 30, false), now - DAY);
+        write(folder.newFile("ulogd.syslogemu.old"), false, lines(31, 31, true), now - 4 * DAY);
+        final File log = folder.newFile("ulogd.syslogemu");
+        write(log, false, lines(32, 32, true), now);
+
+        // chunks of a few lines, the chunk ends are rounded up to a line end
+        final long count = new RotatedLogBackfill(log, "ulog", (entries) -> entries.forEach((e) -> ids.add(e.getId())),
+                () -> true, 300).run();
+        assertEquals(30, count);
+        assertEquals(expected(1, 30), ids);
+    }
+
+    @Test
+    public void testUnterminatedCompressed() throws IOException {
+        final File log = folder.newFile("ulogd.syslogemu");
+        write(folder.newFile("ulogd.syslogemu.1.gz"), true, lines(1, 3, false), System.currentTimeMillis());
+        new RotatedLogBackfill(log, "ulog", (entries) -> entries.forEach((e) -> ids.add(e.getId())), () -> true).run();
+        assertEquals(expected(1, 3), ids);
+    }
+
+    private static String lines(final int from, final int to, final boolean terminated) {
+        final StringBuilder data = new StringBuilder();
+        for (int id = from; id <= to; id++) {
+            data.append("Jun 18 16:10:09 host IN=eth0 OUT= SRC=10.0.0.1 DST=192.168.1.2 LEN=40 TOS=0x00 PREC=0x00 TTL=50 ID=")
+                    .append(id).append(" PROTO=TCP SPT=40000 DPT=80 SYN");
+            if (id < to || terminated) {
+                data.append('\n');
+            }
+        }
+        return data.toString();
+    }
+
+    private static List<String> expected(final int from, final int to) {
+        final List<String> result = new ArrayList<>();
+        for (int id = from; id <= to; id++) {
+            result.add(Integer.toString(id));
+        }
+        return result;
+    }
+
+    private static void write(final File file, final boolean compressed, final String data, final long lastModified) throws IOException {
+        try (OutputStream out = compressed ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)) {
+            out.write(data.getBytes(StandardCharsets.US_ASCII));
+        }
+        file.setLastModified(lastModified);
+    }
+}
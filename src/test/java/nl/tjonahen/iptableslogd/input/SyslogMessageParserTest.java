@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class SyslogMessageParserTest {
+
+    private static final String PACKET = "IN=eth0 OUT= SRC=192.168.0.105 DST=192.168.0.255 LEN=78 PROTO=UDP SPT=137 DPT=137";
+
+    private final SyslogMessageParser parser = new SyslogMessageParser();
+
+    @Test
+    public void testRfc3164() {
+        assertEquals("Oct 23 09:25:49 host kernel: " + PACKET,
+                parse("<4>Oct 23 09:25:49 host kernel: " + PACKET + "\n"));
+        assertEquals("Oct  3 09:25:49 host kernel: " + PACKET,
+                parse("Oct  3 09:25:49 host kernel: " + PACKET));
+    }
+
+    @Test
+    public void testRfc5424() {
+        final String time = ZonedDateTime.parse("2017-10-23T09:25:49.123Z")
+                .withZoneSameInstant(ZoneId.systemDefault())
+                .format(DateTimeFormatter.ofPattern("MMM ppd HH:mm:ss", Locale.ENGLISH));
+        assertEquals(time + " host ulogd: " + PACKET,
+                parse("<12>1 2017-10-23T09:25:49.123Z host ulogd - - - " + PACKET));
+        assertEquals(time + " host ulogd: " + PACKET,
+                parse("<12>1 2017-10-23T09:25:49.123Z host ulogd 42 ID [a x=\"]\\\" \"][b y=\"1\"] \u00ef\u00bb\u00bf" + PACKET));
+    }
+
+    @Test
+    public void testNoTimestamp() {
+        final String line = parse("<4>host kernel: " + PACKET);
+        assertEquals(" host kernel: " + PACKET, line.substring(15));
+    }
+
+    @Test
+    public void testNotNetfilter() {
+        assertNull(parse("<13>Oct 23 09:25:49 host sshd[42]: Accepted publickey for root"));
+    }
+
+    private String parse(final String message) {
+        final CharSequence line = parser.parse(ByteBuffer.wrap(message.getBytes(StandardCharsets.ISO_8859_1)));
+        return line == null ? null : line.toString();
+    }
+}
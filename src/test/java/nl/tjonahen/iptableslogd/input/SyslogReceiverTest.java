@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.input;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SyslogReceiverTest {
+
+    private final List<String> sources = Collections.synchronizedList(new ArrayList<>());
+    private SyslogReceiver receiver;
+    private Thread thread;
+
+    @Before
+    public void setUp() throws IOException {
+        final InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        receiver = new SyslogReceiver("fw", loopback, loopback, (entry) -> sources.add(entry.getSourceId() + ":" + entry.getSource()));
+        thread = new Thread(receiver);
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        receiver.close();
+        thread.join();
+    }
+
+    @Test
+    public void testUdp() throws IOException, InterruptedException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            final byte[] message = message("10.0.0.1").getBytes(StandardCharsets.ISO_8859_1);
+            socket.send(new DatagramPacket(message, message.length, receiver.getUdpAddress()));
+        }
+        await(1);
+        assertEquals(Arrays.asList("fw:10.0.0.1"), sources);
+    }
+
+    @Test
+    public void testTcpFraming() throws IOException, InterruptedException {
+        final String counted = "<4>1 2017-10-23T09:25:49Z host ulogd - - - IN=eth0 OUT= SRC=10.0.0.2 DST=10.0.0.9";
+        try (Socket socket = new Socket()) {
+            socket.connect(receiver.getTcpAddress());
+            final OutputStream out = socket.getOutputStream();
+            out.write((message("10.0.0.1") + "\n" + counted.length() + " " + counted).getBytes(StandardCharsets.ISO_8859_1));
+            // a frame split over two writes
+            out.write(message("10.0.0.3").substring(0, 20).getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            TimeUnit.MILLISECONDS.sleep(50);
+            out.write((message("10.0.0.3").substring(20) + "\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            await(3);
+        }
+        assertEquals(Arrays.asList("fw:10.0.0.1", "fw:10.0.0.2", "fw:10.0.0.3"), sources);
+    }
+
+    private static String message(final String source) {
+        return "<4>Oct 23 09:25:49 host kernel: IN=eth0 OUT= SRC=" + source + " DST=10.0.0.9 PROTO=TCP SPT=1024 DPT=22";
+    }
+
+    private void await(final int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (sources.size() < count && System.currentTimeMillis() < end) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+}
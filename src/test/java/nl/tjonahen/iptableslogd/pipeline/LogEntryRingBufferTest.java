@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 Philippe Tjon - A - Hen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package nl.tjonahen.iptableslogd.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nl.tjonahen.iptableslogd.domain.LogEntry;
+import nl.tjonahen.iptableslogd.domain.LogEntryBatch;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class LogEntryRingBufferTest {
+
+    @Test
+    public void testBlockDeliversAllInOrder() throws InterruptedException {
+        final LogEntryRingBuffer ringBuffer = new LogEntryRingBuffer(8, WaitStrategy.of("blocking"), OverflowPolicy.BLOCK, 1);
+        final List<String> first = Collections.synchronizedList(new ArrayList<>());
+        final List<String> second = Collections.synchronizedList(new ArrayList<>());
+        final Thread t1 = start(ringBuffer.subscribe("first", (batch) -> collect(batch, first), 3));
+        final Thread t2 = start(ringBuffer.subscribe("second", (batch) -> collect(batch, second), 5));
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ringBuffer.publish(entry(i));
+            expected.add(source(i));
+        }
+        await(first, 1000);
+        await(second, 1000);
+        ringBuffer.stop();
+        t1.join();
+        t2.join();
+
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+        assertEquals(0, ringBuffer.getDropped());
+        assertEquals(0, ringBuffer.getQueueDepth());
+    }
+
+    @Test
+    public void testMarkerEndsBatch() throws InterruptedException {
+        final LogEntryRingBuffer ringBuffer = new LogEntryRingBuffer(16, WaitStrategy.of("blocking"), OverflowPolicy.SAMPLE, 2);
+        final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        final LogEntryRingBuffer.Subscriber subscriber = ringBuffer.subscribe("marked", (batch) -> {
+            received.add("batch " + batch.size());
+            collect(batch, received);
+        }, (sequence) -> received.add("marker " + sequence), 100);
+        ringBuffer.publish(entry(0));
+        ringBuffer.publish(entry(1));
+        ringBuffer.publishMarker();
+        ringBuffer.publish(entry(2));
+        final Thread t = start(subscriber);
+        await(received, 6);
+        ringBuffer.stop();
+        t.join();
+
+        assertEquals(Arrays.asList("batch 2", source(0), source(1), "marker 2", "batch 1", source(2)), received);
+    }
+
+    @Test
+    public void testDropOldestSkipsLappedEntries() throws InterruptedException {
+        final LogEntryRingBuffer ringBuffer = new LogEntryRingBuffer(8, WaitStrategy.of("yielding"), OverflowPolicy.DROP_OLDEST, 1);
+        final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        final LogEntryRingBuffer.Subscriber subscriber = ringBuffer.subscribe("slow", (batch) -> collect(batch, received), 100);
+        for (int i = 0; i < 20; i++) {
+            ringBuffer.publish(entry(i));
+        }
+        final Thread t = start(subscriber);
+        await(received, 8);
+        ringBuffer.stop();
+        t.join();
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 12; i < 20; i++) {
+            expected.add(source(i));
+        }
+        assertEquals(expected, received);
+        assertEquals(12, ringBuffer.getDropped());
+    }
+
+    @Test
+    public void testSampleDropsWhenFull() {
+        final LogEntryRingBuffer ringBuffer = new LogEntryRingBuffer(4, WaitStrategy.of("sleeping"), OverflowPolicy.SAMPLE, 2);
+        ringBuffer.subscribe("idle", (batch) -> { }, 1);
+        for (int i = 0; i < 4; i++) {
+            ringBuffer.publish(entry(i));
+        }
+        ringBuffer.stop();
+        // full, the first of a sample would wait for capacity but the buffer is stopped
+        ringBuffer.publish(entry(4));
+        ringBuffer.publish(entry(5));
+        assertEquals(4, ringBuffer.getPublished());
+        assertEquals(1, ringBuffer.getDropped());
+    }
+
+    private static Thread start(final Runnable subscriber) {
+        final Thread thread = new Thread(subscriber);
+        thread.start();
+        return thread;
+    }
+
+    private static void collect(final LogEntryBatch batch, final List<String> sources) {
+        batch.forEach((entry) -> sources.add(entry.getSource()));
+    }
+
+    private static void await(final List<String> received, final int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (received.size() < count && System.currentTimeMillis() < end) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private static String source(final int i) {
+        return "10.0." + (i / 256) + "." + (i % 256);
+    }
+
+    private static LogEntry entry(final int i) {
+        return new LogEntry("Oct 23 09:25:49 host kernel: IN=eth0 OUT= SRC=" + source(i) + " DST=10.1.0.1 PROTO=TCP SPT=1024 DPT=22");
+    }
+}